@@ -38,7 +38,7 @@ public class Config {
     public static boolean TESTSCREEN_GL = true;
     public static boolean X11_NOHACKS = false;
 
-    private static String getConfigPath() {
+    private static String getConfigDirectory() {
         String path = null;
         if (Utils.isWindows()) {
             path = System.getenv("LOCALAPPDATA");
@@ -58,10 +58,27 @@ public class Config {
         } else if (!path.endsWith(File.separator)) {
             path += File.separator;
         }
-        path += "openldat.cfg";
         return path;
     }
 
+    private static String getConfigPath() {
+        return getConfigDirectory() + "openldat.cfg";
+    }
+
+    /**
+     * @return path of the file where measured sample rates are stored
+     */
+    public static String getCalibrationPath() {
+        return getConfigDirectory() + "calibration.dat";
+    }
+
+    /**
+     * @return path of the file where the ports of the last used devices are stored
+     */
+    public static String getDeviceCachePath() {
+        return getConfigDirectory() + "devices.dat";
+    }
+
     public static void saveConfig() {
         try {
             Map<String, Object> m = new HashMap();
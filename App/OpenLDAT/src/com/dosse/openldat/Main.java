@@ -17,11 +17,22 @@
 package com.dosse.openldat;
 
 import com.dosse.openldat.device.Device;
+import com.dosse.openldat.device.DeviceFinder;
+import com.dosse.openldat.device.SampleRateCalibration;
+import com.dosse.openldat.device.transport.LoopbackTransport;
+import com.dosse.openldat.device.virtual.ClickToPhotonDisplay;
+import com.dosse.openldat.device.virtual.ConstantDisplay;
+import com.dosse.openldat.device.virtual.FlickerDisplay;
+import com.dosse.openldat.device.virtual.PWMDisplay;
+import com.dosse.openldat.device.virtual.PixelResponseDisplay;
+import com.dosse.openldat.device.virtual.SimulatedDevice;
+import com.dosse.openldat.device.virtual.VirtualFirmware;
 import com.dosse.openldat.ui.deviceselector.DeviceSelector;
 import com.dosse.openldat.ui.errordialog.ApplicationError;
 import com.dosse.openldat.ui.errordialog.ErrorDialog;
 import com.dosse.openldat.ui.errordialog.UncaughtExceptionUI;
 import com.dosse.openldat.ui.mainmenu.MainMenu;
+import com.dosse.openldat.ui.tests.driver.VirtualDeviceCheck;
 import com.dosse.openldat.ui.laf.DarkMetalTheme;
 import com.fazecast.jSerialComm.SerialPort;
 import java.awt.EventQueue;
@@ -41,6 +52,11 @@ import org.lwjgl.system.Configuration;
 public class Main {
 
     public static void main(String[] args) {
+        for (String a : args) {
+            if (a.equals("--selftest")) { //headless check of the driver against the virtual devices, no UI and no instance lock
+                System.exit(VirtualDeviceCheck.run(System.out) ? 0 : 1);
+            }
+        }
         Thread.setDefaultUncaughtExceptionHandler(new UncaughtExceptionUI());
         try {
             Locale.setDefault(new Locale("en", "US"));
@@ -54,6 +70,8 @@ public class Main {
             Config.TESTSCREEN_GL = false;
         }
         Config.loadConfig();
+        SampleRateCalibration.setStorageFile(new File(Config.getCalibrationPath()));
+        DeviceFinder.setCacheFile(new File(Config.getDeviceCachePath()));
         if (Utils.isMac()) {
             try {
                 System.setProperty("apple.awt.fullscreenhidecursor", "true");
@@ -76,35 +94,60 @@ public class Main {
             };
             return;
         }
-        EventQueue.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                DeviceSelector sel = new DeviceSelector() {
-                    @Override
-                    public void onDeviceSelected(SerialPort p) {
-                        if (p == null) {
-                            new ErrorDialog(new ApplicationError(null, "No supported devices found", null)) {
-                                @Override
-                                public void onClose() {
-                                    System.exit(0);
-                                }
-                            };
-                        } else {
-                            try {
-                                new MainMenu(new Device(p));
-                            } catch (Throwable ex) {
-                                new ErrorDialog(ex) {
+        String virtualDevice = null;
+        for (String arg : args) {
+            if (arg.toLowerCase().startsWith("--virtual")) { //use an emulated device instead of real hardware, useful for development and benchmarking. Syntax: --virtual[=model]
+                virtualDevice = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1).toLowerCase() : "";
+            }
+        }
+        if (virtualDevice != null) {
+            final VirtualFirmware firmware = createVirtualDevice(virtualDevice);
+            EventQueue.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        new MainMenu(new Device(new LoopbackTransport(firmware)));
+                    } catch (Throwable ex) {
+                        new ErrorDialog(ex) {
+                            @Override
+                            public void onClose() {
+                                System.exit(0);
+                            }
+                        };
+                    }
+                }
+            });
+        } else {
+            EventQueue.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    DeviceSelector sel = new DeviceSelector() {
+                        @Override
+                        public void onDeviceSelected(SerialPort p) {
+                            if (p == null) {
+                                new ErrorDialog(new ApplicationError(null, "No supported devices found", null)) {
                                     @Override
                                     public void onClose() {
                                         System.exit(0);
                                     }
                                 };
+                            } else {
+                                try {
+                                    new MainMenu(DeviceFinder.connect(p));
+                                } catch (Throwable ex) {
+                                    new ErrorDialog(ex) {
+                                        @Override
+                                        public void onClose() {
+                                            System.exit(0);
+                                        }
+                                    };
+                                }
                             }
                         }
-                    }
-                };
-            }
-        });
+                    };
+                }
+            });
+        }
         while (true) {
             synchronized (tasksToRunOnMainThread) {
                 for (Runnable r : tasksToRunOnMainThread) {
@@ -116,6 +159,21 @@ public class Main {
         }
     }
 
+    private static VirtualFirmware createVirtualDevice(String model) {
+        switch (model) {
+            case "response":
+                return new SimulatedDevice(new PixelResponseDisplay(new double[]{0, 0.25, 0.5, 0.75, 1}, 500, 5, 8, 0.1, 3));
+            case "pwm":
+                return new SimulatedDevice(new PWMDisplay(new ConstantDisplay(0.8), 240, 0.5));
+            case "stutter":
+                return new SimulatedDevice(new FlickerDisplay(60, 0.01, 4, 0));
+            case "inputlag":
+                return new SimulatedDevice(new ClickToPhotonDisplay(60, 30, 100));
+            default:
+                return new VirtualFirmware();
+        }
+    }
+
     //adapted from https://stackoverflow.com/a/2002948
     private static boolean lockInstance() {
         try {
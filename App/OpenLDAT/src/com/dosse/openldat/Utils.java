@@ -23,6 +23,9 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileLock;
 import java.util.concurrent.TimeUnit;
 import javax.imageio.ImageIO;
@@ -152,4 +155,19 @@ public class Utils {
         }
     }
 
+    /**
+     * Direct and mapped buffers are normally only released when they are garbage collected. This releases one immediately if the JVM allows it,
+     * after that it must not be used anymore
+     */
+    public static final void releaseDirectBuffer(ByteBuffer b) {
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Method clean = c.getMethod("invokeCleaner", ByteBuffer.class);
+            clean.invoke(f.get(null), b);
+        } catch (Throwable t) {
+        }
+    }
+
 }
@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+import com.dosse.openldat.device.capture.ICaptureSink;
+import com.dosse.openldat.device.transport.ITransport;
+import com.dosse.openldat.device.wait.WaitStrategy;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A running acquisition: a reader thread pulls frames from the transport and decodes them into blocks of samples.
+ * Blocks are either passed to the consumer directly on the reader thread, or handed over through a SampleRing to a dispatch thread,
+ * so that a slow consumer can't make the reader fall behind the device
+ *
+ * @author dosse
+ */
+class Acquisition {
+
+    static final int MAX_READ_SIZE = 8192; //max bytes pulled from the transport in a single read, must be larger than any frame
+    private static final int UNBUFFERED_BLOCK_SIZE = 256; //in unbuffered mode, samples are grouped into blocks of up to this size
+    private static final long DISPATCH_MAX_WAIT_NS = 10000000L;
+
+    private final ITransport com;
+    private final WaitStrategy waiter;
+    private final int samplesPerFrame, framesPerBlock, frameSize;
+    private final boolean hasClick;
+    private final BlockConsumer consumer;
+    private final ICaptureSink capture;
+    private final DeviceMetrics metrics;
+    private final SampleRing ring;
+    private final SampleClock clock;
+    private final FrameDecoder decoder;
+    private final Thread reader, dispatcher;
+
+    private volatile boolean stopASAP = false, readerDone = false;
+    private volatile Exception readerError = null;
+
+    /**
+     * @param com transport to read from, the acquisition command must already have been sent
+     * @param waiter how the reader waits for new data
+     * @param samplesPerFrame samples in each frame sent by the device (1 in unbuffered mode)
+     * @param noBuffer true if the device sends one sample at a time
+     * @param hasClick true if each frame is followed by the click samples
+     * @param framed true if the device sends the framed stream (protocol v2, buffered modes only), see FrameDecoder. With samplesPerFrame=0, the frames contain edge mode events
+     * @param dispatchBufferSize size of the dispatch ring in samples, or 0 to run the consumer on the reader thread
+     * @param sampleRate expected sample rate, used to initialize the SampleClock
+     * @param capture receives every block on the reader thread, even those dropped because the consumer can't keep up. Can be null
+     * @param metrics where I/O statistics are accumulated
+     * @param consumer receives the blocks
+     */
+    Acquisition(ITransport com, WaitStrategy waiter, int samplesPerFrame, boolean noBuffer, boolean hasClick, boolean framed, int dispatchBufferSize, double sampleRate, ICaptureSink capture, DeviceMetrics metrics, BlockConsumer consumer) {
+        this.com = com;
+        clock = new SampleClock(sampleRate);
+        this.waiter = waiter;
+        this.samplesPerFrame = samplesPerFrame;
+        this.hasClick = hasClick;
+        this.consumer = consumer;
+        this.capture = capture;
+        this.metrics = metrics;
+        frameSize = samplesPerFrame * (hasClick ? 3 : 2);
+        decoder = framed ? new FrameDecoder(samplesPerFrame, MAX_READ_SIZE) : null;
+        framesPerBlock = noBuffer ? UNBUFFERED_BLOCK_SIZE / samplesPerFrame : 1;
+        int blockSize = framesPerBlock * samplesPerFrame;
+        reader = new Thread() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        };
+        reader.setName("OpenLDAT reader");
+        reader.setPriority(Thread.MAX_PRIORITY);
+        if (dispatchBufferSize > 0) {
+            ring = new SampleRing(Math.max(2, dispatchBufferSize / blockSize), blockSize, hasClick);
+            dispatcher = new Thread() {
+                @Override
+                public void run() {
+                    dispatchLoop();
+                }
+            };
+            dispatcher.setName("OpenLDAT dispatcher");
+            dispatcher.setPriority(Thread.MAX_PRIORITY - 1);
+        } else {
+            ring = null;
+            dispatcher = null;
+        }
+    }
+
+    void start() {
+        if (dispatcher != null) {
+            dispatcher.start();
+        }
+        reader.start();
+    }
+
+    /**
+     * Stops both threads. Blocks that are still waiting in the ring are discarded
+     *
+     * @return true if the threads stopped within the timeout (or if called from one of them)
+     */
+    boolean stop(long timeoutMs) {
+        stopASAP = true;
+        waiter.signal();
+        if (ring != null) {
+            ring.wakeUp();
+        }
+        return join(reader, timeoutMs) & join(dispatcher, timeoutMs);
+    }
+
+    private static boolean join(Thread t, long timeoutMs) {
+        if (t == null || t == Thread.currentThread()) {
+            return true;
+        }
+        try {
+            t.join(timeoutMs);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return !t.isAlive();
+    }
+
+    boolean isAlive() {
+        return reader.isAlive() || (dispatcher != null && dispatcher.isAlive());
+    }
+
+    /**
+     * @return the dispatch ring, or null if the consumer runs on the reader thread
+     */
+    SampleRing getRing() {
+        return ring;
+    }
+
+    SampleClock getClock() {
+        return clock;
+    }
+
+    /**
+     * @return samples that the device sent but never arrived intact (framed stream only)
+     */
+    long getLostSamples() {
+        return decoder == null ? 0 : decoder.getLostSamples();
+    }
+
+    /**
+     * @return frames that the device sent but never arrived intact (framed stream only)
+     */
+    long getLostFrames() {
+        return decoder == null ? 0 : decoder.getLostFrames();
+    }
+
+    /**
+     * @return frames that were discarded because they were damaged (framed stream only)
+     */
+    long getCorruptFrames() {
+        return decoder == null ? 0 : decoder.getCorruptFrames();
+    }
+
+    private void readBytes(byte[] buffer, int offset, int length) throws IOException {
+        long t = System.nanoTime();
+        int read = 0;
+        while (read < length) {
+            int n = com.read(buffer, length - read, offset + read);
+            if (n < 0 || !com.isOpen()) {
+                throw new IOException("Device closed");
+            }
+            read += n;
+        }
+        metrics.addRead(length, System.nanoTime() - t);
+    }
+
+    private void waitForData(int idleCount) {
+        long t = System.nanoTime();
+        waiter.waitForData(idleCount);
+        metrics.addWait(System.nanoTime() - t);
+    }
+
+    private void deliver(int[] light, int[] click, int length, long timestamp, long sequence) {
+        long t = System.nanoTime();
+        consumer.onBlock(light, click, length, timestamp, sequence);
+        metrics.addCallback(length, System.nanoTime() - t);
+    }
+
+    /**
+     * Decodes consecutive frames into a block. Each frame is all the light samples (uint16 LE) followed by all the click samples (uint8)
+     */
+    private void decodeFrames(byte[] src, int offset, int frames, int[] light, int[] click) {
+        for (int f = 0, j = offset, d = 0; f < frames; f++) {
+            for (int i = 0; i < samplesPerFrame; i++, j += 2) {
+                light[d + i] = (src[j] & 0xFF) | ((src[j + 1] & 0xFF) << 8);
+            }
+            if (hasClick) {
+                for (int i = 0; i < samplesPerFrame; i++, j++) {
+                    click[d + i] = src[j] & 0xFF;
+                }
+            }
+            d += samplesPerFrame;
+        }
+    }
+
+    private static void expandRuns(int[] values, int[] lengths, int runs, int[] light) {
+        for (int i = 0, d = 0; i < runs; i++) {
+            Arrays.fill(light, d, d + lengths[i], values[i]);
+            d += lengths[i];
+        }
+    }
+
+    private void readLoop() {
+        int idleCount = 0;
+        long sequence = 0;
+        long lastCorrupt = 0;
+        int pendingMarker = -1; //reconfiguration of a block that was dropped, delivered with the next one
+        int maxFrames = decoder == null ? MAX_READ_SIZE / frameSize : 0;
+        byte[] raw = decoder == null ? new byte[maxFrames * frameSize] : null; //the framed stream is read straight into the decoder
+        int[] light = null, click = null;
+        if (ring == null || capture != null) {
+            //in ring mode, used to capture the blocks that don't fit in the ring
+            light = new int[framesPerBlock * samplesPerFrame];
+            click = hasClick ? new int[light.length] : null;
+        }
+        int[] runValues = null, runLengths = null;
+        if (decoder != null && samplesPerFrame > 0 && ring == null && consumer.acceptsRuns()) {
+            runValues = new int[samplesPerFrame];
+            runLengths = new int[samplesPerFrame];
+        }
+        int[] eventKinds = null, eventValues = null;
+        long[] eventTimes = null;
+        if (decoder != null && samplesPerFrame == 0) {
+            eventKinds = new int[FrameDecoder.MAX_EVENTS];
+            eventValues = new int[FrameDecoder.MAX_EVENTS];
+            eventTimes = new long[FrameDecoder.MAX_EVENTS];
+        }
+        try {
+            while (true) {
+                if (stopASAP) {
+                    return;
+                }
+                if (!com.isOpen()) {
+                    throw new IOException("Device closed");
+                }
+                if (decoder != null) {
+                    int available = com.bytesAvailable(), n = Math.min(available, MAX_READ_SIZE);
+                    if (n > 0) {
+                        metrics.addBacklog(available);
+                        readBytes(decoder.getBuffer(), decoder.getWriteOffset(), n);
+                        decoder.added(n);
+                        long timestamp = System.nanoTime();
+                        idleCount = 0;
+                        for (int length = decoder.nextFrame(); length > 0; length = decoder.nextFrame()) {
+                            if (eventKinds != null) {
+                                //edge mode, events are rare so they're always delivered on this thread. They're sent as soon as they happen, so their time is used for the clock
+                                decoder.decodeEvents(eventKinds, eventTimes, eventValues);
+                                clock.update(timestamp, eventTimes[length - 1]);
+                                long t = System.nanoTime();
+                                consumer.onEvents(eventKinds, eventTimes, eventValues, length, timestamp);
+                                metrics.addCallback(0, System.nanoTime() - t);
+                                continue;
+                            }
+                            //samples lost in transit still advance the sequence, so that it keeps matching the time on the device
+                            sequence += decoder.getFrameLostSamples();
+                            if (decoder.getFrameLostSamples() > 0) {
+                                metrics.addLostSamples(decoder.getFrameLostSamples());
+                            }
+                            //updated before delivering, like in the raw stream, so the callbacks can already use the clock for these samples
+                            clock.update(timestamp, sequence + length - 1);
+                            int marker = decoder.getFrameMarker();
+                            if (ring == null && marker != -1) {
+                                consumer.onReconfigured(marker, sequence);
+                            }
+                            if (runValues != null && decoder.isRunsFrame()) {
+                                int runs = decoder.decodeRuns(runValues, runLengths);
+                                if (capture != null) {
+                                    expandRuns(runValues, runLengths, runs, light);
+                                    capture.write(light, click, length);
+                                }
+                                long t = System.nanoTime();
+                                consumer.onRuns(runValues, runLengths, runs, timestamp, sequence);
+                                metrics.addCallback(length, System.nanoTime() - t);
+                            } else if (ring == null) {
+                                decoder.decode(light, click);
+                                if (capture != null) {
+                                    capture.write(light, click, length);
+                                }
+                                deliver(light, click, length, timestamp, sequence);
+                            } else {
+                                int block = ring.claim();
+                                if (block == -1) {
+                                    if (capture != null) {
+                                        decoder.decode(light, click);
+                                        capture.write(light, click, length);
+                                    } else {
+                                        decoder.skip();
+                                    }
+                                    ring.overflow(length);
+                                    metrics.addDroppedSamples(length);
+                                    if (marker != -1) {
+                                        pendingMarker = marker;
+                                    }
+                                } else {
+                                    decoder.decode(ring.getLight(block), ring.getClick(block));
+                                    if (capture != null) {
+                                        capture.write(ring.getLight(block), ring.getClick(block), length);
+                                    }
+                                    ring.publish(block, length, timestamp, sequence, marker != -1 ? marker : pendingMarker);
+                                    pendingMarker = -1;
+                                }
+                            }
+                            sequence += length;
+                        }
+                        long corrupt = decoder.getCorruptFrames();
+                        if (corrupt > lastCorrupt) {
+                            metrics.addCorruptFrames(corrupt - lastCorrupt);
+                            lastCorrupt = corrupt;
+                        }
+                    } else {
+                        waitForData(idleCount);
+                        if (idleCount < Integer.MAX_VALUE) {
+                            idleCount++;
+                        }
+                    }
+                    continue;
+                }
+                int available = com.bytesAvailable(), frames = available / frameSize;
+                if (frames > 0) {
+                    metrics.addBacklog(available);
+                    if (frames > maxFrames) {
+                        frames = maxFrames;
+                    }
+                    readBytes(raw, 0, frames * frameSize);
+                    long timestamp = System.nanoTime();
+                    clock.update(timestamp, sequence + frames * samplesPerFrame - 1);
+                    idleCount = 0;
+                    for (int f = 0; f < frames; f += framesPerBlock) {
+                        int n = Math.min(framesPerBlock, frames - f), length = n * samplesPerFrame;
+                        if (ring == null) {
+                            decodeFrames(raw, f * frameSize, n, light, click);
+                            if (capture != null) {
+                                capture.write(light, click, length);
+                            }
+                            deliver(light, click, length, timestamp, sequence);
+                        } else {
+                            int block = ring.claim();
+                            if (block == -1) {
+                                if (capture != null) {
+                                    decodeFrames(raw, f * frameSize, n, light, click);
+                                    capture.write(light, click, length);
+                                }
+                                ring.overflow(length);
+                                metrics.addDroppedSamples(length);
+                            } else {
+                                decodeFrames(raw, f * frameSize, n, ring.getLight(block), ring.getClick(block));
+                                if (capture != null) {
+                                    capture.write(ring.getLight(block), ring.getClick(block), length);
+                                }
+                                ring.publish(block, length, timestamp, sequence);
+                            }
+                        }
+                        sequence += length;
+                    }
+                } else {
+                    waitForData(idleCount);
+                    if (idleCount < Integer.MAX_VALUE) {
+                        idleCount++;
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            if (ring == null) {
+                consumer.onError(ex);
+            } else {
+                readerError = ex;
+            }
+        } finally {
+            readerDone = true;
+            if (ring != null) {
+                ring.wakeUp();
+            }
+        }
+    }
+
+    private void dispatchLoop() {
+        int idleCount = 0;
+        while (!stopASAP) {
+            int block = ring.peek();
+            if (block != -1) {
+                if (ring.getMarker(block) != -1) {
+                    consumer.onReconfigured(ring.getMarker(block), ring.getSequence(block));
+                }
+                deliver(ring.getLight(block), ring.getClick(block), ring.getLength(block), ring.getTimestamp(block), ring.getSequence(block));
+                ring.release();
+                idleCount = 0;
+            } else if (readerDone) {
+                //the reader has stopped and everything it produced has been delivered
+                if (ring.peek() == -1) {
+                    if (readerError != null) {
+                        consumer.onError(readerError);
+                    }
+                    return;
+                }
+            } else {
+                ring.await(idleCount, DISPATCH_MAX_WAIT_NS);
+                if (idleCount < Integer.MAX_VALUE) {
+                    idleCount++;
+                }
+            }
+        }
+    }
+
+}
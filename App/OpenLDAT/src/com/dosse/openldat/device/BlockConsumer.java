@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+/**
+ * Receives decoded sample blocks from an Acquisition and forwards them to the callback of the current mode
+ *
+ * @author dosse
+ */
+abstract class BlockConsumer {
+
+    /**
+     * @param light light samples
+     * @param click click samples, or null in monitor mode
+     * @param length number of valid samples in the arrays
+     * @param timestamp System.nanoTime when the block was read from the device
+     * @param sequence index of the first sample of the block since the acquisition started
+     */
+    abstract void onBlock(int[] light, int[] click, int length, long timestamp, long sequence);
+
+    /**
+     * Called in edge mode instead of onBlock
+     *
+     * @param kinds kind of each event (FrameDecoder.EVENT_CLICK, ...)
+     * @param times time of each event on the device, in microseconds
+     * @param values light level at each event
+     * @param count number of valid events in the arrays
+     * @param timestamp System.nanoTime when the events were read from the device
+     */
+    void onEvents(int[] kinds, long[] times, int[] values, int count, long timestamp) {
+    }
+
+    /**
+     * @return true if run length frames must be passed to onRuns instead of being expanded. Only honored when the consumer runs on the reader thread
+     */
+    boolean acceptsRuns() {
+        return false;
+    }
+
+    /**
+     * Called instead of onBlock for run length frames, if acceptsRuns returns true
+     *
+     * @param values light level of each run
+     * @param lengths number of samples in each run
+     * @param count number of valid runs in the arrays
+     * @param sequence index of the first sample of the first run since the acquisition started
+     */
+    void onRuns(int[] values, int[] lengths, int count, long timestamp, long sequence) {
+    }
+
+    /**
+     * Called before the first block with new settings, after the device was reconfigured on the fly
+     *
+     * @param flags the new flags, as sent with the reconfigure command
+     * @param sequence index of the first sample with the new settings
+     */
+    void onReconfigured(int flags, long sequence) {
+    }
+
+    abstract void onError(Exception e);
+
+}
@@ -17,13 +17,20 @@
 package com.dosse.openldat.device;
 
 import com.dosse.openldat.Utils;
+import com.dosse.openldat.device.callbacks.EdgeCallback;
 import com.dosse.openldat.device.callbacks.LightSensorButtonCallback;
 import com.dosse.openldat.device.callbacks.LightSensorMonitorCallback;
+import com.dosse.openldat.device.callbacks.LightSensorRunLengthCallback;
+import com.dosse.openldat.device.capture.ICaptureSink;
 import com.dosse.openldat.device.errors.MissingSensorException;
 import com.dosse.openldat.device.errors.DeviceError;
+import com.dosse.openldat.device.wait.BlockingWaitStrategy;
+import com.dosse.openldat.device.wait.WaitStrategy;
+import com.dosse.openldat.device.transport.ITransport;
+import com.dosse.openldat.device.transport.SerialPortTransport;
 import com.fazecast.jSerialComm.SerialPort;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
@@ -33,19 +40,29 @@ public class Device {
     
     public static final int DRIVER_VERSION = 1;
     
-    private SerialPort com;
-    private InputStream in;
+    private final ITransport com;
     private boolean hasLightSensor, isPrototype, oscilloscopeDebug;
     private int largeBufferSize = -1, smallBufferSize = -1;
     private String firmwareVersion, serialNumber;
-    private int model = -1, minver = -1;
-    
-    private Thread workerThread = null;
-    private boolean stopWorkerThreadASAP = false;
+    private int model = -1, minver = -1, protocolVersion = 1;
+    
+    private volatile Acquisition acquisition = null;
+    private boolean idleAck = false, shotSupport = false, edgeSupport = false, runLengthSupport = false, reconfigureSupport = false;
+    private volatile int liveFlags = -1; //flags of the running light sensor acquisition, if it can be reconfigured on the fly
+    private WaitStrategy waitStrategy = new BlockingWaitStrategy();
+    private int dispatchBufferSize = DEFAULT_DISPATCH_BUFFER_SIZE;
+    private ICaptureSink captureSink = null;
+    private boolean framedStreamEnabled = true;
+    private int deadband = -1;
+    private final DeviceMetrics metrics = new DeviceMetrics();
     
     private static final byte COMMAND_ID = 0x44,
             COMMAND_IDLE = 0x49,
-            COMMAND_LIGHTSENSOR = 0x4C;
+            COMMAND_LIGHTSENSOR = 0x4C,
+            COMMAND_SHOT = 0x53,
+            COMMAND_EDGE = 0x45,
+            COMMAND_DEADBAND = 0x5A,
+            COMMAND_RECONFIGURE = 0x52;
     
     private static final byte LIGHTSENSOR_FEATURE_AUTOFIRE = 0b00000001,
             LIGHTSENSOR_FEATURE_NOBUFFER = 0b00000010,
@@ -53,24 +70,42 @@ public class Device {
             LIGHTSENSOR_FEATURE_MONITOR = 0b00001000,
             LIGHTSENSOR_FEATURE_NOCLICK = 0b00010000,
             LIGHTSENSOR_FEATURE_FASTADC = 0b00100000,
-            LIGHTSENSOR_FEATURE_HIGHSENS2 = 0b01000000;
+            LIGHTSENSOR_FEATURE_HIGHSENS2 = 0b01000000,
+            LIGHTSENSOR_FEATURE_FRAMED = (byte) 0b10000000;
     
     private static final byte NO_FLAGS = 0x00;
     
+    public static final int DEFAULT_DISPATCH_BUFFER_SIZE = 0; //samples, callbacks run on the reading thread unless a ring is requested
+    public static final int INTERACTIVE_DISPATCH_BUFFER_SIZE = 65536; //samples, about 2 seconds. For charts, Swing and audio consumers, which would rather lose samples than make the device fall behind
+    
+    private static final byte[] IDLE_ACK = {0x49, 0x44, 0x4C, 0x45, 0x0A}; //"IDLE\n", sent by the firmware after an IDLE command. Can't appear in a raw sample stream because it contains consecutive bytes >3, in the framed stream the odds of it appearing by chance are about 1 in 2^40 per byte
+    private static final long IDLE_ACK_TIMEOUT_MS = 1000, //how long to wait for the idle acknowledgement before assuming it was lost
+            IDLE_SILENCE_MS = 100, //how long the device must be silent to be considered idle (firmware without idle acknowledgement)
+            WORKER_JOIN_TIMEOUT_MS = 2000,
+            REPLY_TIMEOUT_MS = 1000, //how long to wait for each line of a reply before giving up
+            CALIBRATION_WARMUP_MS = 500;
+    private static final double SHOT_MIN_SAMPLE_RATE = 5000; //slowest the firmware can sample during a shot, used for the timeout
+    private static final int SHOT_REPLY_SIZE = 14 + ShotResult.HISTOGRAM_BINS * 2; //sync, type, count, min, max, sum, histogram, checksum
+    private static final double CALIBRATION_MAX_DEVIATION = 0.1; //measured sample rates that differ from the nominal ones by more than this are rejected
+    
+    private final byte[] idleBuffer = new byte[Acquisition.MAX_READ_SIZE];
+    
     public Device(SerialPort com) throws DeviceError {
+        this(new SerialPortTransport(com));
+    }
+    
+    public Device(ITransport com) throws DeviceError {
         this.com = com;
-        String name = com.getPortDescription().toLowerCase().trim();
+        String name = com.getDescription().toLowerCase().trim();
         if (name.startsWith("openldat ")) {
             if (name.equals("openldat model 1") || name.equals("openldat model 1c") ||  name.equals("openldat prototype")) {
                 //supported, model 1
                 model = 1;
-                if (!com.openPort(100, 2, 131072)) {
+                if (!com.open()) {
                     throw new DeviceError(DeviceError.FAILED_TO_CONNECT);
                 }
-                com.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, 10, 10);
-                in = com.getInputStream();
                 sendCommand(COMMAND_IDLE, NO_FLAGS);
-                waitForInactivity();
+                waitForIdle();
                 sendCommand(COMMAND_ID, NO_FLAGS);
                 int lines = 0;
                 while (true) {
@@ -125,6 +160,36 @@ public class Device {
                                 lines++;
                                 break;
                             }
+                            case "IdleAck": {
+                                idleAck = value.equals("1");
+                                lines++;
+                                break;
+                            }
+                            case "Shot": {
+                                shotSupport = value.equals("1");
+                                lines++;
+                                break;
+                            }
+                            case "Reconfigure": {
+                                reconfigureSupport = value.equals("1");
+                                lines++;
+                                break;
+                            }
+                            case "RunLength": {
+                                runLengthSupport = value.equals("1");
+                                lines++;
+                                break;
+                            }
+                            case "Edge": {
+                                edgeSupport = value.equals("1");
+                                lines++;
+                                break;
+                            }
+                            case "Protocol": {
+                                protocolVersion = Integer.parseInt(value);
+                                lines++;
+                                break;
+                            }
                             case "SerialNo": {
                                 serialNumber = value;
                                 lines++;
@@ -161,82 +226,81 @@ public class Device {
     }
     
     private void sendCommand(byte cmd, byte flags) {
-        com.writeBytes(new byte[]{cmd, flags}, 2);
+        com.write(new byte[]{cmd, flags}, 2);
     }
     
     private String readString() {
         StringBuilder b = new StringBuilder();
+        byte[] c = new byte[1];
+        long deadline = System.nanoTime() + REPLY_TIMEOUT_MS * 1000000L;
         while (true) {
-            try {
-                int c = in.read();
-                if (c == 0x0A) {
-                    break;
-                } else {
-                    b.append((char) c);
-                }
-            } catch (IOException ex) {
+            int n = com.read(c, 1, 0);
+            if (n < 0 || (n == 0 && System.nanoTime() >= deadline)) {
+                break;
+            }
+            if (n == 0) {
+                continue;
+            }
+            if (c[0] == 0x0A) {
                 break;
+            } else {
+                b.append((char) (c[0] & 0xFF));
             }
         }
         return b.toString().trim();
     }
     
-    private int readUInt16() throws IOException {
-        return (in.read() & 0xFF) | ((in.read() & 0xFF) << 8);
-    }
-    
-    private int readUInt8() throws IOException {
-        return in.read() & 0xFF;
-    }
-    
-    private void readUInt16Array(int[] buffer) throws IOException {
-        for (int i = 0; i < buffer.length; i++) {
-            buffer[i] = (in.read() & 0xFF) | ((in.read() & 0xFF) << 8);
-        }
-    }
-    
-    private void readUInt8Array(int[] buffer) throws IOException {
-        for (int i = 0; i < buffer.length; i++) {
-            buffer[i] = in.read() & 0xFF;
-        }
-    }
-    
-    private float readFloat32() throws IOException {
-        int temp = (in.read() & 0xFF) | ((in.read() & 0xFF) << 8) | ((in.read() & 0xFF) << 16) | ((in.read() & 0xFF) << 24);
-        return Float.intBitsToFloat(temp);
-    }
-    
     public void endCurrentActivity() {
-        sendCommand(COMMAND_IDLE, NO_FLAGS);
-        if (workerThread != null) {
-            if (workerThread.isAlive()) {
-                stopWorkerThreadASAP = true;
-                while (stopWorkerThreadASAP) {
-                    Utils.sleep(1);
-                }
-            }
-            workerThread = null;
+        liveFlags = -1;
+        Acquisition a = acquisition;
+        if (a != null && !a.stop(WORKER_JOIN_TIMEOUT_MS)) {
+            System.err.println("WARNING: acquisition thread did not stop in time, a callback is probably stuck");
         }
-        waitForInactivity();
+        com.setDataListener(null);
+        //anything still queued belongs to the previous activity, then IDLE is sent so the acknowledgement can't be flushed with it
+        com.flush();
+        sendCommand(COMMAND_IDLE, NO_FLAGS);
+        waitForIdle();
     }
     
-    private void waitForInactivity() {
-        try {
-            long lastRead = System.currentTimeMillis();
-            while (System.currentTimeMillis() - lastRead < 100) {
-                if (in.available() != 0) {
-                    in.read();
-                    lastRead = System.currentTimeMillis();
+    /**
+     * Discards incoming data until the device acknowledges the IDLE command. If the firmware doesn't support the acknowledgement (or it was lost),
+     * it waits until the device has been silent for IDLE_SILENCE_MS instead. Reads are semi-blocking so this doesn't keep a CPU core busy
+     */
+    private void waitForIdle() {
+        int matched = 0;
+        long start = System.nanoTime(), lastRead = start;
+        boolean expectAck = idleAck;
+        while (com.isOpen()) {
+            int n = com.read(idleBuffer, idleBuffer.length, 0);
+            long now = System.nanoTime();
+            if (n < 0) {
+                return;
+            }
+            if (n > 0) {
+                lastRead = now;
+                for (int i = 0; i < n; i++) {
+                    if (idleBuffer[i] == IDLE_ACK[matched]) {
+                        if (++matched == IDLE_ACK.length) {
+                            return;
+                        }
+                    } else {
+                        matched = idleBuffer[i] == IDLE_ACK[0] ? 1 : 0;
+                    }
                 }
+            } else if (!expectAck && now - lastRead >= IDLE_SILENCE_MS * 1000000L) {
+                return;
+            }
+            if (expectAck && now - start >= IDLE_ACK_TIMEOUT_MS * 1000000L) {
+                expectAck = false;
             }
-        } catch (IOException ex) {
         }
     }
     
     public void close() {
         if (com.isOpen()) {
             endCurrentActivity();
-            com.closePort();
+            com.close();
         }
     }
     
@@ -261,33 +325,226 @@ public class Device {
     }
     
     public String getModel() {
-        return com.getPortDescription();
+        return com.getDescription();
     }
     
     public int getModelCode() {
         return model;
     }
     
+    public ITransport getTransport() {
+        return com;
+    }
+    
     public String getPortName() {
-        return com.getSystemPortName();
+        return com.getName();
     }
     
     public int getMinDriverVersion() {
         return minver;
     }
     
+    /**
+     * @return true if the firmware can compute the statistics for shoot by itself
+     */
+    public boolean hasOnDeviceShot() {
+        return shotSupport;
+    }
+    
+    /**
+     * @return true if the firmware can run the edge mode by itself
+     */
+    public boolean hasOnDeviceEdgeMode() {
+        return edgeSupport;
+    }
+    
+    /**
+     * @return version of the light sensor stream protocol supported by the firmware. 1=raw samples, 2=also supports the framed stream (see setFramedStreamEnabled)
+     */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+    
     public String getSerialNumber() {
         return serialNumber;
     }
     
+    /**
+     * @return identifier under which the calibration of this device is stored. DIY units don't have a serial number, so they're identified by their port
+     */
+    public String getCalibrationId() {
+        return serialNumber.equals("DIY") ? "DIY@" + com.getName() : serialNumber;
+    }
+    
     public boolean isBusy() {
-        return workerThread != null && workerThread.isAlive();
+        Acquisition a = acquisition;
+        return a != null && a.isAlive();
     }
     
+    /**
+     * Sets the size of the ring between the thread that reads from the device and the thread that runs the callbacks.
+     * If the callbacks can't keep up, samples are dropped (see getDroppedSamples) instead of letting the device fall behind, so code that rebuilds time from the sample index must check for drops.
+     * Disabled by default (see INTERACTIVE_DISPATCH_BUFFER_SIZE), takes effect from the next acquisition
+     *
+     * @param samples size of the ring in samples, or 0 to run the callbacks directly on the reading thread
+     */
+    public void setDispatchBufferSize(int samples) {
+        dispatchBufferSize = samples < 0 ? 0 : samples;
+    }
+    
+    public int getDispatchBufferSize() {
+        return dispatchBufferSize;
+    }
+    
+    /**
+     * @return ring used by the current (or last) acquisition, or null if its callbacks ran on the reading thread. Can be used to monitor lag and overflows
+     */
+    public SampleRing getDispatchRing() {
+        Acquisition a = acquisition;
+        return a == null ? null : a.getRing();
+    }
+    
+    /**
+     * @return clock of the current (or last) acquisition, mapping sample indexes (as passed to the callbacks) to host time. Null if nothing was acquired yet
+     */
+    public SampleClock getSampleClock() {
+        Acquisition a = acquisition;
+        return a == null ? null : a.getClock();
+    }
+    
+    /**
+     * @return number of samples of the current (or last) acquisition that were dropped because the callback couldn't keep up
+     */
+    public long getDroppedSamples() {
+        SampleRing r = getDispatchRing();
+        return r == null ? 0 : r.getOverflowSamples();
+    }
+    
+    /**
+     * @return I/O statistics of all the acquisitions since the metrics were last reset
+     */
+    public DeviceMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Sets a sink that receives every sample directly on the thread that reads from the device, including those dropped because the callbacks couldn't keep up.
+     * Takes effect from the next acquisition and stays in place until it's set to null. Not used while calibrating
+     *
+     * @param captureSink the sink, for instance a MappedCaptureFile, or null to stop capturing
+     */
+    public void setCaptureSink(ICaptureSink captureSink) {
+        this.captureSink = captureSink;
+    }
+    
+    public ICaptureSink getCaptureSink() {
+        return captureSink;
+    }
+    
+    /**
+     * Enables or disables the framed stream (protocol v2) in the buffered modes, if the firmware supports it.
+     * It packs samples to 10 bits with a frame header, sequence number and checksum, so it uses less bandwidth and lost or damaged data is detected
+     * (see getLostSamples) instead of misaligning the following samples. Enabled by default, takes effect from the next acquisition
+     */
+    public void setFramedStreamEnabled(boolean framedStreamEnabled) {
+        this.framedStreamEnabled = framedStreamEnabled;
+    }
+    
+    public boolean isFramedStreamEnabled() {
+        return framedStreamEnabled;
+    }
+    
+    private boolean useFramedStream(boolean noBuffer) {
+        return framedStreamEnabled && !noBuffer && protocolVersion >= 2;
+    }
+    
+    /**
+     * @return true if the firmware can send run length frames in monitor mode
+     */
+    public boolean hasRunLengthEncoding() {
+        return runLengthSupport;
+    }
+    
+    /**
+     * Enables run length encoding in buffered monitor mode, if the firmware supports it and the framed stream is enabled.
+     * While the light level stays within the deadband, the device sends it as a single run instead of sending every sample, using much less bandwidth during static phases.
+     * Runs are expanded back into regular buffers, unless the callback is a LightSensorRunLengthCallback. Takes effect from the next acquisition
+     *
+     * @param deadband max difference in ADC units between the first sample of a run and the others (0-254), 0 for lossless encoding, -1 to disable it (default)
+     */
+    public void setDeadband(int deadband) {
+        this.deadband = deadband < -1 ? -1 : deadband > 254 ? 254 : deadband;
+    }
+    
+    public int getDeadband() {
+        return deadband;
+    }
+    
+    /**
+     * @return number of samples of the current (or last) acquisition that the device sent but never arrived intact. Only detected with the framed stream
+     */
+    public long getLostSamples() {
+        Acquisition a = acquisition;
+        return a == null ? 0 : a.getLostSamples();
+    }
+    
+    /**
+     * @return number of frames of the current (or last) acquisition that the device sent but never arrived intact. Only detected with the framed stream, in edge mode it means that events were lost
+     */
+    public long getLostFrames() {
+        Acquisition a = acquisition;
+        return a == null ? 0 : a.getLostFrames();
+    }
+    
+    /**
+     * @return number of frames of the current (or last) acquisition that were discarded because they were damaged. Only detected with the framed stream
+     */
+    public long getCorruptFrames() {
+        Acquisition a = acquisition;
+        return a == null ? 0 : a.getCorruptFrames();
+    }
+    
+    /**
+     * Sets how the acquisition thread waits for new data. Takes effect from the next acquisition
+     *
+     * @param waitStrategy the strategy to use, or null to use the default strategy (BlockingWaitStrategy)
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy == null ? new BlockingWaitStrategy() : waitStrategy;
+    }
+    
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+    
+    private WaitStrategy startWaitStrategy() {
+        WaitStrategy waiter = waitStrategy;
+        if (waiter.usesDataEvents()) {
+            com.setDataListener(new Runnable() {
+                @Override
+                public void run() {
+                    waiter.signal();
+                }
+            });
+        }
+        return waiter;
+    }
+    
+    /**
+     * @return sample rate measured by calibrateLightSensorMonitorModeSampleRate for this device, or the nominal one if it hasn't been calibrated
+     */
     public double getLightSensorMonitorModeSampleRate(boolean noBuffer, boolean fastADC) throws MissingSensorException {
         if (!hasLightSensor) {
             throw new MissingSensorException(MissingSensorException.LIGHT_SENSOR);
         }
+        double r = SampleRateCalibration.get(SampleRateCalibration.getKey(getCalibrationId(), false, noBuffer, fastADC));
+        return r > 0 ? r : getNominalLightSensorMonitorModeSampleRate(noBuffer, fastADC);
+    }
+    
+    /**
+     * @return sample rate of the Model 1 firmware in light sensor monitor mode, as measured on the reference device
+     */
+    public static double getNominalLightSensorMonitorModeSampleRate(boolean noBuffer, boolean fastADC) {
         if (noBuffer) {
             if (fastADC) {
                 return 21000.0;
@@ -311,66 +568,67 @@ public class Device {
         if (!hasLightSensor) {
             throw new MissingSensorException(MissingSensorException.LIGHT_SENSOR);
         }
-        sendCommand(COMMAND_LIGHTSENSOR, (byte) (LIGHTSENSOR_FEATURE_MONITOR | (noBuffer ? LIGHTSENSOR_FEATURE_NOBUFFER : 0) | ((sensitivity & 0b01) != 0 ? LIGHTSENSOR_FEATURE_HIGHSENS1 : 0) | ((sensitivity & 0b10) != 0 ? LIGHTSENSOR_FEATURE_HIGHSENS2 : 0) | (fastADC ? LIGHTSENSOR_FEATURE_FASTADC : 0)));
-        workerThread = new Thread() {
+        boolean runLength = runLengthSupport && useFramedStream(noBuffer);
+        if (runLength) {
+            //the firmware remembers this setting, so it's always sent to clear the one from a previous acquisition
+            sendCommand(COMMAND_DEADBAND, (byte) (deadband + 1));
+        }
+        LightSensorRunLengthCallback runsCallback = runLength && deadband != -1 && callback instanceof LightSensorRunLengthCallback ? (LightSensorRunLengthCallback) callback : null;
+        byte flags = (byte) (LIGHTSENSOR_FEATURE_MONITOR | (noBuffer ? LIGHTSENSOR_FEATURE_NOBUFFER : 0) | getSensitivityFlags(sensitivity) | (fastADC ? LIGHTSENSOR_FEATURE_FASTADC : 0) | (useFramedStream(noBuffer) ? LIGHTSENSOR_FEATURE_FRAMED : 0));
+        sendCommand(COMMAND_LIGHTSENSOR, flags);
+        //runs can only be handed over as they are on the reading thread
+        acquisition = new Acquisition(com, startWaitStrategy(), noBuffer ? 1 : largeBufferSize, noBuffer, false, useFramedStream(noBuffer), runsCallback != null ? 0 : dispatchBufferSize, getLightSensorMonitorModeSampleRate(noBuffer, fastADC), captureSink, metrics, new BlockConsumer() {
             @Override
-            public void run() {
-                setPriority(Thread.MAX_PRIORITY);
+            void onBlock(int[] light, int[] click, int length, long timestamp, long sequence) {
                 if (noBuffer) {
-                    while (true) {
-                        if (stopWorkerThreadASAP) {
-                            stopWorkerThreadASAP = false;
-                            return;
-                        }
-                        if (!com.isOpen()) {
-                            callback.onError(new IOException("Device closed"));
-                            return;
-                        }
-                        if (com.bytesAvailable() >= 2) {
-                            try {
-                                callback.onDataSampleReceived(readUInt16());
-                            } catch (IOException ex) {
-                                callback.onError(ex);
-                                return;
-                            }
-                        } else {
-                            Utils.sleep(1);
-                        }
+                    for (int i = 0; i < length; i++) {
+                        callback.onDataSampleReceived(light[i], timestamp, sequence + i);
                     }
                 } else {
-                    int[] lightBuffer = new int[largeBufferSize];
-                    while (true) {
-                        if (stopWorkerThreadASAP) {
-                            stopWorkerThreadASAP = false;
-                            return;
-                        }
-                        if (!com.isOpen()) {
-                            callback.onError(new IOException("Device closed"));
-                            return;
-                        }
-                        if (com.bytesAvailable() >= largeBufferSize * 2) {
-                            try {
-                                readUInt16Array(lightBuffer);
-                                callback.onDataBufferReceived(lightBuffer);
-                            } catch (IOException ex) {
-                                callback.onError(ex);
-                                return;
-                            }
-                        } else {
-                            Utils.sleep(1);
-                        }
-                    }
+                    callback.onDataBufferReceived(light, timestamp, sequence);
                 }
             }
-        };
-        workerThread.start();
+
+            @Override
+            void onReconfigured(int flags, long sequence) {
+                callback.onReconfigured(getSensitivity(flags), sequence);
+            }
+
+            @Override
+            boolean acceptsRuns() {
+                return runsCallback != null;
+            }
+
+            @Override
+            void onRuns(int[] values, int[] lengths, int count, long timestamp, long sequence) {
+                runsCallback.onRunsReceived(values, lengths, count, timestamp, sequence);
+            }
+
+            @Override
+            void onError(Exception e) {
+                callback.onError(e);
+            }
+        });
+        acquisition.start();
+        liveFlags = reconfigureSupport && useFramedStream(noBuffer) ? flags & 0xFF : -1;
         return getLightSensorMonitorModeSampleRate(noBuffer, fastADC);
     }
     
+    /**
+     * @return sample rate measured by calibrateLightSensorButtonModeSampleRate for this device, or the nominal one if it hasn't been calibrated
+     */
     public double getLightSensorButtonModeSampleRate(boolean noBuffer, boolean fastADC) throws MissingSensorException {
         if (!hasLightSensor) {
             throw new MissingSensorException(MissingSensorException.LIGHT_SENSOR);
         }
+        double r = SampleRateCalibration.get(SampleRateCalibration.getKey(getCalibrationId(), true, noBuffer, fastADC));
+        return r > 0 ? r : getNominalLightSensorButtonModeSampleRate(noBuffer, fastADC);
+    }
+    
+    /**
+     * @return sample rate of the Model 1 firmware in light sensor + button mode, as measured on the reference device
+     */
+    public static double getNominalLightSensorButtonModeSampleRate(boolean noBuffer, boolean fastADC) {
         if (noBuffer) {
             if (fastADC) {
                 return 20710.0;
@@ -394,61 +652,343 @@ public class Device {
         if (!hasLightSensor) {
             throw new MissingSensorException(MissingSensorException.LIGHT_SENSOR);
         }
-        sendCommand(COMMAND_LIGHTSENSOR, (byte) ((noBuffer ? LIGHTSENSOR_FEATURE_NOBUFFER : 0) | ((sensitivity & 0b01) != 0 ? LIGHTSENSOR_FEATURE_HIGHSENS1 : 0) | ((sensitivity & 0b10) != 0 ? LIGHTSENSOR_FEATURE_HIGHSENS2 : 0) | (fastADC ? LIGHTSENSOR_FEATURE_FASTADC : 0) | (noClick ? LIGHTSENSOR_FEATURE_NOCLICK : 0) | (autoFire ? LIGHTSENSOR_FEATURE_AUTOFIRE : 0)));
-        workerThread = new Thread() {
+        byte flags = (byte) ((noBuffer ? LIGHTSENSOR_FEATURE_NOBUFFER : 0) | getSensitivityFlags(sensitivity) | (fastADC ? LIGHTSENSOR_FEATURE_FASTADC : 0) | (noClick ? LIGHTSENSOR_FEATURE_NOCLICK : 0) | (autoFire ? LIGHTSENSOR_FEATURE_AUTOFIRE : 0) | (useFramedStream(noBuffer) ? LIGHTSENSOR_FEATURE_FRAMED : 0));
+        sendCommand(COMMAND_LIGHTSENSOR, flags);
+        acquisition = new Acquisition(com, startWaitStrategy(), noBuffer ? 1 : smallBufferSize, noBuffer, true, useFramedStream(noBuffer), dispatchBufferSize, getLightSensorButtonModeSampleRate(noBuffer, fastADC), captureSink, metrics, new BlockConsumer() {
             @Override
-            public void run() {
-                setPriority(Thread.MAX_PRIORITY);
+            void onBlock(int[] light, int[] click, int length, long timestamp, long sequence) {
                 if (noBuffer) {
-                    while (true) {
-                        if (stopWorkerThreadASAP) {
-                            stopWorkerThreadASAP = false;
-                            return;
-                        }
-                        if (!com.isOpen()) {
-                            callback.onError(new IOException("Device closed"));
-                            return;
-                        }
-                        if (com.bytesAvailable() >= 3) {
-                            try {
-                                callback.onDataSampleReceived(readUInt16(), readUInt8());
-                            } catch (IOException ex) {
-                                callback.onError(ex);
-                                return;
-                            }
-                        } else {
-                            Utils.sleep(1);
-                        }
+                    for (int i = 0; i < length; i++) {
+                        callback.onDataSampleReceived(light[i], click[i], timestamp, sequence + i);
                     }
                 } else {
-                    int[] lightBuffer = new int[smallBufferSize], clickBuffer = new int[smallBufferSize];
-                    while (true) {
-                        if (stopWorkerThreadASAP) {
-                            stopWorkerThreadASAP = false;
-                            return;
-                        }
-                        if (!com.isOpen()) {
-                            callback.onError(new IOException("Device closed"));
-                            return;
-                        }
-                        if (com.bytesAvailable() >= smallBufferSize * 3) {
-                            try {
-                                readUInt16Array(lightBuffer);
-                                readUInt8Array(clickBuffer);
-                                callback.onDataBufferReceived(lightBuffer, clickBuffer);
-                            } catch (IOException ex) {
-                                callback.onError(ex);
-                                return;
-                            }
-                        } else {
-                            Utils.sleep(1);
-                        }
-                    }
+                    callback.onDataBufferReceived(light, click, timestamp, sequence);
                 }
             }
-        };
-        workerThread.start();
+
+            @Override
+            void onReconfigured(int flags, long sequence) {
+                callback.onReconfigured(getSensitivity(flags), (flags & LIGHTSENSOR_FEATURE_NOCLICK) != 0, (flags & LIGHTSENSOR_FEATURE_AUTOFIRE) != 0, sequence);
+            }
+
+            @Override
+            void onError(Exception e) {
+                callback.onError(e);
+            }
+        });
+        acquisition.start();
+        liveFlags = reconfigureSupport && useFramedStream(noBuffer) ? flags & 0xFF : -1;
         return getLightSensorButtonModeSampleRate(noBuffer, fastADC);
     }
     
+    /**
+     * Edge mode: instead of streaming every sample, the device watches the light sensor and the button and only reports clicks and threshold crossings (see EdgeCallback), using almost no bandwidth.
+     * Useful for long input lag measurements. If the firmware doesn't support it, button mode is used and the same events are generated here
+     *
+     * @param noBuffer only used if the firmware doesn't support edge mode, see lightSensorButtonMode
+     * @param riseThreshold a rise is reported when the light level goes from below to above this
+     * @param fallThreshold a fall is reported when the light level goes from above to below this
+     */
+    public void lightSensorEdgeMode(boolean noBuffer, byte sensitivity, boolean fastADC, boolean noClick, boolean autoFire, int riseThreshold, int fallThreshold, EdgeCallback callback) throws MissingSensorException, IOException {
+        if (!com.isOpen()) {
+            throw new IOException("Device closed");
+        }
+        endCurrentActivity();
+        if (!hasLightSensor) {
+            throw new MissingSensorException(MissingSensorException.LIGHT_SENSOR);
+        }
+        if (!edgeSupport) {
+            EdgeDetector detector = new EdgeDetector(riseThreshold, fallThreshold, getLightSensorButtonModeSampleRate(noBuffer, fastADC), callback);
+            lightSensorButtonMode(noBuffer, sensitivity, fastADC, noClick, autoFire, new LightSensorButtonCallback() {
+                @Override
+                public void onDataBufferReceived(int[] light, int[] click, long timestamp, long sequence) {
+                    for (int i = 0; i < light.length; i++) {
+                        detector.add(light[i], click[i], sequence + i);
+                    }
+                }
+
+                @Override
+                public void onDataSampleReceived(int light, int click, long timestamp, long sequence) {
+                    detector.add(light, click, sequence);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    callback.onError(e);
+                }
+            });
+            return;
+        }
+        byte flags = (byte) (getSensitivityFlags(sensitivity) | (fastADC ? LIGHTSENSOR_FEATURE_FASTADC : 0) | (noClick ? LIGHTSENSOR_FEATURE_NOCLICK : 0) | (autoFire ? LIGHTSENSOR_FEATURE_AUTOFIRE : 0));
+        com.write(new byte[]{COMMAND_EDGE, flags, (byte) (riseThreshold & 0xFF), (byte) ((riseThreshold >> 8) & 0xFF), (byte) (fallThreshold & 0xFF), (byte) ((fallThreshold >> 8) & 0xFF)}, 6);
+        //events are rare, so they're always delivered on the reading thread. The clock counts microseconds instead of samples
+        acquisition = new Acquisition(com, startWaitStrategy(), 0, false, false, true, 0, 1000000.0, null, metrics, new BlockConsumer() {
+            @Override
+            void onBlock(int[] light, int[] click, int length, long timestamp, long sequence) {
+            }
+
+            @Override
+            void onEvents(int[] kinds, long[] times, int[] values, int count, long timestamp) {
+                for (int i = 0; i < count; i++) {
+                    switch (kinds[i]) {
+                        case FrameDecoder.EVENT_CLICK:
+                            callback.onClick(times[i], values[i]);
+                            break;
+                        case FrameDecoder.EVENT_RISE:
+                            callback.onRise(times[i], values[i]);
+                            break;
+                        case FrameDecoder.EVENT_FALL:
+                            callback.onFall(times[i], values[i]);
+                            break;
+                        case FrameDecoder.EVENT_PEAK:
+                            callback.onPeak(times[i], values[i]);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+
+            @Override
+            void onError(Exception e) {
+                callback.onError(e);
+            }
+        });
+        acquisition.start();
+    }
+    
+    private static byte getSensitivityFlags(byte sensitivity) {
+        return (byte) (((sensitivity & 0b01) != 0 ? LIGHTSENSOR_FEATURE_HIGHSENS1 : 0) | ((sensitivity & 0b10) != 0 ? LIGHTSENSOR_FEATURE_HIGHSENS2 : 0));
+    }
+    
+    private static byte getSensitivity(int flags) {
+        return (byte) (((flags & LIGHTSENSOR_FEATURE_HIGHSENS1) != 0 ? 0b01 : 0) | ((flags & LIGHTSENSOR_FEATURE_HIGHSENS2) != 0 ? 0b10 : 0));
+    }
+    
+    /**
+     * Changes sensitivity and clicking of the running monitor or button mode acquisition without restarting it.
+     * The device switches between two frames, so there's no gap in the data, and the callback's onReconfigured tells from which sample the new settings apply.
+     * Only possible with the framed stream and firmware that supports it. The ADC speed can't be changed this way because it changes the sample rate
+     *
+     * @param noClick ignored in monitor mode
+     * @param autoFire ignored in monitor mode
+     * @return true if the command was sent, false if the acquisition must be restarted instead
+     */
+    public boolean reconfigureLightSensor(byte sensitivity, boolean noClick, boolean autoFire) {
+        int flags = liveFlags;
+        if (flags == -1 || !com.isOpen()) {
+            return false;
+        }
+        flags &= ~(LIGHTSENSOR_FEATURE_HIGHSENS1 | LIGHTSENSOR_FEATURE_HIGHSENS2);
+        flags |= getSensitivityFlags(sensitivity) & 0xFF;
+        if ((flags & LIGHTSENSOR_FEATURE_MONITOR) == 0) {
+            flags &= ~(LIGHTSENSOR_FEATURE_NOCLICK | LIGHTSENSOR_FEATURE_AUTOFIRE);
+            flags |= (noClick ? LIGHTSENSOR_FEATURE_NOCLICK : 0) | (autoFire ? LIGHTSENSOR_FEATURE_AUTOFIRE : 0);
+        }
+        sendCommand(COMMAND_RECONFIGURE, (byte) flags);
+        liveFlags = flags;
+        return true;
+    }
+    
+    /**
+     * Takes a burst of samples with the light sensor and returns their statistics, for calibration measurements.
+     * If the firmware supports it, the statistics are computed by the device at full ADC speed and only a small packet is sent back;
+     * otherwise the samples are streamed in unbuffered monitor mode and the statistics are computed here. Blocks until the measurement is complete
+     *
+     * @param samples number of samples, from 1 to 65535
+     * @return statistics of the samples
+     */
+    public ShotResult shoot(int samples, byte sensitivity, boolean fastADC) throws MissingSensorException, IOException {
+        return shoot(samples, sensitivity, fastADC, false);
+    }
+    
+    /**
+     * Same as shoot(samples, sensitivity, fastADC), but can force the samples to be streamed so that they're available in the result
+     *
+     * @param keepRawData true to always stream the samples, so that ShotResult.getRawData is available
+     */
+    public ShotResult shoot(int samples, byte sensitivity, boolean fastADC, boolean keepRawData) throws MissingSensorException, IOException {
+        if (!com.isOpen()) {
+            throw new IOException("Device closed");
+        }
+        endCurrentActivity();
+        if (!hasLightSensor) {
+            throw new MissingSensorException(MissingSensorException.LIGHT_SENSOR);
+        }
+        if (samples < 1 || samples > 65535) {
+            throw new IllegalArgumentException("Invalid number of samples: " + samples);
+        }
+        if (!shotSupport || keepRawData) {
+            return shootOnHost(samples, sensitivity, fastADC);
+        }
+        com.write(new byte[]{COMMAND_SHOT, (byte) (getSensitivityFlags(sensitivity) | (fastADC ? LIGHTSENSOR_FEATURE_FASTADC : 0)), (byte) (samples & 0xFF), (byte) ((samples >> 8) & 0xFF)}, 4);
+        byte[] r = new byte[SHOT_REPLY_SIZE];
+        long deadline = System.nanoTime() + (REPLY_TIMEOUT_MS + (long) (1000.0 * samples / SHOT_MIN_SAMPLE_RATE)) * 1000000L;
+        for (int read = 0; read < r.length;) {
+            int n = com.read(r, r.length - read, read);
+            if (n < 0) {
+                throw new IOException("Device closed");
+            }
+            if (n == 0 && System.nanoTime() >= deadline) {
+                throw new IOException("Shot timed out");
+            }
+            read += n;
+        }
+        int s1 = 0, s2 = 0;
+        for (int i = 1; i < r.length - 2; i++) {
+            s1 = (s1 + r[i]) & 0xFF;
+            s2 = (s2 + s1) & 0xFF;
+        }
+        if ((r[0] & 0xFF) != FrameDecoder.SYNC || (r[1] & 0xFF) != FrameDecoder.TYPE_SHOT || s1 != (r[r.length - 2] & 0xFF) || s2 != (r[r.length - 1] & 0xFF)) {
+            throw new IOException("Invalid shot reply");
+        }
+        int count = readU16(r, 2), min = readU16(r, 4), max = readU16(r, 6);
+        long sum = readU16(r, 8) | ((long) readU16(r, 10) << 16);
+        int[] histogram = new int[ShotResult.HISTOGRAM_BINS];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = readU16(r, 12 + 2 * i);
+        }
+        if (count != samples) {
+            throw new IOException("Invalid shot reply");
+        }
+        return new ShotResult(count, min, max, sum, histogram);
+    }
+    
+    private static int readU16(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | ((b[offset + 1] & 0xFF) << 8);
+    }
+    
+    /**
+     * Streams the samples and computes the statistics here, for firmware that doesn't support the shot command or when the raw data is needed
+     */
+    private ShotResult shootOnHost(int samples, byte sensitivity, boolean fastADC) throws MissingSensorException, IOException {
+        int[] data = new int[samples];
+        AtomicInteger count = new AtomicInteger();
+        Exception[] error = new Exception[1];
+        lightSensorMonitorMode(true, sensitivity, fastADC, new LightSensorMonitorCallback() {
+            @Override
+            public void onDataSampleReceived(int d) {
+                int i = count.get();
+                if (i < data.length) {
+                    data[i] = d;
+                    count.lazySet(i + 1);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                error[0] = e;
+                count.set(Integer.MAX_VALUE);
+            }
+        });
+        long deadline = System.nanoTime() + (REPLY_TIMEOUT_MS + (long) (2000.0 * samples / getLightSensorMonitorModeSampleRate(true, fastADC))) * 1000000L;
+        while (count.get() < samples && System.nanoTime() < deadline) {
+            Utils.sleep(10);
+        }
+        endCurrentActivity();
+        if (error[0] != null) {
+            throw new IOException("Shot interrupted", error[0]);
+        }
+        if (count.get() < samples) {
+            throw new IOException("Shot timed out");
+        }
+        return new ShotResult(data);
+    }
+    
+    public boolean isSampleRateCalibrated(boolean buttonMode, boolean noBuffer, boolean fastADC) {
+        return SampleRateCalibration.get(SampleRateCalibration.getKey(getCalibrationId(), buttonMode, noBuffer, fastADC)) > 0;
+    }
+    
+    /**
+     * Forgets the measured sample rates of this device, the nominal ones will be used from now on
+     */
+    public void resetSampleRateCalibration() {
+        SampleRateCalibration.clear(getCalibrationId());
+    }
+    
+    /**
+     * Measures the actual sample rate of the light sensor monitor mode against the host clock and stores it for this device.
+     * Crystal tolerance makes every unit slightly different, so a long measurement (at least 10 seconds) is recommended
+     *
+     * @return measured sample rate
+     */
+    public double calibrateLightSensorMonitorModeSampleRate(boolean noBuffer, boolean fastADC, long durationMs) throws MissingSensorException, IOException {
+        return calibrateSampleRate(false, noBuffer, fastADC, durationMs);
+    }
+    
+    /**
+     * Measures the actual sample rate of the light sensor + button mode against the host clock and stores it for this device.
+     * The button is not clicked during the measurement
+     *
+     * @return measured sample rate
+     */
+    public double calibrateLightSensorButtonModeSampleRate(boolean noBuffer, boolean fastADC, long durationMs) throws MissingSensorException, IOException {
+        return calibrateSampleRate(true, noBuffer, fastADC, durationMs);
+    }
+    
+    private double calibrateSampleRate(boolean buttonMode, boolean noBuffer, boolean fastADC, long durationMs) throws MissingSensorException, IOException {
+        //calibration data doesn't belong to the capture
+        ICaptureSink sink = captureSink;
+        captureSink = null;
+        try {
+            SampleRateEstimator estimator = new SampleRateEstimator(CALIBRATION_WARMUP_MS);
+            Exception[] error = new Exception[1];
+            if (buttonMode) {
+                lightSensorButtonMode(noBuffer, (byte) 0, fastADC, true, false, new LightSensorButtonCallback() {
+                    @Override
+                    public void onDataBufferReceived(int[] light, int[] click, long timestamp, long sequence) {
+                        estimator.add(timestamp, light.length);
+                    }
+
+                    @Override
+                    public void onDataSampleReceived(int light, int click, long timestamp, long sequence) {
+                        estimator.add(timestamp, 1);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        error[0] = e;
+                    }
+                });
+            } else {
+                lightSensorMonitorMode(noBuffer, (byte) 0, fastADC, new LightSensorMonitorCallback() {
+                    @Override
+                    public void onDataBufferReceived(int[] data, long timestamp, long sequence) {
+                        estimator.add(timestamp, data.length);
+                    }
+
+                    @Override
+                    public void onDataSampleReceived(int data, long timestamp, long sequence) {
+                        estimator.add(timestamp, 1);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        error[0] = e;
+                    }
+                });
+            }
+            Utils.sleep(CALIBRATION_WARMUP_MS + durationMs);
+            endCurrentActivity();
+            if (error[0] != null) {
+                throw new IOException("Calibration interrupted", error[0]);
+            }
+            if (getDroppedSamples() > 0 || getLostSamples() > 0 || getCorruptFrames() > 0) {
+                throw new IOException("Samples were lost during calibration");
+            }
+            double nominal = buttonMode ? getNominalLightSensorButtonModeSampleRate(noBuffer, fastADC) : getNominalLightSensorMonitorModeSampleRate(noBuffer, fastADC);
+            double measured = estimator.getSampleRate();
+            if (measured <= 0) {
+                throw new IOException("Not enough data to measure the sample rate");
+            }
+            if (Math.abs(measured - nominal) > nominal * CALIBRATION_MAX_DEVIATION) {
+                throw new IOException("Measured sample rate (" + measured + " Hz) is too far from the nominal one (" + nominal + " Hz)");
+            }
+            SampleRateCalibration.put(SampleRateCalibration.getKey(getCalibrationId(), buttonMode, noBuffer, fastADC), measured);
+            return measured;
+        } finally {
+            captureSink = sink;
+        }
+    }
+    
 }
@@ -16,8 +16,17 @@
  */
 package com.dosse.openldat.device;
 
+import com.dosse.openldat.device.errors.DeviceError;
 import com.fazecast.jSerialComm.SerialPort;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  *
@@ -25,6 +34,74 @@ import java.util.ArrayList;
  */
 public class DeviceFinder {
 
+    private static final long PROBE_TIMEOUT_MS = 10000;
+
+    private static final LinkedHashMap<String, String> knownPorts = new LinkedHashMap<>(); //port name -> serial number of the device that was last connected there, most recent last
+    private static File cacheFile = null;
+    private static ProbeResult[] pendingProbes = new ProbeResult[0]; //started by probe and not claimed by connect yet
+
+    /**
+     * Sets the file used to remember on which ports devices were found, and loads it if it exists
+     */
+    public static synchronized void setCacheFile(File f) {
+        cacheFile = f;
+        knownPorts.clear();
+        if (f == null || !f.exists()) {
+            return;
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f))) {
+            @SuppressWarnings("unchecked")
+            Map<String, String> m = (Map<String, String>) ois.readObject();
+            knownPorts.putAll(m);
+        } catch (Throwable t) {
+            System.err.println("WARNING: failed to load device cache from " + f + ", it will be ignored");
+        }
+    }
+
+    private static void saveCache() {
+        if (cacheFile == null) {
+            return;
+        }
+        try {
+            if (!cacheFile.exists()) {
+                cacheFile.getAbsoluteFile().getParentFile().mkdirs();
+                cacheFile.createNewFile();
+            }
+            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(cacheFile))) {
+                oos.writeObject(new LinkedHashMap<>(knownPorts));
+            }
+        } catch (Throwable t) {
+            System.err.println("WARNING: failed to save device cache to " + cacheFile);
+        }
+    }
+
+    private static synchronized void remember(Device d) {
+        knownPorts.remove(d.getPortName());
+        knownPorts.put(d.getPortName(), d.getSerialNumber());
+        saveCache();
+    }
+
+    /**
+     * @return serial number of the device that was last connected to a port, or null if it's not known
+     */
+    public static synchronized String getKnownSerialNumber(String portName) {
+        return knownPorts.get(portName);
+    }
+
+    private static synchronized int getPortRank(String portName) {
+        int i = 0;
+        for (String p : knownPorts.keySet()) {
+            if (p.equals(portName)) {
+                return knownPorts.size() - i;
+            }
+            i++;
+        }
+        return 0;
+    }
+
+    /**
+     * @return ports that look like OpenLDAT devices. The port where a device was last connected comes first, followed by other ports where devices were found in the past
+     */
     public static SerialPort[] findDevices() {
         ArrayList<SerialPort> ret = new ArrayList<>();
         for (SerialPort p : SerialPort.getCommPorts()) {
@@ -34,19 +111,180 @@ public class DeviceFinder {
                 }
             }
         }
+        ret.sort(new Comparator<SerialPort>() {
+            @Override
+            public int compare(SerialPort a, SerialPort b) {
+                return getPortRank(b.getSystemPortName()) - getPortRank(a.getSystemPortName());
+            }
+        });
         return ret.toArray(new SerialPort[0]);
     }
 
+    private static int indexOf(SerialPort[] ports, SerialPort port) {
+        for (int i = 0; i < ports.length; i++) {
+            if (ports[i].getSystemPortName().equals(port.getSystemPortName())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Starts connecting to all the specified ports in parallel, so that connect returns immediately for ports that have already been probed.
+     * Pending probes from a previous call are reused if their port is still listed and they're still running or found a device, the others are discarded.
+     * Devices found by discarded probes are disconnected
+     *
+     * @return the probes, in the same order as the ports
+     */
+    public static synchronized ProbeResult[] probe(SerialPort[] ports) {
+        ProbeResult[] results = new ProbeResult[ports.length];
+        ArrayList<ProbeResult> discarded = new ArrayList<>();
+        for (ProbeResult r : pendingProbes) {
+            int i = indexOf(ports, r.getPort());
+            if (i != -1 && results[i] == null && (!r.isDone() || (r.getDevice() != null && r.getDevice().isOpen()))) {
+                results[i] = r;
+            } else if (i != -1) {
+                //the port is about to be probed again, so it must be free before that. The probe is done, so this doesn't wait
+                Device d = r.getDevice();
+                if (d != null) {
+                    d.close();
+                }
+            } else {
+                discarded.add(r);
+            }
+        }
+        ProbeResult[] d = discarded.toArray(new ProbeResult[0]);
+        closeWhenDone(d, 0, d.length);
+        for (int i = 0; i < ports.length; i++) {
+            if (results[i] == null) {
+                results[i] = new ProbeResult(ports[i]);
+            }
+        }
+        pendingProbes = results;
+        return results;
+    }
+
+    private static synchronized void discardPendingProbes() {
+        closeWhenDone(pendingProbes, 0, pendingProbes.length);
+        pendingProbes = new ProbeResult[0];
+    }
+
+    /**
+     * Takes the probe of a port started by probe, or starts a new one if there isn't one. The other pending probes are discarded
+     */
+    private static synchronized ProbeResult claimProbe(SerialPort com) {
+        ProbeResult ret = null;
+        ArrayList<ProbeResult> others = new ArrayList<>();
+        for (ProbeResult r : pendingProbes) {
+            if (ret == null && r.getPort().getSystemPortName().equals(com.getSystemPortName())) {
+                ret = r;
+            } else {
+                others.add(r);
+            }
+        }
+        pendingProbes = new ProbeResult[0];
+        ProbeResult[] o = others.toArray(new ProbeResult[0]);
+        closeWhenDone(o, 0, o.length);
+        if (ret == null) {
+            ret = new ProbeResult(com);
+        }
+        return ret;
+    }
+
+    /**
+     * Connects to a device on the specified port and remembers where it was found. If the port is being probed (see probe), the result of the probe is used
+     */
+    public static Device connect(SerialPort com) throws DeviceError {
+        ProbeResult r = claimProbe(com);
+        if (!r.waitFor(PROBE_TIMEOUT_MS)) {
+            closeWhenDone(new ProbeResult[]{r}, 0, 1);
+            throw new DeviceError(DeviceError.FAILED_TO_CONNECT);
+        }
+        Throwable t = r.getError();
+        if (t instanceof DeviceError) {
+            throw (DeviceError) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new DeviceError(t.toString());
+        }
+        remember(r.getDevice());
+        return r.getDevice();
+    }
+
+    /**
+     * Probes all candidate ports in parallel
+     *
+     * @return the first device that could be used, in the order of findDevices, or null if none were found
+     */
     public static Device getDevice() {
-        for (SerialPort com : findDevices()) {
-            try {
-                return new Device(com);
-            } catch (Throwable t) {
-                System.err.println("Warning: Device on " + com.getSystemPortName() + " couldn't be used because " + t.getMessage());
-                t.printStackTrace();
+        ProbeResult[] results = probe(findDevices());
+        for (ProbeResult r : results) {
+            if (!r.waitFor(PROBE_TIMEOUT_MS)) {
+                System.err.println("Warning: Device on " + r.getPort().getSystemPortName() + " didn't respond in time");
+            } else if (r.getDevice() != null) {
+                claimProbe(r.getPort()); //disconnects the devices found on the other ports
+                remember(r.getDevice());
+                return r.getDevice();
+            } else {
+                System.err.println("Warning: Device on " + r.getPort().getSystemPortName() + " couldn't be used because " + r.getError().getMessage());
+                r.getError().printStackTrace();
             }
         }
+        discardPendingProbes(); //in case a probe that timed out connects later
         return null;
     }
 
+    /**
+     * Probes all candidate ports in parallel and connects to every device that can be used, for use with MultiDeviceSession
+     *
+     * @return connected devices, in the order of findDevices
+     */
+    public static Device[] getDevices() {
+        ProbeResult[] results;
+        synchronized (DeviceFinder.class) {
+            results = probe(findDevices());
+            pendingProbes = new ProbeResult[0]; //all of them are claimed here
+        }
+        ArrayList<Device> ret = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            ProbeResult r = results[i];
+            if (!r.waitFor(PROBE_TIMEOUT_MS)) {
+                System.err.println("Warning: Device on " + r.getPort().getSystemPortName() + " didn't respond in time");
+                closeWhenDone(results, i, i + 1);
+            } else if (r.getDevice() != null) {
+                ret.add(r.getDevice());
+                remember(r.getDevice());
+            } else {
+                System.err.println("Warning: Device on " + r.getPort().getSystemPortName() + " couldn't be used because " + r.getError().getMessage());
+            }
+        }
+        return ret.toArray(new Device[0]);
+    }
+
+    /**
+     * Disconnects the devices found by probes that are no longer needed, waiting for them in the background so the caller doesn't have to
+     */
+    private static void closeWhenDone(ProbeResult[] results, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                for (int i = from; i < to; i++) {
+                    results[i].waitFor(PROBE_TIMEOUT_MS);
+                    Device d = results[i].getDevice();
+                    if (d != null) {
+                        d.close();
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
 }
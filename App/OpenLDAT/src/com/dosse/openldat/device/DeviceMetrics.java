@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * I/O statistics of a Device, updated by the acquisition threads and accumulated over all acquisitions until reset.
+ * Used to check that a measurement ran without overruns, and to see how close the host is to falling behind the device
+ *
+ * @author dosse
+ */
+public class DeviceMetrics {
+
+    private final LongAdder bytesRead = new LongAdder(), reads = new LongAdder(), samples = new LongAdder(), waitNanos = new LongAdder();
+    private final LongAdder droppedSamples = new LongAdder(), lostSamples = new LongAdder(), corruptFrames = new LongAdder();
+    private final Histogram readTime = new Histogram(), backlog = new Histogram(), callbackTime = new Histogram();
+    private volatile long resetTime = System.nanoTime();
+
+    void addRead(int bytes, long nanos) {
+        bytesRead.add(bytes);
+        reads.increment();
+        readTime.record(nanos);
+    }
+
+    void addBacklog(int bytes) {
+        backlog.record(bytes);
+    }
+
+    void addWait(long nanos) {
+        waitNanos.add(nanos);
+    }
+
+    void addCallback(int samples, long nanos) {
+        this.samples.add(samples);
+        callbackTime.record(nanos);
+    }
+
+    void addDroppedSamples(long n) {
+        droppedSamples.add(n);
+    }
+
+    void addLostSamples(long n) {
+        lostSamples.add(n);
+    }
+
+    void addCorruptFrames(long n) {
+        corruptFrames.add(n);
+    }
+
+    /**
+     * @return seconds since the metrics were created or reset
+     */
+    public double getElapsedTime() {
+        return (System.nanoTime() - resetTime) / 1000000000.0;
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * @return average bytes per second read from the device since the metrics were reset
+     */
+    public double getBytesPerSecond() {
+        double t = getElapsedTime();
+        return t <= 0 ? 0 : getBytesRead() / t;
+    }
+
+    /**
+     * @return number of reads from the transport
+     */
+    public long getReads() {
+        return reads.sum();
+    }
+
+    /**
+     * @return samples delivered to the callbacks
+     */
+    public long getSamples() {
+        return samples.sum();
+    }
+
+    /**
+     * @return total time the reader spent waiting for new data, in nanoseconds
+     */
+    public long getWaitTime() {
+        return waitNanos.sum();
+    }
+
+    /**
+     * @return time taken by each read from the transport, in nanoseconds
+     */
+    public Histogram getReadTime() {
+        return readTime;
+    }
+
+    /**
+     * @return bytes waiting in the transport each time the reader found new data. The max is the high water mark of the driver's receive buffer
+     */
+    public Histogram getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * @return time taken by the callbacks for each block, in nanoseconds
+     */
+    public Histogram getCallbackTime() {
+        return callbackTime;
+    }
+
+    /**
+     * @return samples dropped because the callbacks couldn't keep up
+     */
+    public long getDroppedSamples() {
+        return droppedSamples.sum();
+    }
+
+    /**
+     * @return samples that the device sent but never arrived intact (framed stream only)
+     */
+    public long getLostSamples() {
+        return lostSamples.sum();
+    }
+
+    /**
+     * @return frames discarded because they were damaged (framed stream only)
+     */
+    public long getCorruptFrames() {
+        return corruptFrames.sum();
+    }
+
+    /**
+     * @return true if any data was dropped, lost or damaged since the metrics were reset
+     */
+    public boolean hasOverruns() {
+        return getDroppedSamples() > 0 || getLostSamples() > 0 || getCorruptFrames() > 0;
+    }
+
+    public void reset() {
+        bytesRead.reset();
+        reads.reset();
+        samples.reset();
+        waitNanos.reset();
+        droppedSamples.reset();
+        lostSamples.reset();
+        corruptFrames.reset();
+        readTime.reset();
+        backlog.reset();
+        callbackTime.reset();
+        resetTime = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        double t = getElapsedTime();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Elapsed: %.1f s%n", t));
+        sb.append(String.format("Throughput: %.0f bytes/s, %.0f samples/s%n", getBytesPerSecond(), t <= 0 ? 0 : getSamples() / t));
+        sb.append(String.format("Reads: %d, waiting for data %.1f%% of the time%n", getReads(), t <= 0 ? 0 : 100.0 * getWaitTime() / 1000000000.0 / t));
+        sb.append(String.format("Read time: %s%n", format(readTime, 1000, "us")));
+        sb.append(String.format("Backlog: %s%n", format(backlog, 1, "bytes")));
+        sb.append(String.format("Callback time: %s%n", format(callbackTime, 1000, "us")));
+        sb.append(String.format("Dropped: %d samples, lost: %d samples, corrupt: %d frames%n", getDroppedSamples(), getLostSamples(), getCorruptFrames()));
+        return sb.toString();
+    }
+
+    private static String format(Histogram h, double div, String unit) {
+        return String.format("p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f %s", h.getPercentile(0.5) / div, h.getPercentile(0.99) / div, h.getPercentile(0.999) / div, h.getMax() / div, unit);
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+import com.dosse.openldat.device.callbacks.EdgeCallback;
+
+/**
+ * Runs the edge mode state machine on the host, for firmware that doesn't support it. Same logic as lightSensor_edge in the firmware:
+ * it waits for a click while the light is below the fall threshold, then reports every click, every time the light rises above the rise threshold and every time it falls below the fall threshold
+ *
+ * @author dosse
+ */
+class EdgeDetector {
+
+    static final long REPORT_INTERVAL_US = 50000; //how often the peak level is reported
+
+    private static final int STATE_WAITING = -1, STATE_DARK = 0, STATE_LIGHT = 1;
+
+    private final int riseThreshold, fallThreshold;
+    private final double sampleRate;
+    private final EdgeCallback callback;
+    private int state = STATE_WAITING, previous = -1, peak = 0;
+    private long lastReport = 0;
+
+    EdgeDetector(int riseThreshold, int fallThreshold, double sampleRate, EdgeCallback callback) {
+        this.riseThreshold = riseThreshold;
+        this.fallThreshold = fallThreshold;
+        this.sampleRate = sampleRate;
+        this.callback = callback;
+    }
+
+    /**
+     * @param sequence index of the sample since the acquisition started
+     */
+    void add(int light, int click, long sequence) {
+        long t = (long) (sequence * 1000000.0 / sampleRate);
+        switch (state) {
+            case STATE_WAITING:
+                if (click != 0 && light <= fallThreshold) {
+                    callback.onClick(t, light);
+                    state = STATE_DARK;
+                }
+                break;
+            case STATE_DARK:
+                if (click != 0) {
+                    callback.onClick(t, light);
+                }
+                if (previous < riseThreshold && light >= riseThreshold) {
+                    callback.onRise(t, light);
+                    state = STATE_LIGHT;
+                }
+                break;
+            case STATE_LIGHT:
+                if (click != 0) {
+                    callback.onClick(t, light);
+                }
+                if (previous > fallThreshold && light <= fallThreshold) {
+                    callback.onFall(t, light);
+                    state = STATE_DARK;
+                }
+                break;
+            default:
+                break;
+        }
+        previous = light;
+        if (light > peak) {
+            peak = light;
+        }
+        if (t - lastReport >= REPORT_INTERVAL_US) {
+            callback.onPeak(t, peak);
+            peak = 0;
+            lastReport = t;
+        }
+    }
+
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+import java.util.Arrays;
+
+/**
+ * Decodes the framed light sensor stream (protocol v2). Each frame is:
+ * <pre>
+ * sync (0xA5) | type | sequence number | sample count | packed samples | click bits (light+click frames only) | checksum (2 bytes)
+ * </pre>
+ * Samples are 10 bit, packed in groups of 4 into 5 bytes: the low 8 bits of each sample, followed by a byte with the high 2 bits of all 4 (first sample in the lowest bits).
+ * Click bits are 1 bit per sample, LSB first. The checksum is a Fletcher-16 (mod 256) of everything between the sync byte and the checksum.
+ * <br>
+ * Run length frames (monitor mode only) replace the packed samples with runs of 3 bytes: light level (uint16 LE), number of samples (uint8). The count is the number of runs, and the runs always add up to a whole frame of samples.
+ * The device sends them instead of a regular frame when they're smaller, and with a deadband the light level of a run is only accurate within the deadband.
+ * <br>
+ * The first frame sent after the app reconfigures the device (see Device.reconfigureLightSensor) has the RECONFIGURED bit set in its type, and an extra byte after the count with the new flags.
+ * <br>
+ * In edge mode, frames carry events instead of samples: the count is the number of events, each one is 7 bytes: kind, time in microseconds (uint32 LE), light level (uint16 LE).
+ * <br>
+ * Bytes that don't form a valid frame are skipped until the next valid frame is found, and gaps in the sequence numbers are counted as lost samples
+ *
+ * @author dosse
+ */
+class FrameDecoder {
+
+    static final int SYNC = 0xA5,
+            TYPE_LIGHT = 0x01,
+            TYPE_LIGHT_CLICK = 0x02,
+            TYPE_SHOT = 0x03, //reply to the shot command, not part of the stream, see Device.shoot
+            TYPE_EVENTS = 0x04,
+            TYPE_RUNS = 0x05,
+            FLAG_RECONFIGURED = 0x40; //set in the type of the first frame with the new settings
+
+    static final int EVENT_CLICK = 1,
+            EVENT_RISE = 2,
+            EVENT_FALL = 3,
+            EVENT_PEAK = 4;
+
+    static final int MAX_EVENTS = 16; //max events in a frame
+
+    private static final int HEADER_SIZE = 4, CHECKSUM_SIZE = 2, EVENT_SIZE = 7, RUN_SIZE = 3;
+
+    private final int samplesPerFrame, maxFrameSize;
+    private final byte[] buffer;
+    private int start = 0, end = 0;
+    private int expectedSequence = -1;
+    private int frameType = -1, frameSize = 0, frameCount = 0, frameRuns = 0, frameLost = 0, frameMarker = -1, payload = 0; //frame validated by nextFrame, waiting to be decoded or skipped
+    private long lostSamples = 0, lostFrames = 0, corruptFrames = 0, skippedBytes = 0;
+    private long lastEventTime = -1, eventTimeBase = 0; //event times are a 32 bit counter on the device, they're extended to 64 bits here
+
+    /**
+     * @param samplesPerFrame samples in each frame, frames of any other size are considered corrupt. 0 to decode event frames instead
+     * @param readSize max number of bytes that will be added at once, the buffer also has room for an incomplete frame left over from the previous read
+     */
+    FrameDecoder(int samplesPerFrame, int readSize) {
+        this.samplesPerFrame = samplesPerFrame;
+        maxFrameSize = samplesPerFrame == 0 ? getFrameSize(TYPE_EVENTS, MAX_EVENTS) : Math.max(getFrameSize(TYPE_LIGHT_CLICK, samplesPerFrame), getFrameSize(TYPE_RUNS, samplesPerFrame));
+        buffer = new byte[readSize + maxFrameSize + 1]; //+1 for the marker
+    }
+
+    static int getFrameSize(int type, int count) {
+        if (type == TYPE_EVENTS) {
+            return HEADER_SIZE + count * EVENT_SIZE + CHECKSUM_SIZE;
+        }
+        if (type == TYPE_RUNS) {
+            return HEADER_SIZE + count * RUN_SIZE + CHECKSUM_SIZE;
+        }
+        return HEADER_SIZE + ((count + 3) / 4) * 5 + (type == TYPE_LIGHT_CLICK ? (count + 7) / 8 : 0) + CHECKSUM_SIZE;
+    }
+
+    /**
+     * @return buffer where new data must be written, starting at getWriteOffset
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Makes room for new data and returns where it must be written
+     */
+    int getWriteOffset() {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        return end;
+    }
+
+    /**
+     * Must be called after writing n bytes at getWriteOffset
+     */
+    void added(int n) {
+        end += n;
+    }
+
+    /**
+     * Looks for the next complete and valid frame
+     *
+     * @return number of samples (or events) in the frame, or 0 if there isn't a complete frame yet. The frame must then be decoded or skipped before calling this again
+     */
+    int nextFrame() {
+        if (frameType != -1) {
+            return frameCount;
+        }
+        while (end - start >= HEADER_SIZE) {
+            int type = buffer[start + 1] & 0xFF, count = buffer[start + 3] & 0xFF;
+            boolean marked = samplesPerFrame != 0 && (type & FLAG_RECONFIGURED) != 0;
+            if (marked) {
+                type &= ~FLAG_RECONFIGURED;
+            }
+            if ((buffer[start] & 0xFF) != SYNC || !isValidHeader(type, count)) {
+                resync();
+                continue;
+            }
+            int header = marked ? HEADER_SIZE + 1 : HEADER_SIZE;
+            int size = getFrameSize(type, count) + header - HEADER_SIZE;
+            if (end - start < size) {
+                return 0;
+            }
+            int s1 = 0, s2 = 0;
+            for (int i = start + 1, last = start + size - CHECKSUM_SIZE; i < last; i++) {
+                s1 = (s1 + buffer[i]) & 0xFF;
+                s2 = (s2 + s1) & 0xFF;
+            }
+            if (s1 != (buffer[start + size - 2] & 0xFF) || s2 != (buffer[start + size - 1] & 0xFF) || (type == TYPE_RUNS && getRunsLength(start + header, count) != samplesPerFrame)) {
+                corruptFrames++;
+                resync();
+                continue;
+            }
+            int sequence = buffer[start + 2] & 0xFF;
+            //can't tell apart gaps that are a multiple of 256 frames, but that would take about a quarter of a second of missing data
+            int lost = expectedSequence == -1 ? 0 : (sequence - expectedSequence) & 0xFF;
+            frameLost = lost * samplesPerFrame;
+            lostFrames += lost;
+            lostSamples += frameLost;
+            expectedSequence = (sequence + 1) & 0xFF;
+            frameType = type;
+            frameSize = size;
+            frameMarker = marked ? buffer[start + HEADER_SIZE] & 0xFF : -1;
+            payload = start + header;
+            frameRuns = type == TYPE_RUNS ? count : 0;
+            frameCount = type == TYPE_RUNS ? samplesPerFrame : count;
+            return frameCount;
+        }
+        return 0;
+    }
+
+    private boolean isValidHeader(int type, int count) {
+        if (samplesPerFrame == 0) {
+            return type == TYPE_EVENTS && count > 0 && count <= MAX_EVENTS;
+        } else {
+            return ((type == TYPE_LIGHT || type == TYPE_LIGHT_CLICK) && count == samplesPerFrame) || (type == TYPE_RUNS && count > 0 && count <= samplesPerFrame);
+        }
+    }
+
+    private int getRunsLength(int p, int runs) {
+        int length = 0;
+        for (int i = 0; i < runs; i++, p += RUN_SIZE) {
+            length += buffer[p + 2] & 0xFF;
+        }
+        return length;
+    }
+
+    private void resync() {
+        start++;
+        skippedBytes++;
+    }
+
+    /**
+     * @return samples lost between the previous frame and the one returned by nextFrame
+     */
+    int getFrameLostSamples() {
+        return frameLost;
+    }
+
+    /**
+     * Unpacks the frame returned by nextFrame
+     *
+     * @param light where the light samples will be written
+     * @param click where the click samples will be written, can be null. Set to 0 if the frame doesn't have them
+     */
+    void decode(int[] light, int[] click) {
+        int p = payload;
+        if (frameType == TYPE_RUNS) {
+            for (int i = 0, d = 0; i < frameRuns; i++, p += RUN_SIZE) {
+                int v = (buffer[p] & 0xFF) | ((buffer[p + 1] & 0xFF) << 8), n = buffer[p + 2] & 0xFF;
+                Arrays.fill(light, d, d + n, v);
+                d += n;
+            }
+            if (click != null) {
+                Arrays.fill(click, 0, samplesPerFrame, 0);
+            }
+            skip();
+            return;
+        }
+        for (int i = 0; i < samplesPerFrame; i += 4, p += 5) {
+            int hi = buffer[p + 4] & 0xFF;
+            for (int j = 0; j < 4 && i + j < samplesPerFrame; j++) {
+                light[i + j] = (buffer[p + j] & 0xFF) | (((hi >> (2 * j)) & 0b11) << 8);
+            }
+        }
+        if (click != null) {
+            if (frameType == TYPE_LIGHT_CLICK) {
+                for (int i = 0; i < samplesPerFrame; i++) {
+                    click[i] = (buffer[p + (i >> 3)] >> (i & 7)) & 1;
+                }
+            } else {
+                Arrays.fill(click, 0, samplesPerFrame, 0);
+            }
+        }
+        skip();
+    }
+
+    /**
+     * @return the flags the device switched to, if the frame returned by nextFrame is the first one after a reconfiguration, or -1
+     */
+    int getFrameMarker() {
+        return frameMarker;
+    }
+
+    /**
+     * @return true if the frame returned by nextFrame is a run length frame, that can be read with decodeRuns
+     */
+    boolean isRunsFrame() {
+        return frameType == TYPE_RUNS;
+    }
+
+    /**
+     * Reads the runs of the run length frame returned by nextFrame, without expanding them
+     *
+     * @param values light level of each run
+     * @param lengths number of samples in each run
+     * @return number of runs
+     */
+    int decodeRuns(int[] values, int[] lengths) {
+        int runs = frameRuns;
+        for (int i = 0, p = payload; i < runs; i++, p += RUN_SIZE) {
+            values[i] = (buffer[p] & 0xFF) | ((buffer[p + 1] & 0xFF) << 8);
+            lengths[i] = buffer[p + 2] & 0xFF;
+        }
+        skip();
+        return runs;
+    }
+
+    /**
+     * Reads the events of the frame returned by nextFrame (edge mode)
+     *
+     * @param kinds kind of each event (EVENT_CLICK, EVENT_RISE, ...)
+     * @param times time of each event on the device, in microseconds. The device's counter wraps every 71.6 minutes, the times returned here keep increasing
+     * @param values light level at each event
+     */
+    void decodeEvents(int[] kinds, long[] times, int[] values) {
+        for (int i = 0, p = payload; i < frameCount; i++, p += EVENT_SIZE) {
+            kinds[i] = buffer[p] & 0xFF;
+            long time = (buffer[p + 1] & 0xFFL) | ((buffer[p + 2] & 0xFFL) << 8) | ((buffer[p + 3] & 0xFFL) << 16) | ((buffer[p + 4] & 0xFFL) << 24);
+            if (time < lastEventTime) {
+                eventTimeBase += 1L << 32;
+            }
+            lastEventTime = time;
+            times[i] = eventTimeBase + time;
+            values[i] = (buffer[p + 5] & 0xFF) | ((buffer[p + 6] & 0xFF) << 8);
+        }
+        skip();
+    }
+
+    /**
+     * Discards the frame returned by nextFrame without decoding it
+     */
+    void skip() {
+        start += frameSize;
+        frameType = -1;
+        frameSize = 0;
+    }
+
+    /**
+     * @return samples that the device sent but never arrived intact
+     */
+    long getLostSamples() {
+        return lostSamples;
+    }
+
+    /**
+     * @return frames that the device sent but never arrived intact
+     */
+    long getLostFrames() {
+        return lostFrames;
+    }
+
+    /**
+     * @return frames that were discarded because of a wrong checksum
+     */
+    long getCorruptFrames() {
+        return corruptFrames;
+    }
+
+    /**
+     * @return bytes that were discarded while looking for a valid frame
+     */
+    long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+}
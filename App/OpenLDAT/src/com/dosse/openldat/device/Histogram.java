@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of non negative long values with logarithmic buckets, in the style of HdrHistogram: each power of 2 is split into 16 linear buckets, so values are recorded with about 6% precision over the whole range.
+ * Recording is a couple of atomic increments, so it can be done on the acquisition thread
+ *
+ * @author dosse
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 5, SUB_COUNT = 1 << SUB_BITS, HALF_COUNT = SUB_COUNT / 2;
+    private static final int BUCKETS = (63 - SUB_BITS + 2) * HALF_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder(), sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int getIndex(long v) {
+        if (v < SUB_COUNT) {
+            return (int) v;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - (SUB_BITS - 1);
+        return shift * HALF_COUNT + (int) (v >> shift);
+    }
+
+    private static long getLowestValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / HALF_COUNT - 1;
+        return (long) (index % HALF_COUNT + HALF_COUNT) << shift;
+    }
+
+    /**
+     * @param value negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(getIndex(value));
+        count.increment();
+        sum.add(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @param p percentile, from 0 to 1
+     * @return highest value that could be in the bucket of the percentile, or 0 if nothing was recorded
+     */
+    public long getPercentile(double p) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(Math.max(0, Math.min(1, p)) * n), seen = 0;
+        if (target < 1) {
+            target = 1;
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return i + 1 < BUCKETS ? Math.min(getLowestValue(i + 1) - 1, max.get()) : max.get();
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears the histogram. Values recorded while it's being reset may be partially lost
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+}
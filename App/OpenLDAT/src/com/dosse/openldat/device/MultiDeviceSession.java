@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+import com.dosse.openldat.device.callbacks.LightSensorButtonCallback;
+import com.dosse.openldat.device.callbacks.LightSensorMonitorCallback;
+import com.dosse.openldat.device.callbacks.MultiDeviceCallback;
+import com.dosse.openldat.device.errors.MissingSensorException;
+import java.io.IOException;
+
+/**
+ * Runs the same acquisition on several devices at once, for instance to measure different areas of the screen or different monitors in a single run.
+ * <p>
+ * Each device keeps its own reader and dispatch threads, so a device that stalls doesn't affect the others. The SampleClock of each device maps its samples to host time,
+ * so data from different devices can be compared even though their crystals drift and they were not started at exactly the same time
+ *
+ * @author dosse
+ */
+public class MultiDeviceSession {
+
+    private final Device[] devices;
+    private long startTime = -1;
+
+    public MultiDeviceSession(Device... devices) {
+        this.devices = devices.clone();
+    }
+
+    public int getDeviceCount() {
+        return devices.length;
+    }
+
+    public Device getDevice(int i) {
+        return devices[i];
+    }
+
+    /**
+     * @return host time (System.nanoTime) when the current acquisition was started, or -1 if nothing was started yet
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return estimated host time (System.nanoTime) of a sample of a device, or -1 if the device hasn't sent any data yet
+     */
+    public long getTime(int device, long sequence) {
+        SampleClock c = devices[device].getSampleClock();
+        return c == null ? -1 : c.getTime(sequence);
+    }
+
+    /**
+     * @return index of the sample of a device that was acquired at the specified host time (System.nanoTime), or -1 if the device hasn't sent any data yet
+     */
+    public long getSequence(int device, long nanoTime) {
+        SampleClock c = devices[device].getSampleClock();
+        return c == null ? -1 : c.getSequence(nanoTime);
+    }
+
+    /**
+     * Starts light sensor monitor mode on all devices. If any device fails to start, the others are stopped
+     */
+    public void lightSensorMonitorMode(boolean noBuffer, byte sensitivity, boolean fastADC, MultiDeviceCallback callback) throws MissingSensorException, IOException {
+        endCurrentActivity();
+        resetMetrics();
+        startTime = System.nanoTime();
+        for (int i = 0; i < devices.length; i++) {
+            int index = i;
+            int[] sample = new int[1];
+            try {
+                devices[i].lightSensorMonitorMode(noBuffer, sensitivity, fastADC, new LightSensorMonitorCallback() {
+                    @Override
+                    public void onDataBufferReceived(int[] data, long timestamp, long sequence) {
+                        callback.onDataReceived(index, data, null, getTime(index, sequence), sequence);
+                    }
+
+                    @Override
+                    public void onDataSampleReceived(int data, long timestamp, long sequence) {
+                        sample[0] = data;
+                        callback.onDataReceived(index, sample, null, getTime(index, sequence), sequence);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        callback.onError(index, e);
+                    }
+                });
+            } catch (MissingSensorException | IOException | RuntimeException ex) {
+                endCurrentActivity();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Starts light sensor + button mode on all devices. If any device fails to start, the others are stopped
+     */
+    public void lightSensorButtonMode(boolean noBuffer, byte sensitivity, boolean fastADC, boolean noClick, boolean autoFire, MultiDeviceCallback callback) throws MissingSensorException, IOException {
+        endCurrentActivity();
+        resetMetrics();
+        startTime = System.nanoTime();
+        for (int i = 0; i < devices.length; i++) {
+            int index = i;
+            int[] sampleLight = new int[1], sampleClick = new int[1];
+            try {
+                devices[i].lightSensorButtonMode(noBuffer, sensitivity, fastADC, noClick, autoFire, new LightSensorButtonCallback() {
+                    @Override
+                    public void onDataBufferReceived(int[] light, int[] click, long timestamp, long sequence) {
+                        callback.onDataReceived(index, light, click, getTime(index, sequence), sequence);
+                    }
+
+                    @Override
+                    public void onDataSampleReceived(int light, int click, long timestamp, long sequence) {
+                        sampleLight[0] = light;
+                        sampleClick[0] = click;
+                        callback.onDataReceived(index, sampleLight, sampleClick, getTime(index, sequence), sequence);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        callback.onError(index, e);
+                    }
+                });
+            } catch (MissingSensorException | IOException | RuntimeException ex) {
+                endCurrentActivity();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Stops all devices in parallel
+     */
+    public void endCurrentActivity() {
+        forEachDevice(false);
+    }
+
+    public void close() {
+        forEachDevice(true);
+    }
+
+    private void forEachDevice(boolean close) {
+        Thread[] threads = new Thread[devices.length];
+        for (int i = 0; i < devices.length; i++) {
+            Device d = devices[i];
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    if (close) {
+                        d.close();
+                    } else if (d.isOpen()) {
+                        d.endCurrentActivity();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void resetMetrics() {
+        for (Device d : devices) {
+            d.getMetrics().reset();
+        }
+    }
+
+    /**
+     * @return samples of each device that were dropped because the callback couldn't keep up. See also hasOverruns
+     */
+    public long[] getDroppedSamples() {
+        long[] ret = new long[devices.length];
+        for (int i = 0; i < devices.length; i++) {
+            ret[i] = devices[i].getDroppedSamples();
+        }
+        return ret;
+    }
+
+    /**
+     * @return true if a device dropped, lost or discarded any data since the current (or last) acquisition was started. Its sample indexes then no longer match its time base, so its aligned data can't be trusted
+     */
+    public boolean hasOverruns(int device) {
+        return devices[device].getMetrics().hasOverruns();
+    }
+
+    /**
+     * @return true if any device dropped, lost or discarded any data since the current (or last) acquisition was started
+     */
+    public boolean hasOverruns() {
+        for (int i = 0; i < devices.length; i++) {
+            if (hasOverruns(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
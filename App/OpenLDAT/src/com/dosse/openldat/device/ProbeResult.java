@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+/**
+ * Result of an attempt to connect to a port, made by DeviceFinder. Probes run in parallel, use waitFor before reading the result
+ *
+ * @author dosse
+ */
+public class ProbeResult {
+
+    private final SerialPort port;
+    private final Thread thread;
+    private final long start;
+    private volatile long end = -1;
+    private volatile Device device = null;
+    private volatile Throwable error = null;
+
+    ProbeResult(SerialPort port) {
+        this.port = port;
+        start = System.nanoTime();
+        thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    device = new Device(port);
+                } catch (Throwable t) {
+                    error = t;
+                    if (port.isOpen()) {
+                        port.closePort();
+                    }
+                }
+                end = System.nanoTime();
+            }
+        };
+        thread.setName("OpenLDAT probe " + port.getSystemPortName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for the probe to complete
+     *
+     * @return true if it completed, false if the timeout expired
+     */
+    public boolean waitFor(long timeoutMs) {
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+
+    public boolean isDone() {
+        return end != -1;
+    }
+
+    public SerialPort getPort() {
+        return port;
+    }
+
+    /**
+     * @return the connected device, or null if the probe failed or hasn't completed yet
+     */
+    public Device getDevice() {
+        return device;
+    }
+
+    /**
+     * @return why the probe failed, or null if it succeeded or hasn't completed yet
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return how long the probe took (or has been running for), in milliseconds
+     */
+    public double getDurationMs() {
+        long e = end;
+        return ((e == -1 ? System.nanoTime() : e) - start) / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+        String s = port.getSystemPortName() + ": ";
+        if (!isDone()) {
+            return s + "still probing after " + String.format("%.1f", getDurationMs()) + " ms";
+        } else if (device != null) {
+            return s + device.getModel() + " S/N " + device.getSerialNumber() + " found in " + String.format("%.1f", getDurationMs()) + " ms";
+        } else {
+            return s + "failed after " + String.format("%.1f", getDurationMs()) + " ms because " + error;
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+/**
+ * Maps sample indexes of an acquisition to host time (System.nanoTime) and vice versa, so that events on the host (frame swaps, color changes, etc.) can be aligned with the light signal.
+ * <p>
+ * The clock is updated with the arrival time of each block of samples. The slope of the mapping (the actual sample period) is estimated with an exponentially weighted least squares fit,
+ * so it follows the drift between the device's crystal and the host clock. Since data can only arrive late (USB scheduling, OS latency), the offset follows the lower envelope of the arrival times
+ * instead of their average. The mapping therefore includes the minimum transfer latency, which is constant
+ *
+ * @author dosse
+ */
+public class SampleClock {
+
+    private static final double DEFAULT_FORGETTING_FACTOR = 0.999; //weight of the previous updates, the estimate effectively averages the last 1/(1-f) updates
+    private static final double ENVELOPE_CREEP_NS = 1000; //how fast the lower envelope rises at each update, so that the offset can follow a decreasing latency or a bad initial estimate
+    private static final int MIN_UPDATES = 16; //until then, the nominal sample rate is used
+
+    private final double nominalPeriod, forgettingFactor;
+    private long baseTime = -1, baseSequence = 0;
+    private double w = 0, meanX = 0, meanY = 0, sxx = 0, sxy = 0;
+    private double envelope = 0;
+    private long updates = 0;
+
+    /**
+     * @param sampleRate nominal sample rate, used until enough data has been received
+     */
+    public SampleClock(double sampleRate) {
+        this(sampleRate, DEFAULT_FORGETTING_FACTOR);
+    }
+
+    public SampleClock(double sampleRate, double forgettingFactor) {
+        nominalPeriod = 1000000000.0 / sampleRate;
+        this.forgettingFactor = forgettingFactor;
+    }
+
+    /**
+     * @param timestamp System.nanoTime when the sample was received
+     * @param sequence index of the last sample that was received
+     */
+    public synchronized void update(long timestamp, long sequence) {
+        if (baseTime == -1) {
+            baseTime = timestamp;
+            baseSequence = sequence;
+        }
+        double x = sequence - baseSequence, y = timestamp - baseTime;
+        w = w * forgettingFactor + 1;
+        double dx = x - meanX;
+        meanX += dx / w;
+        double dy = y - meanY;
+        meanY += dy / w;
+        sxx = sxx * forgettingFactor + dx * (x - meanX);
+        sxy = sxy * forgettingFactor + dx * (y - meanY);
+        updates++;
+        double residual = y - line(x);
+        if (updates == 1 || residual < envelope) {
+            envelope = residual;
+        } else {
+            envelope += ENVELOPE_CREEP_NS;
+        }
+    }
+
+    private double getPeriodNs() {
+        if (updates < MIN_UPDATES || sxx <= 0) {
+            return nominalPeriod;
+        }
+        return sxy / sxx;
+    }
+
+    private double line(double x) {
+        if (updates < MIN_UPDATES || sxx <= 0) {
+            return meanY + (x - meanX) * nominalPeriod;
+        }
+        return meanY + (x - meanX) * (sxy / sxx);
+    }
+
+    /**
+     * @return estimated host time (System.nanoTime) of a sample, or -1 if the clock hasn't been updated yet
+     */
+    public synchronized long getTime(long sequence) {
+        if (updates == 0) {
+            return -1;
+        }
+        return baseTime + Math.round(line(sequence - baseSequence) + envelope);
+    }
+
+    /**
+     * @return estimated index of the sample acquired at the specified host time (System.nanoTime), or -1 if the clock hasn't been updated yet
+     */
+    public synchronized long getSequence(long nanoTime) {
+        if (updates == 0) {
+            return -1;
+        }
+        double y = nanoTime - baseTime - envelope;
+        return baseSequence + Math.round(meanX + (y - meanY) / getPeriodNs());
+    }
+
+    /**
+     * @return estimated sample rate in Hz, measured against the host clock
+     */
+    public synchronized double getSampleRate() {
+        return 1000000000.0 / getPeriodNs();
+    }
+
+    public synchronized long getUpdateCount() {
+        return updates;
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Stores the sample rates measured by Device.calibrate*SampleRate, for each device and mode. The storage file is set by the application at startup;
+ * if it's not set, measurements are only kept until the application is closed
+ *
+ * @author dosse
+ */
+public class SampleRateCalibration {
+
+    private static final Map<String, Double> rates = new HashMap<>();
+    private static File storageFile = null;
+
+    /**
+     * Sets the file used to store measurements and loads it, if it exists
+     */
+    public static synchronized void setStorageFile(File f) {
+        storageFile = f;
+        rates.clear();
+        if (f == null || !f.exists()) {
+            return;
+        }
+        try {
+            ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f));
+            @SuppressWarnings("unchecked")
+            Map<String, Double> m = (Map<String, Double>) ois.readObject();
+            ois.close();
+            rates.putAll(m);
+        } catch (Throwable t) {
+            System.err.println("WARNING: failed to load sample rate calibration from " + f + ", it will be ignored");
+        }
+    }
+
+    private static void save() {
+        if (storageFile == null) {
+            return;
+        }
+        try {
+            if (!storageFile.exists()) {
+                storageFile.getAbsoluteFile().getParentFile().mkdirs();
+                storageFile.createNewFile();
+            }
+            ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(storageFile));
+            oos.writeObject(new HashMap<>(rates));
+            oos.flush();
+            oos.close();
+        } catch (Throwable t) {
+            System.err.println("WARNING: failed to save sample rate calibration to " + storageFile);
+        }
+    }
+
+    /**
+     * @param deviceId as returned by Device.getCalibrationId
+     * @return key under which the sample rate of a mode is stored
+     */
+    public static String getKey(String deviceId, boolean buttonMode, boolean noBuffer, boolean fastADC) {
+        return deviceId + "/" + (buttonMode ? "button" : "monitor") + (noBuffer ? "_nobuffer" : "") + (fastADC ? "_fastadc" : "");
+    }
+
+    /**
+     * @return measured sample rate, or -1 if this mode hasn't been calibrated
+     */
+    public static synchronized double get(String key) {
+        Double r = rates.get(key);
+        return r == null ? -1 : r;
+    }
+
+    public static synchronized void put(String key, double sampleRate) {
+        rates.put(key, sampleRate);
+        save();
+    }
+
+    /**
+     * Removes all measurements of a device
+     *
+     * @param deviceId as returned by Device.getCalibrationId
+     */
+    public static synchronized void clear(String deviceId) {
+        Iterator<String> i = rates.keySet().iterator();
+        while (i.hasNext()) {
+            if (i.next().startsWith(deviceId + "/")) {
+                i.remove();
+            }
+        }
+        save();
+    }
+
+}
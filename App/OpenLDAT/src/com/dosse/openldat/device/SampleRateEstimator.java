@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+/**
+ * Estimates the sample rate of an acquisition from the arrival times of its samples, with a least squares fit of the number of samples received over time
+ *
+ * @author dosse
+ */
+class SampleRateEstimator {
+
+    private final long warmupNs;
+    private long first = -1, t0 = -1;
+    private long samples = 0;
+    private double sx = 0, sy = 0, sxx = 0, sxy = 0;
+    private long n = 0;
+
+    /**
+     * @param warmupMs data received during this time after the first block is ignored, since the first blocks are usually delivered in bursts
+     */
+    SampleRateEstimator(long warmupMs) {
+        warmupNs = warmupMs * 1000000L;
+    }
+
+    /**
+     * @param nanoTime arrival time of the block
+     * @param length number of samples in the block
+     */
+    void add(long nanoTime, int length) {
+        if (first == -1) {
+            first = nanoTime;
+        }
+        if (nanoTime - first < warmupNs) {
+            return;
+        }
+        if (t0 == -1) {
+            t0 = nanoTime;
+        }
+        samples += length;
+        double x = (nanoTime - t0) / 1000000000.0, y = samples;
+        sx += x;
+        sy += y;
+        sxx += x * x;
+        sxy += x * y;
+        n++;
+    }
+
+    long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return estimated sample rate in Hz, or -1 if there isn't enough data
+     */
+    double getSampleRate() {
+        double d = n * sxx - sx * sx;
+        if (n < 2 || d <= 0) {
+            return -1;
+        }
+        return (n * sxy - sx * sy) / d;
+    }
+
+}
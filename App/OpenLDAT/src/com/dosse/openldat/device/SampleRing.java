@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated single producer, single consumer ring of sample blocks, used to hand data from the acquisition thread to the dispatch thread.
+ * The producer never waits: if the ring is full, the block is dropped and counted as an overflow
+ *
+ * @author dosse
+ */
+public class SampleRing {
+
+    private final int[][] light, click;
+    private final int[] lengths, markers;
+    private final long[] timestamps, sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong(); //head=next block to write, tail=next block to read
+    private final AtomicLong overflows = new AtomicLong(), overflowSamples = new AtomicLong();
+    private volatile int maxLag = 0;
+    private volatile Thread consumer = null;
+    private volatile boolean consumerWaiting = false;
+
+    /**
+     * @param capacity number of blocks, rounded up to a power of 2
+     * @param blockSize max samples per block
+     * @param hasClick whether blocks also carry click data
+     */
+    public SampleRing(int capacity, int blockSize, boolean hasClick) {
+        int c = Integer.highestOneBit(capacity < 2 ? 2 : capacity);
+        if (c < capacity) {
+            c <<= 1;
+        }
+        mask = c - 1;
+        light = new int[c][blockSize];
+        click = hasClick ? new int[c][blockSize] : null;
+        lengths = new int[c];
+        markers = new int[c];
+        timestamps = new long[c];
+        sequences = new long[c];
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Producer: reserves the next block
+     *
+     * @return index of the block, or -1 if the ring is full
+     */
+    public int claim() {
+        long h = head.get();
+        if (h - tail.get() > mask) {
+            return -1;
+        }
+        return (int) (h & mask);
+    }
+
+    /**
+     * Producer: counts a block that was dropped because the ring was full
+     */
+    public void overflow(int samples) {
+        overflows.incrementAndGet();
+        overflowSamples.addAndGet(samples);
+    }
+
+    /**
+     * Producer: makes the block reserved with claim visible to the consumer
+     *
+     * @param timestamp System.nanoTime when the block was received
+     * @param sequence index of the first sample of the block
+     */
+    public void publish(int block, int length, long timestamp, long sequence) {
+        publish(block, length, timestamp, sequence, -1);
+    }
+
+    /**
+     * Producer: same as publish, for a block that starts with a marker from the device (see getMarker)
+     */
+    public void publish(int block, int length, long timestamp, long sequence, int marker) {
+        lengths[block] = length;
+        markers[block] = marker;
+        timestamps[block] = timestamp;
+        sequences[block] = sequence;
+        long h = head.get() + 1;
+        //must be a volatile write: consumerWaiting is read right after it, and await does the opposite, so with a lazy write both sides could miss each other and the consumer would sleep until its timeout
+        head.set(h);
+        int lag = (int) (h - tail.get());
+        if (lag > maxLag) {
+            maxLag = lag;
+        }
+        if (consumerWaiting) {
+            Thread t = consumer;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /**
+     * Consumer: gets the oldest published block without removing it
+     *
+     * @return index of the block, or -1 if the ring is empty
+     */
+    public int peek() {
+        long t = tail.get();
+        if (t == head.get()) {
+            return -1;
+        }
+        return (int) (t & mask);
+    }
+
+    /**
+     * Consumer: frees the block returned by peek
+     */
+    public void release() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    /**
+     * Consumer: waits for a new block to be published, or at most maxWaitNanos
+     */
+    public void await(int idleCount, long maxWaitNanos) {
+        if (idleCount < 100) {
+            Thread.onSpinWait();
+            return;
+        }
+        consumer = Thread.currentThread();
+        consumerWaiting = true;
+        if (peek() == -1) {
+            LockSupport.parkNanos(this, maxWaitNanos);
+        }
+        consumerWaiting = false;
+    }
+
+    /**
+     * Wakes up the consumer if it's waiting
+     */
+    public void wakeUp() {
+        Thread t = consumer;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    public int[] getLight(int block) {
+        return light[block];
+    }
+
+    public int[] getClick(int block) {
+        return click == null ? null : click[block];
+    }
+
+    public int getLength(int block) {
+        return lengths[block];
+    }
+
+    public long getTimestamp(int block) {
+        return timestamps[block];
+    }
+
+    public long getSequence(int block) {
+        return sequences[block];
+    }
+
+    /**
+     * @return the marker published with the block (for instance the new flags after a reconfiguration), or -1
+     */
+    public int getMarker(int block) {
+        return markers[block];
+    }
+
+    /**
+     * @return number of blocks that were dropped because the consumer couldn't keep up
+     */
+    public long getOverflows() {
+        return overflows.get();
+    }
+
+    /**
+     * @return number of samples that were dropped because the consumer couldn't keep up
+     */
+    public long getOverflowSamples() {
+        return overflowSamples.get();
+    }
+
+    /**
+     * @return number of blocks currently waiting to be consumed
+     */
+    public int getLag() {
+        return (int) (head.get() - tail.get());
+    }
+
+    /**
+     * @return max number of blocks that were waiting to be consumed at any time
+     */
+    public int getMaxLag() {
+        return maxLag;
+    }
+
+}
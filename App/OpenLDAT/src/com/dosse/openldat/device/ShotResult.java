@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of a burst of light sensor samples, see Device.shoot.
+ * When the firmware computes them, only the histogram is available, so percentiles are interpolated within its bins (8 ADC units wide).
+ * When they're computed by the app, the raw samples are kept and everything is exact
+ *
+ * @author dosse
+ */
+public class ShotResult {
+
+    public static final int HISTOGRAM_BINS = 128, BIN_WIDTH = 1024 / HISTOGRAM_BINS;
+
+    private final int samples, min, max;
+    private final long sum;
+    private final int[] histogram;
+    private final int[] rawData, sorted;
+
+    /**
+     * Result computed by the device
+     */
+    ShotResult(int samples, int min, int max, long sum, int[] histogram) {
+        this.samples = samples;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.histogram = histogram;
+        rawData = null;
+        sorted = null;
+    }
+
+    /**
+     * Result computed from raw samples
+     */
+    ShotResult(int[] rawData) {
+        this.rawData = rawData;
+        sorted = Arrays.copyOf(rawData, rawData.length);
+        Arrays.sort(sorted);
+        samples = rawData.length;
+        histogram = new int[HISTOGRAM_BINS];
+        long s = 0;
+        for (int v : rawData) {
+            s += v;
+            histogram[Math.min(HISTOGRAM_BINS - 1, Math.max(0, v / BIN_WIDTH))]++;
+        }
+        sum = s;
+        min = samples == 0 ? 0 : sorted[0];
+        max = samples == 0 ? 0 : sorted[samples - 1];
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return samples == 0 ? 0 : (double) sum / (double) samples;
+    }
+
+    /**
+     * @return number of samples in each bin, bin i contains the values from i*BIN_WIDTH to (i+1)*BIN_WIDTH-1
+     */
+    public int[] getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @param p percentile, from 0 to 1
+     * @return value below which a fraction p of the samples fall (same definition as sorting the samples and taking the one at index samples*p)
+     */
+    public double getPercentile(double p) {
+        if (samples == 0) {
+            return 0;
+        }
+        int rank = Math.min(samples - 1, Math.max(0, (int) (samples * p)));
+        if (sorted != null) {
+            return sorted[rank];
+        }
+        if (rank == 0) {
+            return min;
+        }
+        if (rank == samples - 1) {
+            return max;
+        }
+        int below = 0;
+        for (int i = 0; i < HISTOGRAM_BINS; i++) {
+            if (below + histogram[i] > rank) {
+                //assume the samples are spread evenly within the bin
+                double v = i * BIN_WIDTH + BIN_WIDTH * (rank - below + 0.5) / histogram[i];
+                return Math.max(min, Math.min(max, v));
+            }
+            below += histogram[i];
+        }
+        return max;
+    }
+
+    /**
+     * @return the samples, or null if the result was computed by the device
+     */
+    public int[] getRawData() {
+        return rawData;
+    }
+
+    /**
+     * @return true if the result was computed by the device
+     */
+    public boolean isComputedOnDevice() {
+        return rawData == null;
+    }
+
+}
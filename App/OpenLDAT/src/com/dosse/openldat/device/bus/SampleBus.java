@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.bus;
+
+import com.dosse.openldat.device.callbacks.LightSensorButtonCallback;
+import com.dosse.openldat.device.callbacks.LightSensorMonitorCallback;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Distributes the samples of a single acquisition to any number of subscribers, which can be added and removed while the acquisition is running.
+ * Pass getMonitorCallback or getButtonCallback to the Device to feed the bus.
+ * <p>
+ * INLINE subscribers run directly in the callback, the others run on their own thread with their own queue, so an expensive subscriber doesn't delay the others.
+ * When the queue of a subscriber is full, DROP discards the new samples, BLOCK waits for room (delaying every other subscriber, use it for things that can't lose data like dump files)
+ * and COALESCE discards the oldest queued samples, which is usually what a chart wants
+ *
+ * @author dosse
+ */
+public class SampleBus {
+
+    public static final int INLINE = 0, DROP = 1, BLOCK = 2, COALESCE = 3;
+    public static final int DEFAULT_QUEUE_SIZE = 65536; //samples
+
+    private static final long CLOSE_TIMEOUT_MS = 2000;
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final int[] sampleLight = new int[1], sampleClick = new int[1];
+
+    private final LightSensorMonitorCallback monitorCallback = new LightSensorMonitorCallback() {
+        @Override
+        public void onDataBufferReceived(int[] data) {
+            publish(data, null);
+        }
+
+        @Override
+        public void onDataSampleReceived(int data) {
+            sampleLight[0] = data;
+            publish(sampleLight, null);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            publishError(e);
+        }
+    };
+
+    private final LightSensorButtonCallback buttonCallback = new LightSensorButtonCallback() {
+        @Override
+        public void onDataBufferReceived(int[] light, int[] click) {
+            publish(light, click);
+        }
+
+        @Override
+        public void onDataSampleReceived(int light, int click) {
+            sampleLight[0] = light;
+            sampleClick[0] = click;
+            publish(sampleLight, sampleClick);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            publishError(e);
+        }
+    };
+
+    public LightSensorMonitorCallback getMonitorCallback() {
+        return monitorCallback;
+    }
+
+    public LightSensorButtonCallback getButtonCallback() {
+        return buttonCallback;
+    }
+
+    public Subscription subscribe(SampleSubscriber subscriber) {
+        return subscribe(subscriber, INLINE, 0);
+    }
+
+    public Subscription subscribe(SampleSubscriber subscriber, int policy) {
+        return subscribe(subscriber, policy, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param policy INLINE, DROP, BLOCK or COALESCE
+     * @param queueSize size of the queue of the subscriber in samples, ignored for INLINE
+     */
+    public Subscription subscribe(SampleSubscriber subscriber, int policy, int queueSize) {
+        if (policy < INLINE || policy > COALESCE) {
+            throw new IllegalArgumentException("Unknown policy " + policy);
+        }
+        if (policy != INLINE && queueSize < 1) {
+            throw new IllegalArgumentException("Queue size must be at least 1");
+        }
+        Subscription s = new Subscription(this, subscriber, policy, queueSize);
+        subscriptions.add(s);
+        return s;
+    }
+
+    void remove(Subscription s) {
+        subscriptions.remove(s);
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    public void publish(int[] light, int[] click) {
+        for (Subscription s : subscriptions) {
+            s.offer(light, click);
+        }
+    }
+
+    public void publishError(Exception e) {
+        for (Subscription s : subscriptions) {
+            s.offerError(e);
+        }
+    }
+
+    /**
+     * Removes all subscribers. Queued samples are delivered before their threads stop, so this should be called after the acquisition has ended
+     */
+    public void close() {
+        for (Subscription s : subscriptions) {
+            s.stop(true, 0);
+        }
+        for (Subscription s : subscriptions) {
+            s.stop(true, CLOSE_TIMEOUT_MS);
+        }
+        subscriptions.clear();
+    }
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.bus;
+
+/**
+ * Receives samples from a SampleBus. The arrays passed to onSamples are only valid for the duration of the call
+ *
+ * @author dosse
+ */
+public abstract class SampleSubscriber {
+
+    /**
+     * @param light light samples
+     * @param click click samples (same length as light), or null if the acquisition doesn't have them
+     */
+    public abstract void onSamples(int[] light, int[] click);
+
+    public void onError(Exception e) {
+    }
+
+}
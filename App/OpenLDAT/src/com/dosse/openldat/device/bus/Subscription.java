@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.bus;
+
+/**
+ * A subscriber attached to a SampleBus. Unless the policy is INLINE, the subscriber runs on its own thread and the bus only copies the samples into its queue
+ *
+ * @author dosse
+ */
+public class Subscription {
+
+    private static final int MAX_BATCH_SIZE = 4096; //max samples passed to the subscriber in a single call
+
+    private final SampleBus bus;
+    private final SampleSubscriber subscriber;
+    private final int policy;
+    private final int[] queueLight;
+    private int[] queueClick = null;
+    private int queueStart = 0, queueCount = 0;
+    private int[] outLight = null, outClick = null;
+    private Exception pendingError = null;
+    private long dropped = 0;
+    private boolean active = true, closing = false;
+    private final Thread thread;
+
+    Subscription(SampleBus bus, SampleSubscriber subscriber, int policy, int queueSize) {
+        this.bus = bus;
+        this.subscriber = subscriber;
+        this.policy = policy;
+        if (policy == SampleBus.INLINE) {
+            queueLight = null;
+            thread = null;
+        } else {
+            queueLight = new int[queueSize];
+            thread = new Thread() {
+                @Override
+                public void run() {
+                    deliveryLoop();
+                }
+            };
+            thread.setName("OpenLDAT subscriber");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public SampleSubscriber getSubscriber() {
+        return subscriber;
+    }
+
+    public int getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return number of samples this subscriber missed because its queue was full (DROP), or that were replaced by newer ones (COALESCE)
+     */
+    public synchronized long getDroppedSamples() {
+        return dropped;
+    }
+
+    /**
+     * @return number of samples waiting to be delivered
+     */
+    public synchronized int getPending() {
+        return queueCount;
+    }
+
+    /**
+     * @return false if the subscriber was detached, or if it threw an exception while receiving samples (it is then notified through onError)
+     */
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Detaches the subscriber from the bus. Samples that haven't been delivered yet are discarded
+     */
+    public void unsubscribe() {
+        bus.remove(this);
+        stop(false, 0);
+    }
+
+    void offer(int[] light, int[] click) {
+        if (thread == null) {
+            subscriber.onSamples(light, click);
+            return;
+        }
+        synchronized (this) {
+            if (!active || closing) {
+                return;
+            }
+            if (click != null && queueClick == null) {
+                queueClick = new int[queueLight.length];
+            }
+            int n = light.length, from = 0;
+            switch (policy) {
+                case SampleBus.BLOCK: {
+                    while (from < n) {
+                        while (queueCount == queueLight.length && active) {
+                            try {
+                                wait();
+                            } catch (InterruptedException ex) {
+                                Thread.currentThread().interrupt();
+                                return;
+                            }
+                        }
+                        if (!active) {
+                            return;
+                        }
+                        int len = Math.min(n - from, queueLight.length - queueCount);
+                        put(light, click, from, len);
+                        from += len;
+                        notifyAll();
+                    }
+                    return;
+                }
+                case SampleBus.COALESCE: {
+                    //the oldest samples are replaced so that the subscriber always gets the most recent ones
+                    if (n > queueLight.length) {
+                        from = n - queueLight.length;
+                        dropped += from;
+                    }
+                    int excess = queueCount + n - from - queueLight.length;
+                    if (excess > 0) {
+                        queueStart = (queueStart + excess) % queueLight.length;
+                        queueCount -= excess;
+                        dropped += excess;
+                    }
+                    put(light, click, from, n - from);
+                    break;
+                }
+                default: {
+                    int len = Math.min(n, queueLight.length - queueCount);
+                    dropped += n - len;
+                    put(light, click, 0, len);
+                    break;
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    private void put(int[] light, int[] click, int from, int length) {
+        int end = (queueStart + queueCount) % queueLight.length;
+        int first = Math.min(length, queueLight.length - end);
+        System.arraycopy(light, from, queueLight, end, first);
+        System.arraycopy(light, from + first, queueLight, 0, length - first);
+        if (click != null) {
+            System.arraycopy(click, from, queueClick, end, first);
+            System.arraycopy(click, from + first, queueClick, 0, length - first);
+        }
+        queueCount += length;
+    }
+
+    void offerError(Exception e) {
+        if (thread == null) {
+            subscriber.onError(e);
+            return;
+        }
+        synchronized (this) {
+            pendingError = e;
+            notifyAll();
+        }
+    }
+
+    /**
+     * @param drain if true, the subscriber gets the samples that are still queued before the thread stops
+     */
+    void stop(boolean drain, long timeoutMs) {
+        synchronized (this) {
+            if (drain) {
+                closing = true;
+            } else {
+                active = false;
+            }
+            notifyAll();
+        }
+        if (thread != null && thread != Thread.currentThread() && timeoutMs > 0) {
+            try {
+                thread.join(timeoutMs);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void deliveryLoop() {
+        while (true) {
+            Exception error = null;
+            synchronized (this) {
+                while (active && queueCount == 0 && pendingError == null && !closing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        active = false;
+                    }
+                }
+                if (!active || (closing && queueCount == 0 && pendingError == null)) {
+                    active = false;
+                    notifyAll();
+                    return;
+                }
+                if (queueCount > 0) {
+                    int n = Math.min(queueCount, MAX_BATCH_SIZE);
+                    if (outLight == null || outLight.length != n) {
+                        outLight = new int[n];
+                        outClick = queueClick == null ? null : new int[n];
+                    }
+                    int first = Math.min(n, queueLight.length - queueStart);
+                    System.arraycopy(queueLight, queueStart, outLight, 0, first);
+                    System.arraycopy(queueLight, 0, outLight, first, n - first);
+                    if (outClick != null) {
+                        System.arraycopy(queueClick, queueStart, outClick, 0, first);
+                        System.arraycopy(queueClick, 0, outClick, first, n - first);
+                    }
+                    queueStart = (queueStart + n) % queueLight.length;
+                    queueCount -= n;
+                    notifyAll();
+                } else {
+                    //errors are delivered after all the samples that came before them
+                    error = pendingError;
+                    pendingError = null;
+                }
+            }
+            try {
+                if (error != null) {
+                    subscriber.onError(error);
+                } else {
+                    subscriber.onSamples(outLight, outClick);
+                }
+            } catch (RuntimeException ex) {
+                //a failing subscriber is detached so that it can't block the bus (BLOCK policy) or silently stop receiving data
+                synchronized (this) {
+                    active = false;
+                    notifyAll();
+                }
+                bus.remove(this);
+                if (error == null) {
+                    try {
+                        subscriber.onError(ex);
+                    } catch (RuntimeException ex2) {
+                        ex2.printStackTrace();
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.callbacks;
+
+/**
+ * Receives the events of the light sensor edge mode. Times are in microseconds since the mode was started, measured by the device
+ *
+ * @author dosse
+ */
+public class EdgeCallback {
+    /**
+     * The button was clicked (or autofire fired)
+     *
+     * @param light light level when it happened
+     */
+    public void onClick(long time, int light){}
+    /**
+     * The light level went from below to above the rise threshold
+     */
+    public void onRise(long time, int light){}
+    /**
+     * The light level went from above to below the fall threshold
+     */
+    public void onFall(long time, int light){}
+    /**
+     * Sent periodically, even if nothing is happening
+     *
+     * @param maxLight highest light level since the previous report
+     */
+    public void onPeak(long time, int maxLight){}
+    public void onError(Exception e){
+        System.err.println("Light Sensor interrupted because "+e+". Exception details: ");
+        e.printStackTrace();
+    }
+}
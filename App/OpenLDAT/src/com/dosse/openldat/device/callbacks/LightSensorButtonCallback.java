@@ -23,6 +23,22 @@ package com.dosse.openldat.device.callbacks;
 public class LightSensorButtonCallback {
     public void onDataBufferReceived(int[] light, int[] click){}
     public void onDataSampleReceived(int light, int click){}
+    /**
+     * Same as onDataBufferReceived(light, click), with the time of arrival of the data (System.nanoTime) and the index of its first sample since the acquisition started.
+     * By default it just calls onDataBufferReceived(light, click)
+     */
+    public void onDataBufferReceived(int[] light, int[] click, long timestamp, long sequence){
+        onDataBufferReceived(light, click);
+    }
+    public void onDataSampleReceived(int light, int click, long timestamp, long sequence){
+        onDataSampleReceived(light, click);
+    }
+    /**
+     * Called before the first sample with the new settings, after Device.reconfigureLightSensor
+     *
+     * @param sequence index of the first sample with the new settings
+     */
+    public void onReconfigured(byte sensitivity, boolean noClick, boolean autoFire, long sequence){}
     public void onError(Exception e){
         System.err.println("Light Sensor interrupted because "+e+". Exception details: ");
         e.printStackTrace();
@@ -23,6 +23,22 @@ package com.dosse.openldat.device.callbacks;
 public class LightSensorMonitorCallback {
     public void onDataBufferReceived(int[] data){}
     public void onDataSampleReceived(int data){}
+    /**
+     * Same as onDataBufferReceived(data), with the time of arrival of the data (System.nanoTime) and the index of its first sample since the acquisition started.
+     * By default it just calls onDataBufferReceived(data)
+     */
+    public void onDataBufferReceived(int[] data, long timestamp, long sequence){
+        onDataBufferReceived(data);
+    }
+    public void onDataSampleReceived(int data, long timestamp, long sequence){
+        onDataSampleReceived(data);
+    }
+    /**
+     * Called before the first sample with the new sensitivity, after Device.reconfigureLightSensor
+     *
+     * @param sequence index of the first sample with the new sensitivity
+     */
+    public void onReconfigured(byte sensitivity, long sequence){}
     public void onError(Exception e){
         System.err.println("Light Sensor Monitor interrupted because "+e+". Exception details: ");
         e.printStackTrace();
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.callbacks;
+
+/**
+ * Monitor mode callback that receives the run length frames of the device without expanding them (see Device.setDeadband).
+ * Everything is delivered on the thread that reads from the device, so it must be handled quickly. Frames that the device didn't compress still arrive through onDataBufferReceived
+ *
+ * @author dosse
+ */
+public class LightSensorRunLengthCallback extends LightSensorMonitorCallback {
+
+    private int[] expanded = new int[0];
+
+    /**
+     * By default it expands the runs and calls onDataBufferReceived
+     *
+     * @param values light level of each run
+     * @param lengths number of samples in each run
+     * @param count number of valid runs in the arrays
+     * @param timestamp System.nanoTime when the data arrived
+     * @param sequence index of the first sample since the acquisition started
+     */
+    public void onRunsReceived(int[] values, int[] lengths, int count, long timestamp, long sequence) {
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            n += lengths[i];
+        }
+        if (expanded.length != n) {
+            expanded = new int[n];
+        }
+        for (int i = 0, p = 0; i < count; i++) {
+            for (int j = 0; j < lengths[i]; j++) {
+                expanded[p++] = values[i];
+            }
+        }
+        onDataBufferReceived(expanded, timestamp, sequence);
+    }
+}
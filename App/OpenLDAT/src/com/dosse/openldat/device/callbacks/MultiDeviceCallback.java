@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.callbacks;
+
+/**
+ * Receives data from all the devices in a MultiDeviceSession. Each device calls it from its own thread
+ *
+ * @author dosse
+ */
+public class MultiDeviceCallback {
+
+    /**
+     * @param device index of the device in the session
+     * @param light light samples
+     * @param click click samples, or null in monitor mode
+     * @param time estimated host time (System.nanoTime) of the first sample, comparable between devices
+     * @param sequence index of the first sample since the device started
+     */
+    public void onDataReceived(int device, int[] light, int[] click, long time, long sequence) {
+    }
+
+    /**
+     * Called when a device fails, the other devices keep running
+     */
+    public void onError(int device, Exception e) {
+        System.err.println("Device " + device + " interrupted because " + e + ". Exception details: ");
+        e.printStackTrace();
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.capture;
+
+import java.io.IOException;
+
+/**
+ * Receives every decoded sample directly on the thread that reads from the device, before any dispatching.
+ * Implementations must be fast and must not block, since the device keeps sending data while they run
+ *
+ * @author dosse
+ */
+public interface ICaptureSink {
+
+    /**
+     * Called for each block of decoded samples. The arrays are reused after this method returns
+     *
+     * @param light light samples
+     * @param click click samples, or null if the current mode doesn't have them
+     * @param length number of valid samples in the arrays
+     * @throws IOException if the samples couldn't be stored, this stops the acquisition
+     */
+    public void write(int[] light, int[] click, int length) throws IOException;
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.capture;
+
+import com.dosse.openldat.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Writes the light samples straight into a memory mapped file, so that long captures don't need any heap or syscalls per sample.
+ * The file is mapped in fixed size segments as it grows, and it can be read (for instance to analyze the data) while it's being written.
+ * The layout is the same as the light dumps loaded by DumpViewer: sample rate as a double, followed by each sample as an int, big endian
+ *
+ * @author dosse
+ */
+public class MappedCaptureFile implements ICaptureSink {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024; //bytes
+    private static final int HEADER_SIZE = 8;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final double sampleRate;
+    private final int segmentSize;
+    private final CopyOnWriteArrayList<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private IntBuffer current = null; //view of the segment being written, positioned at the next sample
+    private final Object writeLock = new Object(); //held while writing and while unmapping, so the segments are never unmapped under a write. Only contended during close
+    private volatile long samples = 0;
+    private volatile boolean closed = false;
+
+    public MappedCaptureFile(File file, double sampleRate) throws IOException {
+        this(file, sampleRate, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates the file, overwriting it if it already exists
+     *
+     * @param file file to write
+     * @param sampleRate sample rate written in the header
+     * @param segmentSize size of each mapped segment in bytes, rounded down to a multiple of 4. Larger segments mean fewer mappings
+     */
+    public MappedCaptureFile(File file, double sampleRate, int segmentSize) throws IOException {
+        segmentSize &= ~3;
+        if (segmentSize < HEADER_SIZE + 4) {
+            throw new IllegalArgumentException("Segment size too small");
+        }
+        this.file = file;
+        this.sampleRate = sampleRate;
+        this.segmentSize = segmentSize;
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        channel = raf.getChannel();
+        nextSegment();
+        segments.get(0).putDouble(0, sampleRate);
+        current.position(HEADER_SIZE / 4);
+    }
+
+    private void nextSegment() throws IOException {
+        MappedByteBuffer m = channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * segmentSize, segmentSize);
+        segments.add(m);
+        current = m.asIntBuffer();
+    }
+
+    @Override
+    public void write(int[] light, int[] click, int length) throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IOException("Capture file closed");
+            }
+            int offset = 0;
+            while (offset < length) {
+                if (!current.hasRemaining()) {
+                    nextSegment();
+                }
+                int n = Math.min(length - offset, current.remaining());
+                current.put(light, offset, n);
+                offset += n;
+            }
+            samples += length; //only written by this thread, publishes the new samples to the readers
+        }
+    }
+
+    /**
+     * @return number of samples that can be read so far
+     */
+    public long getSampleCount() {
+        return samples;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Reads a single sample. Can be called from any thread while the file is being written
+     */
+    public synchronized int get(long index) {
+        if (closed) {
+            throw new IllegalStateException("Capture file closed");
+        }
+        if (index < 0 || index >= samples) {
+            throw new IndexOutOfBoundsException("Sample " + index + " of " + samples);
+        }
+        long pos = HEADER_SIZE + index * 4;
+        return segments.get((int) (pos / segmentSize)).getInt((int) (pos % segmentSize));
+    }
+
+    /**
+     * Copies samples into an array. Can be called from any thread while the file is being written, for instance to follow the capture as it grows
+     *
+     * @param from index of the first sample to read
+     * @param dst destination array
+     * @param offset where to start writing in dst
+     * @param length max number of samples to read
+     * @return number of samples actually read (less than length if the capture doesn't have them yet), or -1 if the file was closed
+     */
+    public synchronized int read(long from, int[] dst, int offset, int length) {
+        if (closed) {
+            return -1;
+        }
+        long available = samples - from;
+        if (from < 0 || available <= 0) {
+            return 0;
+        }
+        if (length > available) {
+            length = (int) available;
+        }
+        long pos = HEADER_SIZE + from * 4;
+        for (int i = 0; i < length;) {
+            ByteBuffer s = segments.get((int) (pos / segmentSize));
+            int o = (int) (pos % segmentSize), n = Math.min(length - i, (segmentSize - o) / 4);
+            for (int j = 0; j < n; j++, o += 4) {
+                dst[offset + i + j] = s.getInt(o);
+            }
+            i += n;
+            pos += n * 4L;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the data written so far to the disk
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            for (MappedByteBuffer m : segments) {
+                m.force();
+            }
+        }
+    }
+
+    /**
+     * Stops the capture, unmaps the file and trims it to the samples that were actually written.
+     * If an acquisition is still writing to it (for instance because it didn't stop in time), the current write is allowed to finish and the following ones fail, which stops the acquisition
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            //from now on readers and new writes don't touch the segments
+            closed = true;
+        }
+        synchronized (writeLock) {
+            flush();
+            for (MappedByteBuffer m : segments) {
+                //mappings are normally only released when the buffer is garbage collected, which prevents the file from being trimmed on some systems
+                Utils.releaseDirectBuffer(m);
+            }
+            segments.clear();
+            current = null;
+        }
+        try {
+            //fails on Windows if the mappings are still in place, in which case the unused part of the last segment is left as zeros
+            channel.truncate(HEADER_SIZE + samples * 4);
+        } catch (IOException ex) {
+            System.err.println("WARNING: could not trim capture file " + file + ": " + ex);
+        }
+        channel.close();
+        raf.close();
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.transport;
+
+/**
+ * Byte pipe between the app and an OpenLDAT device. Device only talks to the hardware through this interface
+ *
+ * @author dosse
+ */
+public interface ITransport {
+
+    /**
+     * Opens the connection
+     *
+     * @return true if successful
+     */
+    public boolean open();
+
+    public void close();
+
+    public boolean isOpen();
+
+    /**
+     * @return description of the device as reported by the USB descriptor (for instance "OpenLDAT Model 1")
+     */
+    public String getDescription();
+
+    /**
+     * @return system name of the port (for instance COM3 or ttyACM0)
+     */
+    public String getName();
+
+    /**
+     * Writes bytes to the device
+     *
+     * @return number of bytes written, or -1 on error
+     */
+    public int write(byte[] data, int length);
+
+    /**
+     * Reads up to length bytes into buffer, starting at offset. Waits a short time (~10ms) for at least 1 byte to arrive
+     *
+     * @return number of bytes read, 0 on timeout, -1 on error
+     */
+    public int read(byte[] buffer, int length, int offset);
+
+    /**
+     * @return number of bytes that can be read without waiting, or -1 on error
+     */
+    public int bytesAvailable();
+
+    /**
+     * Discards all data that is buffered but not yet read or written
+     */
+    public void flush();
+
+    /**
+     * Sets a listener that will be called when new data is available to read. Called on a transport-specific thread
+     *
+     * @param listener the listener, or null to remove it
+     */
+    public void setDataListener(Runnable listener);
+
+}
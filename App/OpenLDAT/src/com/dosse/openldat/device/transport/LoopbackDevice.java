@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.transport;
+
+/**
+ * Device side of a LoopbackTransport, for instance a virtual firmware
+ *
+ * @author dosse
+ */
+public abstract class LoopbackDevice {
+
+    private LoopbackTransport transport = null;
+
+    void attach(LoopbackTransport transport) {
+        this.transport = transport;
+        onConnected();
+    }
+
+    void detach() {
+        onDisconnected();
+        transport = null;
+    }
+
+    /**
+     * Sends bytes to the app. If the app's receive buffer is full, the bytes that don't fit are dropped, like a real serial driver would do
+     *
+     * @return number of bytes that were accepted
+     */
+    protected int send(byte[] data, int offset, int length) {
+        LoopbackTransport t = transport;
+        if (t == null) {
+            return 0;
+        }
+        return t.deviceWrite(data, offset, length);
+    }
+
+    /**
+     * @return the description reported to the app (for instance "OpenLDAT Model 1")
+     */
+    public abstract String getDescription();
+
+    /**
+     * Called when the app opens the transport
+     */
+    protected abstract void onConnected();
+
+    /**
+     * Called when the app closes the transport
+     */
+    protected abstract void onDisconnected();
+
+    /**
+     * Called when the app writes bytes to the device
+     */
+    protected abstract void onDataReceived(byte[] data, int length);
+
+}
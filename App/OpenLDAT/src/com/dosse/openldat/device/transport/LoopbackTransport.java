@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.transport;
+
+/**
+ * In-memory transport connected to a LoopbackDevice instead of real hardware. The receive buffer has the same size as the one used for real serial ports,
+ * and data that doesn't fit is dropped and counted, so throughput, latency and drop behavior can be measured without an OpenLDAT connected
+ *
+ * @author dosse
+ */
+public class LoopbackTransport implements ITransport {
+
+    public static final int DEFAULT_RECEIVE_BUFFER_SIZE = 131072;
+    private static final long READ_TIMEOUT_MS = 10;
+
+    private final LoopbackDevice device;
+    private final byte[] rx;
+    private int rxStart = 0, rxCount = 0, highWaterMark = 0;
+    private long bytesTransferred = 0, bytesDropped = 0;
+    private volatile boolean open = false;
+    private volatile Runnable dataListener = null;
+
+    public LoopbackTransport(LoopbackDevice device) {
+        this(device, DEFAULT_RECEIVE_BUFFER_SIZE);
+    }
+
+    public LoopbackTransport(LoopbackDevice device, int receiveBufferSize) {
+        this.device = device;
+        rx = new byte[receiveBufferSize];
+    }
+
+    public LoopbackDevice getDevice() {
+        return device;
+    }
+
+    @Override
+    public boolean open() {
+        synchronized (this) {
+            if (open) {
+                return false;
+            }
+            open = true;
+            rxStart = 0;
+            rxCount = 0;
+        }
+        device.attach(this);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            notifyAll();
+        }
+        device.detach();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public String getDescription() {
+        return device.getDescription();
+    }
+
+    @Override
+    public String getName() {
+        return "LOOPBACK";
+    }
+
+    @Override
+    public int write(byte[] data, int length) {
+        if (!open) {
+            return -1;
+        }
+        device.onDataReceived(data, length);
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int length, int offset) {
+        synchronized (this) {
+            long deadline = System.nanoTime() + READ_TIMEOUT_MS * 1000000L;
+            while (open && rxCount == 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return 0;
+                }
+                try {
+                    wait(remaining / 1000000L, (int) (remaining % 1000000L));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return 0;
+                }
+            }
+            if (!open) {
+                return -1;
+            }
+            int n = length < rxCount ? length : rxCount;
+            int first = rx.length - rxStart < n ? rx.length - rxStart : n;
+            System.arraycopy(rx, rxStart, buffer, offset, first);
+            System.arraycopy(rx, 0, buffer, offset + first, n - first);
+            rxStart = (rxStart + n) % rx.length;
+            rxCount -= n;
+            return n;
+        }
+    }
+
+    @Override
+    public int bytesAvailable() {
+        synchronized (this) {
+            return open ? rxCount : -1;
+        }
+    }
+
+    @Override
+    public void flush() {
+        synchronized (this) {
+            rxStart = 0;
+            rxCount = 0;
+        }
+    }
+
+    @Override
+    public void setDataListener(Runnable listener) {
+        dataListener = listener;
+    }
+
+    int deviceWrite(byte[] data, int offset, int length) {
+        int n;
+        synchronized (this) {
+            if (!open) {
+                return 0;
+            }
+            int free = rx.length - rxCount;
+            n = length < free ? length : free;
+            int end = (rxStart + rxCount) % rx.length;
+            int first = rx.length - end < n ? rx.length - end : n;
+            System.arraycopy(data, offset, rx, end, first);
+            System.arraycopy(data, offset + first, rx, 0, n - first);
+            rxCount += n;
+            if (rxCount > highWaterMark) {
+                highWaterMark = rxCount;
+            }
+            bytesTransferred += n;
+            bytesDropped += length - n;
+            notifyAll();
+        }
+        Runnable l = dataListener;
+        if (l != null && n > 0) {
+            l.run();
+        }
+        return n;
+    }
+
+    /**
+     * @return total number of bytes that were sent by the device and fit in the receive buffer
+     */
+    public synchronized long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    /**
+     * @return total number of bytes that were sent by the device and dropped because the receive buffer was full
+     */
+    public synchronized long getBytesDropped() {
+        return bytesDropped;
+    }
+
+    /**
+     * @return max number of bytes that were waiting in the receive buffer at any time
+     */
+    public synchronized int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.transport;
+
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortDataListener;
+import com.fazecast.jSerialComm.SerialPortEvent;
+
+/**
+ * Transport for real devices connected over USB CDC
+ *
+ * @author dosse
+ */
+public class SerialPortTransport implements ITransport {
+
+    private final SerialPort com;
+
+    public SerialPortTransport(SerialPort com) {
+        this.com = com;
+    }
+
+    public SerialPort getSerialPort() {
+        return com;
+    }
+
+    @Override
+    public boolean open() {
+        if (!com.openPort(100, 2, 131072)) {
+            return false;
+        }
+        com.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, 10, 10);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        com.closePort();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return com.isOpen();
+    }
+
+    @Override
+    public String getDescription() {
+        return com.getPortDescription();
+    }
+
+    @Override
+    public String getName() {
+        return com.getSystemPortName();
+    }
+
+    @Override
+    public int write(byte[] data, int length) {
+        return com.writeBytes(data, length);
+    }
+
+    @Override
+    public int read(byte[] buffer, int length, int offset) {
+        return com.readBytes(buffer, length, offset);
+    }
+
+    @Override
+    public int bytesAvailable() {
+        return com.bytesAvailable();
+    }
+
+    @Override
+    public void flush() {
+        com.flushIOBuffers();
+    }
+
+    @Override
+    public void setDataListener(Runnable listener) {
+        com.removeDataListener();
+        if (listener != null) {
+            com.addDataListener(new SerialPortDataListener() {
+                @Override
+                public int getListeningEvents() {
+                    return SerialPort.LISTENING_EVENT_DATA_AVAILABLE;
+                }
+
+                @Override
+                public void serialEvent(SerialPortEvent spe) {
+                    listener.run();
+                }
+            });
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.virtual;
+
+/**
+ * Black display that flashes white some time after each click, like the test screen during the input lag test.
+ * The flash starts at the first refresh after the click-to-photon delay has passed
+ *
+ * @author dosse
+ */
+public class ClickToPhotonDisplay extends DisplayModel {
+
+    private final double refreshRate, delay, flashDuration;
+    private double flashStart = -1;
+
+    /**
+     * @param refreshRate refresh rate in Hz
+     * @param delayMs click-to-photon delay (before refresh quantization)
+     * @param flashDurationMs how long the flash lasts
+     */
+    public ClickToPhotonDisplay(double refreshRate, double delayMs, double flashDurationMs) {
+        this.refreshRate = refreshRate;
+        this.delay = delayMs / 1000.0;
+        this.flashDuration = flashDurationMs / 1000.0;
+    }
+
+    @Override
+    public double getLight(double t) {
+        return flashStart >= 0 && t >= flashStart && t < flashStart + flashDuration ? 1 : 0;
+    }
+
+    @Override
+    public void onClick(double t) {
+        flashStart = Math.ceil((t + delay) * refreshRate) / refreshRate;
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.virtual;
+
+/**
+ * Model of what a display shows over time, as seen by the light sensor of a SimulatedDevice
+ *
+ * @author dosse
+ */
+public abstract class DisplayModel {
+
+    /**
+     * Light intensity emitted by the display at time t
+     *
+     * @param t time in seconds since the device was connected, never decreases between calls
+     * @return light intensity, 0=black, 1=white
+     */
+    public abstract double getLight(double t);
+
+    /**
+     * Called when the mouse button is clicked (by the simulated user or by autofire)
+     *
+     * @param t time in seconds since the device was connected
+     */
+    public void onClick(double t) {
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.virtual;
+
+import java.util.Random;
+
+/**
+ * Display alternating between black and white every frame, like the test screen in flicker mode. Frames can randomly be shown twice to simulate stutter
+ *
+ * @author dosse
+ */
+public class FlickerDisplay extends DisplayModel {
+
+    private final double refreshRate, stutterProbability, tau;
+    private final Random rng;
+    private long frame = -1;
+    private boolean white = false;
+    private double lastT = 0, light = 0;
+
+    /**
+     * @param refreshRate refresh rate in Hz
+     * @param stutterProbability probability that a frame is repeated instead of being flipped, 0-1
+     * @param responseTimeMs 10%-90% pixel response time
+     * @param seed random seed, so stutters are reproducible
+     */
+    public FlickerDisplay(double refreshRate, double stutterProbability, double responseTimeMs, long seed) {
+        this.refreshRate = refreshRate;
+        this.stutterProbability = stutterProbability;
+        this.tau = responseTimeMs / 1000.0 / Math.log(9);
+        rng = new Random(seed);
+    }
+
+    @Override
+    public double getLight(double t) {
+        long f = (long) (t * refreshRate);
+        if (frame == -1) {
+            frame = f;
+            lastT = t;
+        }
+        while (frame < f) {
+            frame++;
+            if (rng.nextDouble() >= stutterProbability) {
+                white = !white;
+            }
+        }
+        double target = white ? 1 : 0, dt = t - lastT;
+        light = tau > 0 ? target + (light - target) * Math.exp(-dt / tau) : target;
+        lastT = t;
+        return light;
+    }
+
+}
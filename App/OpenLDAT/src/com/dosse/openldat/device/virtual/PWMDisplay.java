@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.virtual;
+
+/**
+ * Backlight PWM applied on top of another display model
+ *
+ * @author dosse
+ */
+public class PWMDisplay extends DisplayModel {
+
+    private final DisplayModel content;
+    private final double frequency, duty;
+
+    /**
+     * @param content what the display is showing
+     * @param frequency PWM frequency in Hz
+     * @param duty PWM duty cycle, 0-1
+     */
+    public PWMDisplay(DisplayModel content, double frequency, double duty) {
+        this.content = content;
+        this.frequency = frequency;
+        this.duty = duty;
+    }
+
+    @Override
+    public double getLight(double t) {
+        double phase = (t * frequency) % 1.0;
+        return phase < duty ? content.getLight(t) : 0;
+    }
+
+    @Override
+    public void onClick(double t) {
+        content.onClick(t);
+    }
+
+}
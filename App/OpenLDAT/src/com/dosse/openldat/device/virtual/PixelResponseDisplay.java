@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.virtual;
+
+/**
+ * Display that cycles through a list of gray levels, with exponential pixel transitions and optional overdrive overshoot
+ *
+ * @author dosse
+ */
+public class PixelResponseDisplay extends DisplayModel {
+
+    private final double[] levels;
+    private final double holdTime, riseTau, fallTau, overshoot, overshootTau;
+
+    /**
+     * @param levels gray levels to cycle through, 0-1
+     * @param holdTimeMs how long each level is held
+     * @param riseTimeMs 10%-90% response time for dark to light transitions
+     * @param fallTimeMs 10%-90% response time for light to dark transitions
+     * @param overshoot overdrive overshoot as a fraction of the transition (0=no overdrive)
+     * @param overshootTimeMs time from the start of the transition to the peak of the overshoot
+     */
+    public PixelResponseDisplay(double[] levels, double holdTimeMs, double riseTimeMs, double fallTimeMs, double overshoot, double overshootTimeMs) {
+        this.levels = levels;
+        this.holdTime = holdTimeMs / 1000.0;
+        //a first order response goes from 10% to 90% in tau*ln(9)
+        this.riseTau = riseTimeMs / 1000.0 / Math.log(9);
+        this.fallTau = fallTimeMs / 1000.0 / Math.log(9);
+        this.overshoot = overshoot;
+        this.overshootTau = overshootTimeMs / 1000.0;
+    }
+
+    public PixelResponseDisplay(double riseTimeMs, double fallTimeMs) {
+        this(new double[]{0, 1}, 500, riseTimeMs, fallTimeMs, 0, 1);
+    }
+
+    @Override
+    public double getLight(double t) {
+        long step = (long) (t / holdTime);
+        double from = levels[(int) ((step + levels.length - 1) % levels.length)], to = levels[(int) (step % levels.length)], dt = t - step * holdTime;
+        double v = to + (from - to) * Math.exp(-dt / (to > from ? riseTau : fallTau));
+        if (overshoot > 0 && overshootTau > 0) {
+            double x = dt / overshootTau;
+            v += overshoot * (to - from) * x * Math.exp(1 - x);
+        }
+        return v < 0 ? 0 : v > 1 ? 1 : v;
+    }
+
+}
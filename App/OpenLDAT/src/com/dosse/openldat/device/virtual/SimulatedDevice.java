@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.virtual;
+
+/**
+ * Virtual OpenLDAT whose light sensor looks at a DisplayModel, with an optional simulated user clicking the button at regular intervals
+ *
+ * @author dosse
+ */
+public class SimulatedDevice extends VirtualFirmware {
+
+    private final DisplayModel display;
+    private volatile double clickInterval = 0;
+    private double nextClick = -1;
+
+    public SimulatedDevice(DisplayModel display) {
+        this(display, "SIMULATED");
+    }
+
+    public SimulatedDevice(DisplayModel display, String serialNumber) {
+        super(serialNumber);
+        this.display = display;
+    }
+
+    public DisplayModel getDisplay() {
+        return display;
+    }
+
+    /**
+     * Makes the simulated user press the button periodically (only used in button mode without autofire)
+     *
+     * @param clickIntervalMs time between clicks, or 0 to never click
+     */
+    public void setClickInterval(double clickIntervalMs) {
+        clickInterval = clickIntervalMs / 1000.0;
+    }
+
+    @Override
+    protected double getLight(double t) {
+        return display.getLight(t);
+    }
+
+    @Override
+    protected boolean getClick(double t, double dt) {
+        double interval = clickInterval;
+        if (interval <= 0) {
+            return false;
+        }
+        if (nextClick < 0 || nextClick > t + interval) {
+            nextClick = t + interval;
+        }
+        if (t >= nextClick) {
+            nextClick += interval;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void onClick(double t) {
+        display.onClick(t);
+    }
+
+}
@@ -0,0 +1,636 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.virtual;
+
+import com.dosse.openldat.device.Device;
+import com.dosse.openldat.device.transport.LoopbackDevice;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Emulates the firmware of an OpenLDAT Model 1 over a LoopbackTransport. It answers the same commands as the real firmware and streams light sensor data
+ * in the same format and at the same rate as the real device, so the whole acquisition path can be exercised without hardware
+ *
+ * @author dosse
+ */
+public class VirtualFirmware extends LoopbackDevice {
+
+    public static final int LARGE_BUFFER_SIZE = 32, SMALL_BUFFER_SIZE = 21;
+
+    protected static final byte COMMAND_ID = 0x44,
+            COMMAND_IDLE = 0x49,
+            COMMAND_LIGHTSENSOR = 0x4C,
+            COMMAND_SHOT = 0x53,
+            COMMAND_EDGE = 0x45,
+            COMMAND_DEADBAND = 0x5A,
+            COMMAND_RECONFIGURE = 0x52;
+
+    protected static final byte FEATURE_AUTOFIRE = 0b00000001,
+            FEATURE_NOBUFFER = 0b00000010,
+            FEATURE_HIGHSENS1 = 0b00000100,
+            FEATURE_MONITOR = 0b00001000,
+            FEATURE_NOCLICK = 0b00010000,
+            FEATURE_FASTADC = 0b00100000,
+            FEATURE_HIGHSENS2 = 0b01000000,
+            FEATURE_FRAMED = (byte) 0b10000000;
+
+    protected static final int FRAME_SYNC = 0xA5, FRAME_TYPE_LIGHT = 0x01, FRAME_TYPE_LIGHT_CLICK = 0x02, FRAME_TYPE_SHOT = 0x03, FRAME_TYPE_EVENTS = 0x04, FRAME_TYPE_RUNS = 0x05, FRAME_FLAG_RECONFIGURED = 0x40;
+    protected static final int EVENT_CLICK = 1, EVENT_RISE = 2, EVENT_FALL = 3, EVENT_PEAK = 4, MAX_EVENTS = 16;
+    protected static final int SHOT_HISTOGRAM_BINS = 128;
+
+    //sensor gain for each sensitivity level, relative to the lowest one (resistance between sensor- and gnd, see LightSensor.h)
+    protected static final double[] GAIN = {1, 20.6 / 14.3, 41.1 / 14.3, 330.0 / 14.3};
+
+    private static final double AUTOFIRE_PERIOD = 1.048576, AUTOFIRE_DUTY = 64.0 / 1024.0; //timer 4 with /16384 prescaler and TOP=1023
+
+    private final String serialNumber;
+    private final byte[] commands = new byte[256];
+    private int commandsStart = 0, commandsCount = 0;
+    private final Random noise = new Random(0);
+    private volatile double noiseLevel = 0.7;
+    private volatile Thread thread = null;
+    private volatile boolean running = false;
+    private long connectTime = 0;
+    private double lastAutoFire = -1;
+    private int deadband = 0; //as sent by the app: 0=run length encoding disabled, otherwise deadband+1
+
+    public VirtualFirmware() {
+        this("VIRTUAL");
+    }
+
+    public VirtualFirmware(String serialNumber) {
+        this.serialNumber = serialNumber;
+    }
+
+    @Override
+    public String getDescription() {
+        return "OpenLDAT Model 1";
+    }
+
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    @Override
+    protected void onConnected() {
+        synchronized (commands) {
+            commandsStart = 0;
+            commandsCount = 0;
+        }
+        running = true;
+        deadband = 0;
+        connectTime = System.nanoTime();
+        thread = new Thread() {
+            @Override
+            public void run() {
+                firmwareLoop();
+            }
+        };
+        thread.setName("OpenLDAT virtual firmware");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    protected void onDisconnected() {
+        running = false;
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(1000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        thread = null;
+    }
+
+    @Override
+    protected void onDataReceived(byte[] data, int length) {
+        synchronized (commands) {
+            for (int i = 0; i < length && commandsCount < commands.length; i++) {
+                commands[(commandsStart + commandsCount++) % commands.length] = data[i];
+            }
+        }
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    protected boolean isCommandPending() {
+        synchronized (commands) {
+            return commandsCount > 0;
+        }
+    }
+
+    protected int readCommandByte() {
+        synchronized (commands) {
+            if (commandsCount == 0) {
+                return -1;
+            }
+            byte b = commands[commandsStart];
+            commandsStart = (commandsStart + 1) % commands.length;
+            commandsCount--;
+            return b & 0xFF;
+        }
+    }
+
+    /**
+     * @return the next byte received from the app without removing it, or -1 if there isn't one
+     */
+    protected int peekCommandByte() {
+        synchronized (commands) {
+            return commandsCount == 0 ? -1 : commands[commandsStart] & 0xFF;
+        }
+    }
+
+    /**
+     * Waits until at least n bytes have been received from the app
+     *
+     * @return false if the transport was closed in the meantime
+     */
+    protected boolean waitForCommandBytes(int n) {
+        while (running) {
+            synchronized (commands) {
+                if (commandsCount >= n) {
+                    return true;
+                }
+            }
+            LockSupport.parkNanos(10000000L);
+        }
+        return false;
+    }
+
+    protected void print(String s) {
+        byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+        send(b, 0, b.length);
+    }
+
+    protected void println(String s) {
+        print(s + "\r\n");
+    }
+
+    private void firmwareLoop() {
+        while (waitForCommandBytes(2)) {
+            byte cmd = (byte) readCommandByte(), flags = (byte) readCommandByte();
+            onCommand(cmd, flags);
+        }
+    }
+
+    /**
+     * Runs a command, like the loop function of the real firmware
+     */
+    protected void onCommand(byte cmd, byte flags) {
+        switch (cmd) {
+            case COMMAND_IDLE: {
+                print("IDLE\n");
+                break;
+            }
+            case COMMAND_ID: {
+                identify();
+                break;
+            }
+            case COMMAND_LIGHTSENSOR: {
+                lightSensor(flags);
+                break;
+            }
+            case COMMAND_SHOT: {
+                if (waitForCommandBytes(2)) {
+                    shot(flags, readCommandByte() | (readCommandByte() << 8));
+                }
+                break;
+            }
+            case COMMAND_DEADBAND: {
+                deadband = flags & 0xFF;
+                break;
+            }
+            case COMMAND_EDGE: {
+                if (waitForCommandBytes(4)) {
+                    edge(flags, readCommandByte() | (readCommandByte() << 8), readCommandByte() | (readCommandByte() << 8));
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    protected void identify() {
+        println("OpenLDAT Model 1");
+        println("FW: virtual");
+        println("LightSensor: 1");
+        println("LBuffer: " + LARGE_BUFFER_SIZE);
+        println("SBuffer: " + SMALL_BUFFER_SIZE);
+        println("OscilloscopeDebug: 0");
+        println("SerialDebug: 0");
+        println("Prototype: 0");
+        println("IdleAck: 1");
+        println("Protocol: 2");
+        println("Shot: 1");
+        println("Edge: 1");
+        println("RunLength: 1");
+        println("Reconfigure: 1");
+        println("MinAppVer: " + Device.DRIVER_VERSION);
+        println("SerialNo: " + serialNumber);
+        println("");
+    }
+
+    /**
+     * Sets the standard deviation of the noise added to each ADC reading
+     *
+     * @param noiseLevel noise in ADC units (LSB)
+     */
+    public void setNoiseLevel(double noiseLevel) {
+        this.noiseLevel = noiseLevel < 0 ? 0 : noiseLevel;
+    }
+
+    public double getNoiseLevel() {
+        return noiseLevel;
+    }
+
+    /**
+     * Light intensity seen by the sensor at time t since the device was connected
+     *
+     * @param t time in seconds
+     * @return light intensity, 0=black, 1=white at the lowest sensitivity
+     */
+    protected double getLight(double t) {
+        return (t * 60.0) % 1.0 < 0.5 ? 0.1 : 0.9; //60hz square wave
+    }
+
+    /**
+     * Whether the button was pressed at time t since the device was connected (autofire is emulated separately)
+     *
+     * @param t time in seconds
+     * @param dt duration of a sample in seconds
+     * @return true if the button was pressed in this sample
+     */
+    protected boolean getClick(double t, double dt) {
+        return false;
+    }
+
+    /**
+     * Called when a click is sent to the app (by the button or by autofire)
+     *
+     * @param t time in seconds since the device was connected
+     */
+    protected void onClick(double t) {
+    }
+
+    /**
+     * Converts light intensity to what the ADC would read with a certain sensitivity
+     */
+    protected int toADC(double light, int sensitivity) {
+        int v = (int) (light * 500.0 * GAIN[sensitivity] + noise.nextGaussian() * noiseLevel);
+        return v < 0 ? 0 : v > 1023 ? 1023 : v;
+    }
+
+    protected void lightSensor(byte flags) {
+        boolean monitor = (flags & FEATURE_MONITOR) != 0, noBuffer = (flags & FEATURE_NOBUFFER) != 0, fastADC = (flags & FEATURE_FASTADC) != 0, autoFire = (flags & FEATURE_AUTOFIRE) != 0;
+        boolean framed = (flags & FEATURE_FRAMED) != 0 && !noBuffer;
+        int marker = -1;
+        int sensitivity = ((flags & FEATURE_HIGHSENS1) != 0 ? 0b01 : 0) | ((flags & FEATURE_HIGHSENS2) != 0 ? 0b10 : 0);
+        double sampleRate = monitor ? Device.getNominalLightSensorMonitorModeSampleRate(noBuffer, fastADC) : Device.getNominalLightSensorButtonModeSampleRate(noBuffer, fastADC);
+        int samplesPerFrame = noBuffer ? 1 : monitor ? LARGE_BUFFER_SIZE : SMALL_BUFFER_SIZE;
+        int frameSize = framed ? getFrameSize(!monitor, samplesPerFrame) : samplesPerFrame * (monitor ? 2 : 3);
+        int maxFrames = 8192 / frameSize;
+        byte[] out = new byte[maxFrames * frameSize + 1]; //+1 for the marker
+        int[] light = new int[samplesPerFrame], click = new int[samplesPerFrame];
+        int sequence = 0;
+        long framePeriodNanos = (long) (1000000000.0 * samplesPerFrame / sampleRate);
+        long start = System.nanoTime(), produced = 0;
+        double dt = 1.0 / sampleRate, t0 = (start - connectTime) / 1000000000.0;
+        lastAutoFire = -1;
+        while (running) {
+            if (isCommandPending()) {
+                //the framed modes can be reconfigured between two frames, any other command ends the acquisition
+                if (!framed || peekCommandByte() != COMMAND_RECONFIGURE || !waitForCommandBytes(2)) {
+                    break;
+                }
+                readCommandByte();
+                marker = readCommandByte();
+                sensitivity = ((marker & FEATURE_HIGHSENS1) != 0 ? 0b01 : 0) | ((marker & FEATURE_HIGHSENS2) != 0 ? 0b10 : 0);
+                if (!monitor) {
+                    autoFire = (marker & FEATURE_AUTOFIRE) != 0;
+                }
+            }
+            long due = (long) ((System.nanoTime() - start) * sampleRate / 1000000000.0);
+            int frames = (int) ((due - produced) / samplesPerFrame);
+            if (frames <= 0) {
+                LockSupport.parkNanos(framePeriodNanos > 200000 ? framePeriodNanos / 2 : 100000);
+                continue;
+            }
+            if (frames > maxFrames) {
+                frames = maxFrames;
+            }
+            int p = 0;
+            for (int f = 0; f < frames; f++) {
+                for (int i = 0; i < samplesPerFrame; i++) {
+                    double t = t0 + produced * dt;
+                    light[i] = toADC(getLight(t), sensitivity);
+                    if (!monitor) {
+                        click[i] = sampleClick(t, t0, dt, autoFire) ? 1 : 0;
+                    }
+                    produced++;
+                }
+                if (framed) {
+                    int size = monitor && deadband != 0 ? encodeRunsFrame(out, p, sequence, marker, light, samplesPerFrame, deadband - 1) : 0;
+                    if (size == 0) {
+                        size = encodeFrame(out, p, sequence, marker, light, monitor ? null : click, samplesPerFrame);
+                    }
+                    marker = -1;
+                    sequence = (sequence + 1) & 0xFF;
+                    p += size;
+                } else {
+                    for (int i = 0; i < samplesPerFrame; i++) {
+                        out[p + 2 * i] = (byte) (light[i] & 0xFF);
+                        out[p + 2 * i + 1] = (byte) ((light[i] >> 8) & 0xFF);
+                        if (!monitor) {
+                            out[p + samplesPerFrame * 2 + i] = (byte) click[i];
+                        }
+                    }
+                    p += frameSize;
+                }
+            }
+            send(out, 0, p);
+        }
+    }
+
+    /**
+     * Reads the button (or emulates autofire) for the sample at time t
+     *
+     * @param t0 time when the acquisition started, the autofire timer starts with it
+     */
+    private boolean sampleClick(double t, double t0, double dt, boolean autoFire) {
+        boolean c;
+        if (autoFire) {
+            double ta = t - t0, af = Math.floor(ta / AUTOFIRE_PERIOD);
+            c = af != lastAutoFire && ta - af * AUTOFIRE_PERIOD < AUTOFIRE_DUTY * AUTOFIRE_PERIOD;
+            if (c) {
+                lastAutoFire = af;
+            }
+        } else {
+            c = getClick(t, dt);
+        }
+        if (c) {
+            onClick(t);
+        }
+        return c;
+    }
+
+    /**
+     * Watches the light sensor at the unbuffered button mode sample rate and only sends clicks, threshold crossings and the peak level, like lightSensor_edge in the real firmware
+     */
+    protected void edge(byte flags, int riseThreshold, int fallThreshold) {
+        boolean fastADC = (flags & FEATURE_FASTADC) != 0, autoFire = (flags & FEATURE_AUTOFIRE) != 0;
+        int sensitivity = ((flags & FEATURE_HIGHSENS1) != 0 ? 0b01 : 0) | ((flags & FEATURE_HIGHSENS2) != 0 ? 0b10 : 0);
+        double sampleRate = Device.getNominalLightSensorButtonModeSampleRate(true, fastADC);
+        byte[] out = new byte[4 + MAX_EVENTS * 7 + 2];
+        int sequence = 0, count = 0, state = -1, previous = -1, peak = 0;
+        long start = System.nanoTime(), produced = 0, lastReport = 0;
+        double dt = 1.0 / sampleRate, t0 = (start - connectTime) / 1000000000.0;
+        lastAutoFire = -1;
+        while (running && !isCommandPending()) {
+            long due = (long) ((System.nanoTime() - start) * sampleRate / 1000000000.0);
+            if (due <= produced) {
+                LockSupport.parkNanos(1000000);
+                continue;
+            }
+            while (produced < due) {
+                double t = t0 + produced * dt;
+                long us = (long) (produced * 1000000.0 / sampleRate);
+                int light = toADC(getLight(t), sensitivity);
+                boolean click = sampleClick(t, t0, dt, autoFire);
+                switch (state) {
+                    case -1:
+                        if (click && light <= fallThreshold) {
+                            count = addEvent(out, count, EVENT_CLICK, us, light);
+                            state = 0;
+                        }
+                        break;
+                    case 0:
+                        if (click) {
+                            count = addEvent(out, count, EVENT_CLICK, us, light);
+                        }
+                        if (previous < riseThreshold && light >= riseThreshold) {
+                            count = addEvent(out, count, EVENT_RISE, us, light);
+                            state = 1;
+                        }
+                        break;
+                    case 1:
+                        if (click) {
+                            count = addEvent(out, count, EVENT_CLICK, us, light);
+                        }
+                        if (previous > fallThreshold && light <= fallThreshold) {
+                            count = addEvent(out, count, EVENT_FALL, us, light);
+                            state = 0;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                previous = light;
+                if (light > peak) {
+                    peak = light;
+                }
+                if (us - lastReport >= 50000) {
+                    count = addEvent(out, count, EVENT_PEAK, us, peak);
+                    peak = 0;
+                    lastReport = us;
+                }
+                //events are sent as soon as they happen
+                if (count > 0) {
+                    sendEvents(out, sequence, count);
+                    sequence = (sequence + 1) & 0xFF;
+                    count = 0;
+                }
+                produced++;
+            }
+        }
+    }
+
+    private static int addEvent(byte[] out, int count, int kind, long time, int light) {
+        int p = 4 + count * 7;
+        out[p++] = (byte) kind;
+        p = writeU16(out, p, (int) (time & 0xFFFF));
+        p = writeU16(out, p, (int) ((time >> 16) & 0xFFFF));
+        writeU16(out, p, light);
+        return count + 1;
+    }
+
+    private void sendEvents(byte[] out, int sequence, int count) {
+        int p = 0;
+        out[p++] = (byte) FRAME_SYNC;
+        out[p++] = (byte) FRAME_TYPE_EVENTS;
+        out[p++] = (byte) sequence;
+        out[p++] = (byte) count;
+        p += count * 7;
+        int s1 = 0, s2 = 0;
+        for (int i = 1; i < p; i++) {
+            s1 = (s1 + out[i]) & 0xFF;
+            s2 = (s2 + s1) & 0xFF;
+        }
+        out[p++] = (byte) s1;
+        out[p++] = (byte) s2;
+        send(out, 0, p);
+    }
+
+    /**
+     * Takes n samples as fast as the ADC allows and sends their statistics, like lightSensor_shot in the real firmware
+     */
+    protected void shot(byte flags, int n) {
+        boolean fastADC = (flags & FEATURE_FASTADC) != 0;
+        int sensitivity = ((flags & FEATURE_HIGHSENS1) != 0 ? 0b01 : 0) | ((flags & FEATURE_HIGHSENS2) != 0 ? 0b10 : 0);
+        double sampleRate = Device.getNominalLightSensorMonitorModeSampleRate(true, fastADC); //close enough to the speed of the ADC alone
+        long start = System.nanoTime();
+        double t0 = (start - connectTime) / 1000000000.0;
+        int min = 1023, max = 0;
+        long sum = 0;
+        int[] histogram = new int[SHOT_HISTOGRAM_BINS];
+        for (int i = 0; i < n; i++) {
+            int v = toADC(getLight(t0 + i / sampleRate), sensitivity);
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            sum += v;
+            histogram[v >> 3]++;
+        }
+        //the real device takes this long to take the samples
+        long end = start + (long) (1000000000.0 * n / sampleRate);
+        while (running && System.nanoTime() < end) {
+            LockSupport.parkNanos(end - System.nanoTime());
+        }
+        byte[] out = new byte[14 + SHOT_HISTOGRAM_BINS * 2];
+        int p = 0;
+        out[p++] = (byte) FRAME_SYNC;
+        out[p++] = (byte) FRAME_TYPE_SHOT;
+        p = writeU16(out, p, n);
+        p = writeU16(out, p, min);
+        p = writeU16(out, p, max);
+        p = writeU16(out, p, (int) (sum & 0xFFFF));
+        p = writeU16(out, p, (int) (sum >> 16));
+        for (int h : histogram) {
+            p = writeU16(out, p, h);
+        }
+        int s1 = 0, s2 = 0;
+        for (int i = 1; i < p; i++) {
+            s1 = (s1 + out[i]) & 0xFF;
+            s2 = (s2 + s1) & 0xFF;
+        }
+        out[p++] = (byte) s1;
+        out[p++] = (byte) s2;
+        send(out, 0, p);
+    }
+
+    /**
+     * Writes a run length frame if it's smaller than a regular frame, like lightSensor_sendRunsFrame in the real firmware
+     *
+     * @param marker new flags if this is the first frame after a reconfiguration, otherwise -1
+     * @param deadband max difference between the first sample of a run and the others
+     * @return size of the frame, or 0 if nothing was written because a regular frame would be smaller
+     */
+    protected static int encodeRunsFrame(byte[] out, int offset, int sequence, int marker, int[] light, int samples, int deadband) {
+        int maxRuns = (getFrameSize(false, samples) - 6) / 3;
+        int p = offset + (marker == -1 ? 4 : 5), runs = 0;
+        for (int i = 0; i < samples;) {
+            int v = light[i], n = 1;
+            while (i + n < samples && Math.abs(light[i + n] - v) <= deadband && n < 255) {
+                n++;
+            }
+            if (++runs > maxRuns) {
+                return 0;
+            }
+            p = writeU16(out, p, v);
+            out[p++] = (byte) n;
+            i += n;
+        }
+        out[offset] = (byte) FRAME_SYNC;
+        out[offset + 1] = (byte) (marker == -1 ? FRAME_TYPE_RUNS : FRAME_TYPE_RUNS | FRAME_FLAG_RECONFIGURED);
+        out[offset + 2] = (byte) sequence;
+        out[offset + 3] = (byte) runs;
+        if (marker != -1) {
+            out[offset + 4] = (byte) marker;
+        }
+        int s1 = 0, s2 = 0;
+        for (int i = offset + 1; i < p; i++) {
+            s1 = (s1 + out[i]) & 0xFF;
+            s2 = (s2 + s1) & 0xFF;
+        }
+        out[p++] = (byte) s1;
+        out[p++] = (byte) s2;
+        return p - offset;
+    }
+
+    private static int writeU16(byte[] out, int p, int v) {
+        out[p++] = (byte) (v & 0xFF);
+        out[p++] = (byte) ((v >> 8) & 0xFF);
+        return p;
+    }
+
+    protected static int getFrameSize(boolean hasClick, int samples) {
+        return 4 + ((samples + 3) / 4) * 5 + (hasClick ? (samples + 7) / 8 : 0) + 2;
+    }
+
+    /**
+     * Writes a frame of the framed stream (protocol v2), like lightSensor_sendFrame in the real firmware
+     *
+     * @param marker new flags if this is the first frame after a reconfiguration, otherwise -1
+     * @param click click samples, or null for a light only frame
+     * @return size of the frame
+     */
+    protected static int encodeFrame(byte[] out, int offset, int sequence, int marker, int[] light, int[] click, int samples) {
+        int p = offset;
+        out[p++] = (byte) FRAME_SYNC;
+        out[p++] = (byte) ((click == null ? FRAME_TYPE_LIGHT : FRAME_TYPE_LIGHT_CLICK) | (marker == -1 ? 0 : FRAME_FLAG_RECONFIGURED));
+        out[p++] = (byte) sequence;
+        out[p++] = (byte) samples;
+        if (marker != -1) {
+            out[p++] = (byte) marker;
+        }
+        for (int i = 0; i < samples; i += 4) {
+            int hi = 0;
+            for (int j = 0; j < 4; j++) {
+                int v = i + j < samples ? light[i + j] : 0;
+                out[p++] = (byte) (v & 0xFF);
+                hi |= ((v >> 8) & 0b11) << (2 * j);
+            }
+            out[p++] = (byte) hi;
+        }
+        if (click != null) {
+            for (int i = 0; i < samples; i += 8) {
+                int b = 0;
+                for (int j = 0; j < 8 && i + j < samples; j++) {
+                    if (click[i + j] != 0) {
+                        b |= 1 << j;
+                    }
+                }
+                out[p++] = (byte) b;
+            }
+        }
+        int s1 = 0, s2 = 0;
+        for (int i = offset + 1; i < p; i++) {
+            s1 = (s1 + out[i]) & 0xFF;
+            s2 = (s2 + s1) & 0xFF;
+        }
+        out[p++] = (byte) s1;
+        out[p++] = (byte) s2;
+        return p - offset;
+    }
+
+}
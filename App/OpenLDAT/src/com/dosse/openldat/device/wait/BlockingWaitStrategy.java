@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.wait;
+
+/**
+ * Blocks until the serial port reports that new data is available. Lowest CPU usage, latency is as good as the serial driver's event notification.
+ * A short timeout is used as a safety net in case an event is missed
+ *
+ * @author dosse
+ */
+public class BlockingWaitStrategy extends WaitStrategy {
+
+    private final long timeoutMs;
+    private boolean dataAvailable = false;
+
+    public BlockingWaitStrategy() {
+        this(10);
+    }
+
+    public BlockingWaitStrategy(long timeoutMs) {
+        this.timeoutMs = timeoutMs < 1 ? 1 : timeoutMs;
+    }
+
+    @Override
+    public void waitForData(int idleCount) {
+        synchronized (this) {
+            if (!dataAvailable) {
+                try {
+                    wait(timeoutMs);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            dataAvailable = false;
+        }
+    }
+
+    @Override
+    public void signal() {
+        synchronized (this) {
+            dataAvailable = true;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public boolean usesDataEvents() {
+        return true;
+    }
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.wait;
+
+import com.dosse.openldat.Utils;
+
+/**
+ * Polls the serial port every millisecond. Low CPU usage, but latency and jitter depend on the OS timer (1-2ms on Linux)
+ *
+ * @author dosse
+ */
+public class SleepingWaitStrategy extends WaitStrategy {
+
+    @Override
+    public void waitForData(int idleCount) {
+        if (Utils.sleep(1)) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.wait;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spins for a while after the last frame (frames usually arrive in bursts), then yields, then parks until the serial port reports new data.
+ * Good latency with moderate CPU usage
+ *
+ * @author dosse
+ */
+public class SpinThenParkWaitStrategy extends WaitStrategy {
+
+    private final int spinIterations, yieldIterations;
+    private final long maxParkNanos;
+    private volatile Thread waiter = null;
+
+    public SpinThenParkWaitStrategy() {
+        this(10000, 100, 10000000L);
+    }
+
+    public SpinThenParkWaitStrategy(int spinIterations, int yieldIterations, long maxParkNanos) {
+        this.spinIterations = spinIterations < 0 ? 0 : spinIterations;
+        this.yieldIterations = yieldIterations < 0 ? 0 : yieldIterations;
+        this.maxParkNanos = maxParkNanos < 1000 ? 1000 : maxParkNanos;
+    }
+
+    @Override
+    public void waitForData(int idleCount) {
+        if (idleCount < spinIterations) {
+            Thread.onSpinWait();
+        } else if (idleCount < spinIterations + yieldIterations) {
+            Thread.yield();
+        } else {
+            waiter = Thread.currentThread();
+            LockSupport.parkNanos(this, maxParkNanos);
+            waiter = null;
+        }
+    }
+
+    @Override
+    public void signal() {
+        Thread t = waiter;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    @Override
+    public boolean usesDataEvents() {
+        return true;
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.device.wait;
+
+/**
+ * Decides what the acquisition thread of a Device does while it waits for the next frame to arrive.
+ * Different strategies trade CPU usage for latency.
+ *
+ * @author dosse
+ */
+public abstract class WaitStrategy {
+
+    /**
+     * Called by the acquisition thread when there's not enough data to decode a frame
+     *
+     * @param idleCount number of consecutive calls to this method since data was last received
+     */
+    public abstract void waitForData(int idleCount);
+
+    /**
+     * Called from the serial port event thread when new data is available. Only called if usesDataEvents returns true
+     */
+    public void signal() {
+    }
+
+    /**
+     * @return true if this strategy needs data available events from the serial port to work properly
+     */
+    public boolean usesDataEvents() {
+        return false;
+    }
+
+}
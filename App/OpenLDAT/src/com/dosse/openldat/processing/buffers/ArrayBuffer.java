@@ -22,7 +22,7 @@ import java.util.Arrays;
  *
  * @author dosse
  */
-public class ArrayBuffer implements IBuffer{
+public class ArrayBuffer implements IViewableBuffer{
     
     private final int[] data;
 
@@ -50,6 +50,25 @@ public class ArrayBuffer implements IBuffer{
         return data;
     }
 
+    @Override
+    public void copyInto(int[] dst) {
+        System.arraycopy(data, 0, dst, 0, data.length);
+    }
+
+    @Override
+    public int get(int i) {
+        return data[i];
+    }
+
+    @Override
+    public BufferView getView(BufferView view) {
+        if (view == null) {
+            view = new BufferView();
+        }
+        view.set(data, 0, data.length, 0);
+        return view;
+    }
+
     @Override
     public int getSize() {
         return data.length;
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.processing.buffers;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Circular buffer for 0/1 data like the click channel, packed as one bit per sample (32 times smaller than CircularBuffer).
+ * Any value other than 0 is stored as 1. Set samples can be found with nextSetBit and copySetBits, which skip 64 samples at a time, so sparse clicks are found almost instantly.
+ * Like SingleWriterCircularBuffer, it's meant for one writer thread and any number of reader threads: the writer never takes a lock and readers retry if
+ * the writer was active while they were reading. Calling add from more than one thread at a time is not supported.
+ *
+ * @author dosse
+ */
+public class BitCircularBuffer implements IBuffer {
+
+    private static final int SPINS_BEFORE_YIELD = 16;
+
+    private final long[] words;
+    private final int size;
+    private volatile int pos = 0;
+    private volatile long added = 0;
+    //odd while the writer is modifying the buffer
+    private volatile long sequence = 0;
+
+    public BitCircularBuffer(int size) {
+        this.size = size;
+        words = new long[(size + 63) >>> 6];
+    }
+
+    private void beginWrite() {
+        sequence++;
+        //the data must not become visible before the sequence is odd
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        sequence++;
+    }
+
+    private void set(int i, boolean val) {
+        if (val) {
+            words[i >>> 6] |= 1L << i;
+        } else {
+            words[i >>> 6] &= ~(1L << i);
+        }
+    }
+
+    private boolean isSet(int i) {
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    @Override
+    public void add(int val) {
+        beginWrite();
+        int p = pos;
+        set(p, val != 0);
+        pos = p + 1 == size ? 0 : p + 1;
+        added++;
+        endWrite();
+    }
+
+    @Override
+    public void add(int[] data) {
+        beginWrite();
+        int p = pos, from = data.length > size ? data.length - size : 0;
+        for (int i = from; i < data.length; i++) {
+            set(p, data[i] != 0);
+            if (++p == size) {
+                p = 0;
+            }
+        }
+        pos = p;
+        added += data.length;
+        endWrite();
+    }
+
+    @Override
+    public int[] getData() {
+        int[] ret = new int[size];
+        copyInto(ret);
+        return ret;
+    }
+
+    @Override
+    public int[] getDataUnsafe() {
+        //there's no int[] to return, so we use the regular copy instead
+        return getData();
+    }
+
+    @Override
+    public void copyInto(int[] dst) {
+        for (int attempt = 0;; attempt++) {
+            long s = sequence;
+            if ((s & 1) == 0) {
+                for (int i = 0, p = pos; i < size; i++) {
+                    dst[i] = isSet(p) ? 1 : 0;
+                    if (++p == size) {
+                        p = 0;
+                    }
+                }
+                //the copy must be complete before the sequence is checked again
+                VarHandle.loadLoadFence();
+                if (sequence == s) {
+                    return;
+                }
+            }
+            backoff(attempt);
+        }
+    }
+
+    @Override
+    public int get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        }
+        for (int attempt = 0;; attempt++) {
+            long s = sequence;
+            if ((s & 1) == 0) {
+                int p = pos + i;
+                int ret = isSet(p < size ? p : p - size) ? 1 : 0;
+                VarHandle.loadLoadFence();
+                if (sequence == s) {
+                    return ret;
+                }
+            }
+            backoff(attempt);
+        }
+    }
+
+    /**
+     * @return first set bit in words between from (inclusive) and to (exclusive), or -1 if there is none
+     */
+    private int nextSetPhysical(int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int w = from >>> 6, last = (to - 1) >>> 6;
+        long word = words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                int r = (w << 6) + Long.numberOfTrailingZeros(word);
+                return r < to ? r : -1;
+            }
+            if (++w > last) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    /**
+     * Same as nextSetBit, but without checking the sequence
+     *
+     * @param p position of the oldest sample in words
+     */
+    private int nextSetBit(int p, int fromIndex) {
+        //the oldest samples are at the end of the array, from p onwards, followed by the ones at the start
+        int r;
+        if (fromIndex < size - p) {
+            r = nextSetPhysical(p + fromIndex, size);
+            if (r != -1) {
+                return r - p;
+            }
+            r = nextSetPhysical(0, p);
+        } else {
+            r = nextSetPhysical(fromIndex - (size - p), p);
+        }
+        return r == -1 ? -1 : r + size - p;
+    }
+
+    /**
+     * @param fromIndex index relative to the oldest sample
+     * @return index of the first sample set to 1 at or after fromIndex, relative to the oldest sample, or -1 if there is none
+     */
+    public int nextSetBit(int fromIndex) {
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        }
+        if (fromIndex >= size) {
+            return -1;
+        }
+        for (int attempt = 0;; attempt++) {
+            long s = sequence;
+            if ((s & 1) == 0) {
+                int ret = nextSetBit(pos, fromIndex);
+                VarHandle.loadLoadFence();
+                if (sequence == s) {
+                    return ret;
+                }
+            }
+            backoff(attempt);
+        }
+    }
+
+    /**
+     * Finds all the samples set to 1 in one consistent snapshot of the buffer, which is what a chart needs to draw them.
+     * Calling nextSetBit in a loop instead may mix samples from before and after a write.
+     *
+     * @param dst array where the indexes of the set samples are stored, relative to the oldest sample. If it's shorter than the buffer, only the first dst.length are stored
+     * @return number of indexes stored in dst
+     */
+    public int copySetBits(int[] dst) {
+        for (int attempt = 0;; attempt++) {
+            long s = sequence;
+            if ((s & 1) == 0) {
+                int p = pos, n = 0;
+                for (int i = nextSetBit(p, 0); i != -1 && n < dst.length; i = i + 1 < size ? nextSetBit(p, i + 1) : -1) {
+                    dst[n++] = i;
+                }
+                VarHandle.loadLoadFence();
+                if (sequence == s) {
+                    return n;
+                }
+            }
+            backoff(attempt);
+        }
+    }
+
+    private static void backoff(int attempt) {
+        if (attempt < SPINS_BEFORE_YIELD) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean isFilled() {
+        return added >= size;
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.processing.buffers;
+
+/**
+ * Read only view of the storage of a buffer, made of two segments of the same array: the head, which holds the oldest samples, and the tail, which always starts at index 0.
+ * For non circular buffers the tail is empty. Views are reusable, so repeatedly looking at a buffer doesn't create garbage
+ *
+ * @author dosse
+ */
+public class BufferView {
+
+    private int[] array;
+    private int headOffset, headLength, tailLength;
+
+    public void set(int[] array, int headOffset, int headLength, int tailLength) {
+        this.array = array;
+        this.headOffset = headOffset;
+        this.headLength = headLength;
+        this.tailLength = tailLength;
+    }
+
+    /**
+     * @return the underlying array, which must not be modified
+     */
+    public int[] getArray() {
+        return array;
+    }
+
+    public int getHeadOffset() {
+        return headOffset;
+    }
+
+    public int getHeadLength() {
+        return headLength;
+    }
+
+    public int getTailLength() {
+        return tailLength;
+    }
+
+    public int getLength() {
+        return headLength + tailLength;
+    }
+
+    /**
+     * @param i index relative to the oldest sample
+     */
+    public int get(int i) {
+        if (i < 0 || i >= headLength + tailLength) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + (headLength + tailLength));
+        }
+        return i < headLength ? array[headOffset + i] : array[i - headLength];
+    }
+
+    public void copyInto(int[] dst) {
+        System.arraycopy(array, headOffset, dst, 0, headLength);
+        System.arraycopy(array, 0, dst, headLength, tailLength);
+    }
+
+}
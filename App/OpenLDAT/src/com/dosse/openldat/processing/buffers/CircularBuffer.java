@@ -16,17 +16,15 @@
  */
 package com.dosse.openldat.processing.buffers;
 
-import java.util.Arrays;
-
 /**
  *
  * @author dosse
  */
-public class CircularBuffer implements IBuffer {
+public class CircularBuffer implements IViewableBuffer {
 
     private final int[] buffer;
-    private int pos = 0;
-    private long added = 0;
+    private volatile int pos = 0;
+    private volatile long added = 0;
 
     public CircularBuffer(int size) {
         buffer = new int[size];
@@ -63,16 +61,36 @@ public class CircularBuffer implements IBuffer {
 
     @Override
     public int[] getData() {
-        synchronized(this){
-            if (pos != 0) {
-                int[] ret = new int[buffer.length];
-                System.arraycopy(buffer, pos, ret, 0, buffer.length - pos);
-                System.arraycopy(buffer, 0, ret, buffer.length - pos, pos);
-                return ret;
-            } else {
-                return Arrays.copyOf(buffer, buffer.length);
-            }
+        int[] ret = new int[buffer.length];
+        copyInto(ret);
+        return ret;
+    }
+
+    @Override
+    public void copyInto(int[] dst) {
+        synchronized (this) {
+            System.arraycopy(buffer, pos, dst, 0, buffer.length - pos);
+            System.arraycopy(buffer, 0, dst, buffer.length - pos, pos);
+        }
+    }
+
+    @Override
+    public int get(int i) {
+        if (i < 0 || i >= buffer.length) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + buffer.length);
+        }
+        int p = pos + i;
+        return buffer[p < buffer.length ? p : p - buffer.length];
+    }
+
+    @Override
+    public BufferView getView(BufferView view) {
+        if (view == null) {
+            view = new BufferView();
         }
+        int p = pos;
+        view.set(buffer, p, buffer.length - p, p);
+        return view;
     }
 
     @Override
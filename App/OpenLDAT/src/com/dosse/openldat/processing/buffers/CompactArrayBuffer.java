@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.processing.buffers;
+
+/**
+ * Constant buffer backed by unsigned 16 bit values, see CompactCircularBuffer
+ *
+ * @author dosse
+ */
+public class CompactArrayBuffer implements IBuffer {
+
+    private final char[] data;
+
+    public CompactArrayBuffer(char[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Makes a compact copy of data, values are clamped to 0-65535
+     */
+    public CompactArrayBuffer(int[] data) {
+        this.data = new char[data.length];
+        for (int i = 0; i < data.length; i++) {
+            this.data[i] = CompactCircularBuffer.compact(data[i]);
+        }
+    }
+
+    @Override
+    public void add(int val) {
+        throw new UnsupportedOperationException("Constant buffers cannot be altered");
+    }
+
+    @Override
+    public void add(int[] data) {
+        throw new UnsupportedOperationException("Constant buffers cannot be altered");
+    }
+
+    @Override
+    public int[] getData() {
+        int[] ret = new int[data.length];
+        copyInto(ret);
+        return ret;
+    }
+
+    @Override
+    public int[] getDataUnsafe() {
+        //there's no int[] to return, so we use the regular copy instead
+        return getData();
+    }
+
+    @Override
+    public void copyInto(int[] dst) {
+        for (int i = 0; i < data.length; i++) {
+            dst[i] = data[i];
+        }
+    }
+
+    @Override
+    public int get(int i) {
+        return data[i];
+    }
+
+    public char[] getInternalBuffer() {
+        return data;
+    }
+
+    @Override
+    public int getSize() {
+        return data.length;
+    }
+
+    @Override
+    public boolean isFilled() {
+        return true;
+    }
+
+}
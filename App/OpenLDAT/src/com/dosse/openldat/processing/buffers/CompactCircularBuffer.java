@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.processing.buffers;
+
+/**
+ * Circular buffer that stores samples as unsigned 16 bit values, using half the memory of CircularBuffer.
+ * Values are clamped to 0-65535, which is plenty for light and click data. Since the storage isn't an int[], it can't be viewed without copying (see IViewableBuffer)
+ *
+ * @author dosse
+ */
+public class CompactCircularBuffer implements IBuffer {
+
+    private final char[] buffer;
+    private volatile int pos = 0;
+    private volatile long added = 0;
+
+    public CompactCircularBuffer(int size) {
+        buffer = new char[size];
+    }
+
+    /**
+     * @return val clamped to the range of a compact sample
+     */
+    public static char compact(int val) {
+        return (char) (val < 0 ? 0 : val > Character.MAX_VALUE ? Character.MAX_VALUE : val);
+    }
+
+    @Override
+    public void add(int val) {
+        synchronized (this) {
+            buffer[pos] = compact(val);
+            pos = (pos + 1) % buffer.length;
+            added++;
+        }
+    }
+
+    @Override
+    public void add(int[] data) {
+        synchronized (this) {
+            int p = pos, from = data.length > buffer.length ? data.length - buffer.length : 0;
+            for (int i = from; i < data.length; i++) {
+                buffer[p] = compact(data[i]);
+                if (++p == buffer.length) {
+                    p = 0;
+                }
+            }
+            pos = p;
+            added += data.length;
+        }
+    }
+
+    public void add(char[] data) {
+        synchronized (this) {
+            if (data.length < buffer.length) {
+                if (pos + data.length < buffer.length) {
+                    System.arraycopy(data, 0, buffer, pos, data.length);
+                    pos = pos + data.length;
+                } else {
+                    System.arraycopy(data, 0, buffer, pos, buffer.length - pos);
+                    System.arraycopy(data, buffer.length - pos, buffer, 0, data.length - buffer.length + pos);
+                    pos = (data.length - buffer.length + pos) % buffer.length;
+                }
+            } else {
+                System.arraycopy(data, data.length - buffer.length, buffer, 0, buffer.length);
+                pos = 0;
+            }
+            added += data.length;
+        }
+    }
+
+    @Override
+    public int[] getData() {
+        int[] ret = new int[buffer.length];
+        copyInto(ret);
+        return ret;
+    }
+
+    @Override
+    public int[] getDataUnsafe() {
+        //this operation is not supported on circular buffers so we use the regular copy instead
+        return getData();
+    }
+
+    @Override
+    public void copyInto(int[] dst) {
+        synchronized (this) {
+            for (int i = 0, p = pos; i < buffer.length; i++) {
+                dst[i] = buffer[p];
+                if (++p == buffer.length) {
+                    p = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as copyInto(int[]) but without widening the samples
+     */
+    public void copyInto(char[] dst) {
+        synchronized (this) {
+            System.arraycopy(buffer, pos, dst, 0, buffer.length - pos);
+            System.arraycopy(buffer, 0, dst, buffer.length - pos, pos);
+        }
+    }
+
+    @Override
+    public int get(int i) {
+        if (i < 0 || i >= buffer.length) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + buffer.length);
+        }
+        int p = pos + i;
+        return buffer[p < buffer.length ? p : p - buffer.length];
+    }
+
+    public char[] getInternalBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public int getSize() {
+        return buffer.length;
+    }
+
+    @Override
+    public boolean isFilled() {
+        return added >= buffer.length;
+    }
+
+}
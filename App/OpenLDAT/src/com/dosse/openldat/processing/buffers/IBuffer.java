@@ -25,6 +25,16 @@ public interface IBuffer {
     public void add(int[] data);
     public int[] getData();
     public int[] getDataUnsafe();
+    /**
+     * Copies the contents of the buffer, oldest sample first, into dst without allocating anything
+     *
+     * @param dst array of at least getSize() elements
+     */
+    public void copyInto(int[] dst);
+    /**
+     * @param i index relative to the oldest sample in the buffer
+     */
+    public int get(int i);
     public int getSize();
     public boolean isFilled();
 }
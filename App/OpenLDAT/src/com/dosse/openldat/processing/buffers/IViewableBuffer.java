@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.processing.buffers;
+
+/**
+ * A buffer whose samples are stored in an int[], so that they can be looked at without copying them
+ *
+ * @author dosse
+ */
+public interface IViewableBuffer extends IBuffer {
+    /**
+     * Points view at the buffer's storage without copying it. The view is not a snapshot: if the buffer is written while the view is used, it will see the new data
+     *
+     * @param view view to reuse, or null to create a new one
+     * @return view
+     */
+    public BufferView getView(BufferView view);
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.processing.buffers;
+
+import com.dosse.openldat.Utils;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+
+/**
+ * Circular buffer stored outside of the Java heap, for very long captures. The garbage collector never scans or moves the data, so a capture of
+ * millions of samples doesn't cause long GC pauses in the middle of a measurement. Samples are stored as unsigned 16 bit values like in CompactCircularBuffer,
+ * in direct buffers of SEGMENT_SIZE samples each.
+ * The memory is only returned to the system when release is called (or, if it's never called, when the buffer is garbage collected)
+ *
+ * @author dosse
+ */
+public class OffHeapCircularBuffer implements IBuffer {
+
+    public static final int SEGMENT_SIZE = 1 << 20; //samples
+    private static final int SEGMENT_SHIFT = 20, SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final ByteBuffer[] memory;
+    private final CharBuffer[] segments;
+    private final int size;
+    private volatile int pos = 0;
+    private volatile long added = 0;
+    private volatile boolean released = false;
+
+    public OffHeapCircularBuffer(int size) {
+        this.size = size;
+        int n = (int) (((long) size + SEGMENT_SIZE - 1) >> SEGMENT_SHIFT);
+        memory = new ByteBuffer[n];
+        segments = new CharBuffer[n];
+        for (int i = 0; i < n; i++) {
+            int s = Math.min(SEGMENT_SIZE, size - i * SEGMENT_SIZE);
+            memory[i] = ByteBuffer.allocateDirect(s * 2).order(ByteOrder.nativeOrder());
+            segments[i] = memory[i].asCharBuffer();
+        }
+    }
+
+    private void checkReleased() {
+        if (released) {
+            throw new IllegalStateException("Buffer released");
+        }
+    }
+
+    private char read(int i) {
+        return segments[i >>> SEGMENT_SHIFT].get(i & SEGMENT_MASK);
+    }
+
+    private void write(int i, char val) {
+        segments[i >>> SEGMENT_SHIFT].put(i & SEGMENT_MASK, val);
+    }
+
+    @Override
+    public void add(int val) {
+        synchronized (this) {
+            checkReleased();
+            write(pos, CompactCircularBuffer.compact(val));
+            pos = (pos + 1) % size;
+            added++;
+        }
+    }
+
+    @Override
+    public void add(int[] data) {
+        synchronized (this) {
+            checkReleased();
+            int p = pos, from = data.length > size ? data.length - size : 0;
+            for (int i = from; i < data.length; i++) {
+                write(p, CompactCircularBuffer.compact(data[i]));
+                if (++p == size) {
+                    p = 0;
+                }
+            }
+            pos = p;
+            added += data.length;
+        }
+    }
+
+    public void add(char[] data) {
+        synchronized (this) {
+            checkReleased();
+            int p = pos, from = data.length > size ? data.length - size : 0;
+            for (int i = from; i < data.length; i++) {
+                write(p, data[i]);
+                if (++p == size) {
+                    p = 0;
+                }
+            }
+            pos = p;
+            added += data.length;
+        }
+    }
+
+    @Override
+    public int[] getData() {
+        int[] ret = new int[size];
+        copyInto(ret);
+        return ret;
+    }
+
+    @Override
+    public int[] getDataUnsafe() {
+        //the data isn't in the heap, so we use the regular copy instead
+        return getData();
+    }
+
+    @Override
+    public void copyInto(int[] dst) {
+        synchronized (this) {
+            checkReleased();
+            for (int i = 0, p = pos; i < size; i++) {
+                dst[i] = read(p);
+                if (++p == size) {
+                    p = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as copyInto(int[]) but without widening the samples
+     */
+    public void copyInto(char[] dst) {
+        synchronized (this) {
+            checkReleased();
+            for (int i = 0, p = pos; i < size; i++) {
+                dst[i] = read(p);
+                if (++p == size) {
+                    p = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies part of the buffer into dst, so that it can be processed a window at a time without copying all of it into the heap
+     *
+     * @param from index of the first sample to copy, relative to the oldest sample in the buffer
+     */
+    public void copyRange(int from, int[] dst, int offset, int length) {
+        if (from < 0 || length < 0 || from + length > size) {
+            throw new IndexOutOfBoundsException("Range " + from + "-" + (from + length) + " out of bounds for length " + size);
+        }
+        synchronized (this) {
+            checkReleased();
+            int p = pos + from;
+            if (p >= size) {
+                p -= size;
+            }
+            for (int i = 0; i < length; i++) {
+                dst[offset + i] = read(p);
+                if (++p == size) {
+                    p = 0;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        }
+        synchronized (this) {
+            checkReleased();
+            int p = pos + i;
+            return read(p < size ? p : p - size);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean isFilled() {
+        return added >= size;
+    }
+
+    /**
+     * Frees the memory used by the buffer. After this, any attempt to read or write it throws an IllegalStateException
+     */
+    public void release() {
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            released = true;
+            for (int i = 0; i < memory.length; i++) {
+                segments[i] = null;
+                Utils.releaseDirectBuffer(memory[i]);
+                memory[i] = null;
+            }
+        }
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+}
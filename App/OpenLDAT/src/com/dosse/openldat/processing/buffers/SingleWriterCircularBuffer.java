@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.processing.buffers;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Circular buffer for one writer thread and any number of reader threads.
+ * The writer never takes a lock, so the acquisition thread is never held up by a chart that is painting. Readers get a consistent snapshot
+ * by checking a sequence counter before and after copying the data, and retrying if the writer was active in the meantime.
+ * Calling add from more than one thread at a time is not supported.
+ *
+ * @author dosse
+ */
+public class SingleWriterCircularBuffer implements IViewableBuffer {
+
+    private static final int SPINS_BEFORE_YIELD = 16;
+
+    private final int[] buffer;
+    private volatile int pos = 0;
+    private volatile long added = 0;
+    //odd while the writer is modifying the buffer
+    private volatile long sequence = 0;
+
+    public SingleWriterCircularBuffer(int size) {
+        buffer = new int[size];
+    }
+
+    private void beginWrite() {
+        sequence++;
+        //the data must not become visible before the sequence is odd
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        sequence++;
+    }
+
+    @Override
+    public void add(int val) {
+        beginWrite();
+        int p = pos;
+        buffer[p] = val;
+        pos = (p + 1) % buffer.length;
+        added++;
+        endWrite();
+    }
+
+    @Override
+    public void add(int[] data) {
+        beginWrite();
+        int p = pos;
+        if (data.length < buffer.length) {
+            if (p + data.length < buffer.length) {
+                System.arraycopy(data, 0, buffer, p, data.length);
+                pos = p + data.length;
+            } else {
+                System.arraycopy(data, 0, buffer, p, buffer.length - p);
+                System.arraycopy(data, buffer.length - p, buffer, 0, data.length - buffer.length + p);
+                pos = (data.length - buffer.length + p) % buffer.length;
+            }
+        } else {
+            System.arraycopy(data, data.length - buffer.length, buffer, 0, buffer.length);
+            pos = 0;
+        }
+        added += data.length;
+        endWrite();
+    }
+
+    @Override
+    public int[] getData() {
+        int[] ret = new int[buffer.length];
+        copyInto(ret);
+        return ret;
+    }
+
+    @Override
+    public void copyInto(int[] dst) {
+        for (int attempt = 0;; attempt++) {
+            long s = sequence;
+            if ((s & 1) == 0) {
+                int p = pos;
+                System.arraycopy(buffer, p, dst, 0, buffer.length - p);
+                System.arraycopy(buffer, 0, dst, buffer.length - p, p);
+                //the copy must be complete before the sequence is checked again
+                VarHandle.loadLoadFence();
+                if (sequence == s) {
+                    return;
+                }
+            }
+            backoff(attempt);
+        }
+    }
+
+    @Override
+    public int get(int i) {
+        if (i < 0 || i >= buffer.length) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + buffer.length);
+        }
+        for (int attempt = 0;; attempt++) {
+            long s = sequence;
+            if ((s & 1) == 0) {
+                int p = pos + i;
+                int ret = buffer[p < buffer.length ? p : p - buffer.length];
+                VarHandle.loadLoadFence();
+                if (sequence == s) {
+                    return ret;
+                }
+            }
+            backoff(attempt);
+        }
+    }
+
+    @Override
+    public BufferView getView(BufferView view) {
+        if (view == null) {
+            view = new BufferView();
+        }
+        int p = pos;
+        view.set(buffer, p, buffer.length - p, p);
+        return view;
+    }
+
+    private static void backoff(int attempt) {
+        if (attempt < SPINS_BEFORE_YIELD) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public int[] getDataUnsafe() {
+        //this operation is not supported on circular buffers so we use the regular copy instead
+        return getData();
+    }
+
+    @Override
+    public int getSize() {
+        return buffer.length;
+    }
+
+    @Override
+    public boolean isFilled() {
+        return added >= buffer.length;
+    }
+
+    /**
+     * @return total number of samples added since the buffer was created
+     */
+    public long getAdded() {
+        return added;
+    }
+
+}
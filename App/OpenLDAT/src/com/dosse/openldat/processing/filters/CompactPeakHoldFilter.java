@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.processing.filters;
+
+import com.dosse.openldat.processing.buffers.CompactCircularBuffer;
+
+/**
+ * Same as PeakHoldFilter, stored as 16 bit values
+ *
+ * @author dosse
+ */
+public class CompactPeakHoldFilter extends CompactCircularBuffer {
+
+    private CompactCircularBuffer window;
+
+    public CompactPeakHoldFilter(int size, int peakWindowSize) {
+        super(size);
+        window = new CompactCircularBuffer(peakWindowSize);
+    }
+
+    private char hold(int val) {
+        window.add(val);
+        char max = 0;
+        for (char d : window.getInternalBuffer()) {
+            if (d > max) {
+                max = d;
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public void add(int[] data) {
+        char[] processed = new char[data.length];
+        synchronized (this) {
+            for (int i = 0; i < data.length; i++) {
+                processed[i] = hold(data[i]);
+            }
+            super.add(processed);
+        }
+    }
+
+    @Override
+    public void add(char[] data) {
+        char[] processed = new char[data.length];
+        synchronized (this) {
+            for (int i = 0; i < data.length; i++) {
+                processed[i] = hold(data[i]);
+            }
+            super.add(processed);
+        }
+    }
+
+    @Override
+    public void add(int val) {
+        synchronized (this) {
+            super.add(hold(val));
+        }
+    }
+
+}
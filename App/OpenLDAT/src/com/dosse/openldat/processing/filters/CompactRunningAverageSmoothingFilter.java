@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.processing.filters;
+
+import com.dosse.openldat.processing.buffers.CompactCircularBuffer;
+
+/**
+ * Same as RunningAverageSmoothingFilter, stored as 16 bit values
+ *
+ * @author dosse
+ */
+public class CompactRunningAverageSmoothingFilter extends CompactCircularBuffer {
+
+    private final double f;
+    private double currentValue = 0;
+    private boolean first = true;
+
+    public CompactRunningAverageSmoothingFilter(int size, double smoothing) {
+        super(size);
+        this.f = smoothing;
+    }
+
+    private char smooth(int val) {
+        if (first) {
+            currentValue = val;
+            first = false;
+        } else {
+            currentValue = (double) val * (1 - f) + currentValue * f;
+        }
+        return (char) currentValue;
+    }
+
+    @Override
+    public void add(int[] data) {
+        char[] processed = new char[data.length];
+        synchronized (this) {
+            for (int i = 0; i < data.length; i++) {
+                processed[i] = smooth(compact(data[i]));
+            }
+            super.add(processed);
+        }
+    }
+
+    @Override
+    public void add(char[] data) {
+        char[] processed = new char[data.length];
+        synchronized (this) {
+            for (int i = 0; i < data.length; i++) {
+                processed[i] = smooth(data[i]);
+            }
+            super.add(processed);
+        }
+    }
+
+    @Override
+    public void add(int val) {
+        synchronized (this) {
+            super.add(smooth(compact(val)));
+        }
+    }
+
+}
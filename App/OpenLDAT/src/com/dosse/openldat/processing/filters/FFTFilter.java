@@ -16,6 +16,7 @@
  */
 package com.dosse.openldat.processing.filters;
 
+import com.dosse.openldat.processing.buffers.BufferView;
 import com.dosse.openldat.processing.buffers.CircularBuffer;
 import org.jtransforms.fft.FloatFFT_1D;
 
@@ -27,11 +28,17 @@ public class FFTFilter extends CircularBuffer {
 
     private final float[] fdata;
     private final float[] window;
+    private final FloatFFT_1D fft;
+    private final int[] spectrum; //last FFT computed by get or getView
+    private volatile long version = 0; //incremented by each add
+    private long spectrumVersion = -1;
     
     public FFTFilter(int size) {
         super(size);
         fdata=new float[size];
+        spectrum=new int[size];
         window=new float[size];
+        fft = new FloatFFT_1D(size);
         //precompute blackman-harris window for this size
         for(int i=0;i<size;i++){
             window[i]=(float) (0.35875-0.48829*Math.cos((2*Math.PI*i)/(double)size)+0.14128*Math.cos((4*Math.PI*i)/(double)size)-0.01168*Math.cos((6*Math.PI*i)/(double)size));
@@ -39,21 +46,73 @@ public class FFTFilter extends CircularBuffer {
     }
 
     @Override
-    public int[] getData() {
-        int[] data = super.getData();
-        FloatFFT_1D fft = new FloatFFT_1D(data.length);
-        for (int i = 0; i < data.length; i++) {
-            fdata[i] = window[i]*data[i];
+    public void copyInto(int[] dst) {
+        super.copyInto(dst);
+        //fdata is shared by all readers, the buffer itself is not locked during the transform so the writer isn't held up
+        synchronized (fdata) {
+            for (int i = 0; i < fdata.length; i++) {
+                fdata[i] = window[i] * dst[i];
+            }
+            fft.realForward(fdata);
+            for (int i = 0; i < fdata.length; i++) {
+                dst[i] = (int) (fdata[i] >= 0 ? fdata[i] : -fdata[i]);
+            }
         }
-        fft.realForward(fdata);
-        for (int i = 0; i < data.length; i++) {
-            data[i] = (int) (fdata[i]>=0?fdata[i]:-fdata[i]);
+    }
+
+    @Override
+    public void add(int val) {
+        synchronized (this) {
+            super.add(val);
+            version++;
+        }
+    }
+
+    @Override
+    public void add(int[] data) {
+        synchronized (this) {
+            super.add(data);
+            version++;
+        }
+    }
+
+    /**
+     * @return FFT of the current data, only recomputed if the data changed since the last call. Must be called while holding the fdata lock
+     */
+    private int[] getSpectrum() {
+        long v = version;
+        if (v != spectrumVersion) {
+            copyInto(spectrum);
+            spectrumVersion = v;
+        }
+        return spectrum;
+    }
+
+    @Override
+    public int get(int i) {
+        synchronized (fdata) {
+            return getSpectrum()[i];
+        }
+    }
+
+    /**
+     * Points view at the FFT of the current data. The FFT is recomputed by the next read after the data changes, so the view must not be kept for later
+     */
+    @Override
+    public BufferView getView(BufferView view) {
+        if (view == null) {
+            view = new BufferView();
+        }
+        synchronized (fdata) {
+            view.set(getSpectrum(), 0, spectrum.length, 0);
         }
-        return data;
+        return view;
     }
     
     public int[] getOriginalData(){
-        return super.getData();
+        int[] ret = new int[getSize()];
+        super.copyInto(ret);
+        return ret;
     }
     
 }
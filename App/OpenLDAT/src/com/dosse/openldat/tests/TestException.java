@@ -22,7 +22,7 @@ package com.dosse.openldat.tests;
  */
 public class TestException extends Exception{
     
-    public static final int USER_ABORT=1, ANALYSIS_FAILED=2, INSUFFICIENT_CONTRAST=3, INVALID_SETTINGS=4, INCOMPATIBLE_DEVICE=5,
+    public static final int USER_ABORT=1, ANALYSIS_FAILED=2, INSUFFICIENT_CONTRAST=3, INVALID_SETTINGS=4, INCOMPATIBLE_DEVICE=5, DATA_LOST=6,
             CUSTOM_ERROR=100;
     
     private int type=CUSTOM_ERROR;
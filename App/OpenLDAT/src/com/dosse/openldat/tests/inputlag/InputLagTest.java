@@ -19,9 +19,8 @@ package com.dosse.openldat.tests.inputlag;
 import com.dosse.openldat.Config;
 import com.dosse.openldat.Utils;
 import com.dosse.openldat.device.Device;
-import com.dosse.openldat.device.callbacks.LightSensorButtonCallback;
-import com.dosse.openldat.device.callbacks.LightSensorMonitorCallback;
-import com.dosse.openldat.processing.buffers.CircularBuffer;
+import com.dosse.openldat.device.ShotResult;
+import com.dosse.openldat.device.callbacks.EdgeCallback;
 import com.dosse.openldat.tests.ITest;
 import com.dosse.openldat.tests.IgnorableException;
 import com.dosse.openldat.tests.TestException;
@@ -43,11 +42,24 @@ public abstract class InputLagTest extends Thread implements ITest {
     private final ITestScreen ts;
     private boolean enterPressed, escPressed, stopASAP = false;
     private long durationMs;
+    private int clicks;
     private static final boolean unbuffered = false, fastADC = true;
 
     public InputLagTest(Device d, long durationMs, int vsyncMode, long fakeCPULoadMs, long fakeGPULoadMs) {
+        this(d, durationMs, 0, vsyncMode, fakeCPULoadMs, fakeGPULoadMs);
+    }
+
+    /**
+     * @param durationMs how long the test lasts, or 0 to run until the specified number of clicks was measured
+     * @param clicks number of clicks to measure before ending the test, or 0 to run for the specified duration
+     */
+    public InputLagTest(Device d, long durationMs, int clicks, int vsyncMode, long fakeCPULoadMs, long fakeGPULoadMs) {
+        if (durationMs <= 0 && clicks <= 0) {
+            throw new IllegalArgumentException("Either a duration or a number of clicks must be specified");
+        }
         this.d = d;
         this.durationMs = durationMs;
+        this.clicks = clicks;
         if (Config.TESTSCREEN_GL) {
             ts = new TestScreenGL(vsyncMode) {
                 @Override
@@ -99,47 +111,20 @@ public abstract class InputLagTest extends Thread implements ITest {
     }
 
     private double shootMax(byte sensitivity) {
-        CircularBuffer b;
+        ShotResult r;
         try {
-            int bSize = (int) (d.getLightSensorMonitorModeSampleRate(true, false) * 0.2);
-            b = new CircularBuffer(bSize);
-            d.lightSensorMonitorMode(true, sensitivity, false, new LightSensorMonitorCallback() {
-                @Override
-                public void onDataSampleReceived(int data) {
-                    b.add(data);
-                }
-
-                @Override
-                public void onError(Exception e) {
-                    if (stopASAP) {
-                        return;
-                    }
-                    stopASAP = true;
-                    InputLagTest.this.interrupt();
-                    InputLagTest.this.onError(e);
-                }
-            });
-        } catch (Throwable t) {
-            return -1;
-        }
-        while (!b.isFilled()) {
-            if (stopASAP || escPressed) {
-                return -1;
+            r = d.shoot((int) (d.getLightSensorMonitorModeSampleRate(true, false) * 0.2), sensitivity, false);
+        } catch (Exception e) {
+            if (!stopASAP) {
+                stopASAP = true;
+                onError(e);
             }
-            Utils.sleep(10);
+            return -1;
         }
-        d.endCurrentActivity();
         if (stopASAP || escPressed) {
             return -1;
         }
-        int[] data = b.getData();
-        int max = data[0];
-        for (int i = 1; i < data.length; i++) {
-            if (data[i] > max) {
-                max = data[i];
-            }
-        }
-        return max;
+        return r.getMax();
     }
 
     @Override
@@ -179,22 +164,46 @@ public abstract class InputLagTest extends Thread implements ITest {
                     break;
                 }
             }
+            //measure white to choose the thresholds, the device needs them before the test starts
+            ts.setColor(1, 1, 1);
+            Utils.sleep(500);
+            double max = shootMax(sensitivity);
+            ts.setColor(0, 0, 0);
+            Utils.sleep(500);
+            if (stopASAP) {
+                throw new IgnorableException();
+            }
+            if (escPressed) {
+                throw new TestException(TestException.USER_ABORT);
+            }
+            double whiteThreshold, blackThreshold, range;
+            range = max - black;
+            if (range < 32) {
+                throw new TestException(TestException.INSUFFICIENT_CONTRAST);
+            }
+            whiteThreshold = black + range * 0.3f; //above this it's considered white
+            blackThreshold = black + range * 0.7f; //below this it's considered black
             ts.setFlashOnClick(true);
             HashMap<String, Object> ret = new HashMap<>();
-            double sampleRate = d.getLightSensorButtonModeSampleRate(unbuffered, fastADC);
-            CircularBuffer light = new CircularBuffer((int) (sampleRate * (float) durationMs / 1000.0)),
-                    click = new CircularBuffer((int) (sampleRate * (float) durationMs / 1000.0));
-            d.lightSensorButtonMode(unbuffered, sensitivity, fastADC, false, true, new LightSensorButtonCallback() {
+            //edge mode: the device only reports clicks and transitions to white (times in microseconds), so the test can last as long as needed.
+            //each transition is matched with the last click before it as soon as it arrives, if a flash was skipped the earlier clicks are ignored
+            ArrayList<Double> latencyTimes = new ArrayList<>();
+            long[] lastClick = {-1};
+            d.getMetrics().reset();
+            d.lightSensorEdgeMode(unbuffered, sensitivity, fastADC, false, true, (int) whiteThreshold, (int) blackThreshold, new EdgeCallback() {
                 @Override
-                public void onDataBufferReceived(int[] l, int[] c) {
-                    light.add(l);
-                    click.add(c);
+                public void onClick(long time, int light) {
+                    lastClick[0] = time;
                 }
 
                 @Override
-                public void onDataSampleReceived(int l, int c) {
-                    light.add(l);
-                    click.add(c);
+                public void onRise(long time, int light) {
+                    if (lastClick[0] != -1) {
+                        synchronized (latencyTimes) {
+                            latencyTimes.add((time - lastClick[0]) / 1000.0);
+                        }
+                        lastClick[0] = -1;
+                    }
                 }
 
                 @Override
@@ -207,7 +216,15 @@ public abstract class InputLagTest extends Thread implements ITest {
                     InputLagTest.this.onError(e);
                 }
             });
-            while (!light.isFilled()) {
+            long end = System.currentTimeMillis() + durationMs;
+            while (durationMs <= 0 || System.currentTimeMillis() < end) {
+                if (clicks > 0) {
+                    synchronized (latencyTimes) {
+                        if (latencyTimes.size() >= clicks) {
+                            break;
+                        }
+                    }
+                }
                 if (stopASAP) {
                     throw new IgnorableException();
                 }
@@ -224,69 +241,11 @@ public abstract class InputLagTest extends Thread implements ITest {
             if (escPressed) {
                 throw new TestException(TestException.USER_ABORT);
             }
-            int[] samples = light.getData(), clickSamples = click.getData();
-            double max = 0, whiteThreshold, blackThreshold, range;
-            for (int i : samples) {
-                if (i > max) {
-                    max = i;
-                }
-            }
-            range = max - black;
-            if (range < 32) {
-                throw new TestException(TestException.INSUFFICIENT_CONTRAST);
-            }
-            whiteThreshold = black + range * 0.3f; //above this it's considered white
-            blackThreshold = black + range * 0.7f; //below this it's considered black
-            ArrayList<Integer> transitions = new ArrayList<>(), clicks = new ArrayList<>();
-            byte state = -1;
-            for (int i = 0; i < samples.length; i++) {
-                switch (state) {
-                    case -1:
-                        //-1=waiting for first click
-                        if (clickSamples[i] == 1 && samples[i] <= blackThreshold) {
-                            clicks.add(i);
-                            state = 0;
-                        }
-                        break;
-                    case 0:
-                        //0=black, waiting for white
-                        if (clickSamples[i] == 1) {
-                            clicks.add(i);
-                        }
-                        if (samples[i - 1] < whiteThreshold && samples[i] >= whiteThreshold) {
-                            transitions.add(i);
-                            state = 1;
-                        }
-                        break;
-                    case 1:
-                        //1=white, waiting for black
-                        if (clickSamples[i] == 1) {
-                            clicks.add(i);
-                        }
-                        if (samples[i - 1] > blackThreshold && samples[i] <= blackThreshold) {
-                            state = 0;
-                        }
-                        break;
-                }
+            if (d.getMetrics().hasOverruns()) { //samples were dropped or lost, so the time base of the capture is wrong
+                throw new TestException(TestException.DATA_LOST);
             }
-            ArrayList<Double> latencyTimes = new ArrayList<>();
-            int j = 0;
-            for (int i = 0; i < clicks.size(); i++) {
-                while (j < transitions.size()) {
-                    if (transitions.get(j) > clicks.get(i)) {
-                        for (int k = i; k < clicks.size(); k++) {
-                            if (clicks.get(k) < transitions.get(j)) {
-                                i = k; //some flash was skipped, k is a better candidate click for this transition
-                            }
-                        }
-                        double delay = 1000.0 * (double) (transitions.get(j) - clicks.get(i)) / sampleRate;
-                        latencyTimes.add(delay);
-                        j++;
-                        break;
-                    } else {
-                        j++;
-                    }
-                }
+            if (clicks > 0 && latencyTimes.size() > clicks) { //a few more may have arrived while the device was stopping
+                latencyTimes.subList(clicks, latencyTimes.size()).clear();
             }
             if (latencyTimes.isEmpty()) {
                 throw new TestException(TestException.ANALYSIS_FAILED);
@@ -36,9 +36,31 @@ public abstract class InteractiveInputLagTest implements ITest {
     private final double sampleRate;
 
     private final LightSensorButtonCallback callback = new LightSensorButtonCallback() {
-        private long sampleN = 0;
+        private long sampleN = 0, nextSequence = 0;
         private double clickT = 0;
 
+        /**
+         * Samples dropped because the UI couldn't keep up still count for the time, so the delays stay correct
+         */
+        private void skipDropped(long sequence, int length) {
+            if (sequence > nextSequence) {
+                sampleN += sequence - nextSequence;
+            }
+            nextSequence = sequence + length;
+        }
+
+        @Override
+        public void onDataBufferReceived(int[] light, int[] click, long timestamp, long sequence) {
+            skipDropped(sequence, light.length);
+            onDataBufferReceived(light, click);
+        }
+
+        @Override
+        public void onDataSampleReceived(int light, int click, long timestamp, long sequence) {
+            skipDropped(sequence, 1);
+            onDataSampleReceived(light, click);
+        }
+
         @Override
         public void onDataBufferReceived(int[] light, int[] click) {
             for (int i = 0; i < light.length; i++) {
@@ -127,6 +149,7 @@ public abstract class InteractiveInputLagTest implements ITest {
 
         @Override
         public void onError(Exception e) {
+            d.setDispatchBufferSize(Device.DEFAULT_DISPATCH_BUFFER_SIZE);
             InteractiveInputLagTest.this.onError(e);
         }
 
@@ -147,8 +170,11 @@ public abstract class InteractiveInputLagTest implements ITest {
     @Override
     public void begin() {
         try {
+            //the callback updates the UI, so it runs on the dispatch thread
+            d.setDispatchBufferSize(Device.INTERACTIVE_DISPATCH_BUFFER_SIZE);
             d.lightSensorButtonMode(unbuffered, sensitivity, fastADC, !autoFire, autoFire, callback);
         } catch (Exception ex) {
+            d.setDispatchBufferSize(Device.DEFAULT_DISPATCH_BUFFER_SIZE);
             onError(ex);
         }
     }
@@ -156,6 +182,7 @@ public abstract class InteractiveInputLagTest implements ITest {
     @Override
     public void cancel() {
         d.endCurrentActivity();
+        d.setDispatchBufferSize(Device.DEFAULT_DISPATCH_BUFFER_SIZE);
         onDone(null);
     }
 
@@ -178,7 +205,9 @@ public abstract class InteractiveInputLagTest implements ITest {
             return;
         }
         this.sensitivity = sensitivity > 3 ? 3 : sensitivity < 0 ? 0 : sensitivity;
-        begin();
+        if (!d.reconfigureLightSensor(this.sensitivity, !autoFire, autoFire)) {
+            begin();
+        }
     }
 
     public void setAutoFire(boolean autofire) {
@@ -186,7 +215,9 @@ public abstract class InteractiveInputLagTest implements ITest {
             return;
         }
         this.autoFire = autofire;
-        begin();
+        if (!d.reconfigureLightSensor(sensitivity, !autoFire, autoFire)) {
+            begin();
+        }
     }
 
     public boolean getAutoFire() {
@@ -19,8 +19,8 @@ package com.dosse.openldat.tests.light2sound;
 import com.dosse.openldat.device.Device;
 import com.dosse.openldat.device.callbacks.LightSensorMonitorCallback;
 import com.dosse.openldat.device.errors.MissingSensorException;
-import com.dosse.openldat.processing.buffers.CircularBuffer;
 import com.dosse.openldat.processing.buffers.IBuffer;
+import com.dosse.openldat.processing.buffers.SingleWriterCircularBuffer;
 import com.dosse.openldat.processing.filters.FFTFilter;
 import com.dosse.openldat.tests.ITest;
 import java.io.IOException;
@@ -44,6 +44,7 @@ public abstract class InteractiveLightToSound implements ITest {
 
     private IBuffer chartBuffer;
     private FFTFilter fft;
+    private int[] bins;
 
     private LightSensorMonitorCallback callback;
 
@@ -53,10 +54,11 @@ public abstract class InteractiveLightToSound implements ITest {
         this.d = d;
         sampleRate = d.getLightSensorMonitorModeSampleRate(unbuffered, fastADC);
         try {
-            chartBuffer = new CircularBuffer((int) (sampleRate * 0.5));
+            chartBuffer = new SingleWriterCircularBuffer((int) (sampleRate * 0.5));
             int fftSize = (int) (sampleRate * 0.5);
             fftSize = (int) Math.pow(2, Math.ceil(Math.log(fftSize) / Math.log(2)));
             fft = new FFTFilter(fftSize);
+            bins = new int[fftSize];
             AudioFormat af = new AudioFormat((float) sampleRate, 16, 1, true, false); //16 bit, big endian, signed
             DataLine.Info info = new DataLine.Info(SourceDataLine.class, af);
             speaker = (SourceDataLine) AudioSystem.getLine(info);
@@ -93,6 +95,7 @@ public abstract class InteractiveLightToSound implements ITest {
 
             @Override
             public void onError(Exception e) {
+                d.setDispatchBufferSize(Device.DEFAULT_DISPATCH_BUFFER_SIZE);
                 try {
                     speaker.stop();
                     speaker.close();
@@ -108,7 +111,9 @@ public abstract class InteractiveLightToSound implements ITest {
             return;
         }
         this.sensitivity = sensitivity > 3 ? 3 : sensitivity < 0 ? 0 : sensitivity;
-        begin();
+        if (!d.reconfigureLightSensor(this.sensitivity, false, false)) {
+            begin();
+        }
     }
 
     public byte getSensitivity() {
@@ -128,7 +133,7 @@ public abstract class InteractiveLightToSound implements ITest {
     }
 
     public double getStrongestFrequency(double from, double to) {
-        int[] bins = fft.getData();
+        fft.copyInto(bins);
         double ret = -1;
         int max = 0;
         for (int i = 0; i < bins.length; i++) {
@@ -153,9 +158,12 @@ public abstract class InteractiveLightToSound implements ITest {
     public void begin() {
         try {
             speaker.stop();
+            //writing to the speaker blocks, so the callback runs on the dispatch thread
+            d.setDispatchBufferSize(Device.INTERACTIVE_DISPATCH_BUFFER_SIZE);
             d.lightSensorMonitorMode(unbuffered, sensitivity, fastADC, callback);
             speaker.start();
         } catch (Exception ex) {
+            d.setDispatchBufferSize(Device.DEFAULT_DISPATCH_BUFFER_SIZE);
             try {
                 speaker.stop();
                 speaker.close();
@@ -168,6 +176,7 @@ public abstract class InteractiveLightToSound implements ITest {
     @Override
     public void cancel() {
         d.endCurrentActivity();
+        d.setDispatchBufferSize(Device.DEFAULT_DISPATCH_BUFFER_SIZE);
         speaker.stop();
         speaker.close();
         onDone(null);
@@ -19,10 +19,9 @@ package com.dosse.openldat.tests.microstuttering;
 import com.dosse.openldat.Config;
 import com.dosse.openldat.Utils;
 import com.dosse.openldat.device.Device;
+import com.dosse.openldat.device.ShotResult;
 import com.dosse.openldat.device.callbacks.LightSensorMonitorCallback;
-import com.dosse.openldat.processing.buffers.CircularBuffer;
-import com.dosse.openldat.processing.buffers.IBuffer;
-import com.dosse.openldat.processing.filters.RunningAverageSmoothingFilter;
+import com.dosse.openldat.processing.buffers.OffHeapCircularBuffer;
 import com.dosse.openldat.tests.ITest;
 import com.dosse.openldat.tests.IgnorableException;
 import com.dosse.openldat.tests.TestException;
@@ -30,7 +29,6 @@ import com.dosse.openldat.tests.testscreen.ITestScreen;
 import com.dosse.openldat.tests.testscreen.opengl.TestScreenGL;
 import com.dosse.openldat.tests.testscreen.swing.TestScreenSwing;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 
@@ -99,46 +97,25 @@ public abstract class StutteringDetectionTest extends Thread implements ITest {
     }
 
     private double[] shootMinMax(byte sensitivity, boolean absolute) {
-        CircularBuffer b;
+        ShotResult r;
         try {
-            int bSize = (int) (d.getLightSensorMonitorModeSampleRate(true, false) * 0.2);
-            b = new CircularBuffer(bSize);
-            d.lightSensorMonitorMode(true, sensitivity, false, new LightSensorMonitorCallback() {
-                @Override
-                public void onDataSampleReceived(int data) {
-                    b.add(data);
-                }
-
-                @Override
-                public void onError(Exception e) {
-                    if (stopASAP) {
-                        return;
-                    }
-                    stopASAP = true;
-                    StutteringDetectionTest.this.interrupt();
-                    StutteringDetectionTest.this.onError(e);
-                }
-            });
-        } catch (Throwable t) {
-            return new double[]{-1, -1};
-        }
-        while (!b.isFilled()) {
-            if (stopASAP || escPressed) {
-                return new double[]{-1, -1};
+            r = d.shoot((int) (d.getLightSensorMonitorModeSampleRate(true, false) * 0.2), sensitivity, false);
+        } catch (Exception e) {
+            if (!stopASAP) {
+                stopASAP = true;
+                onError(e);
             }
-            Utils.sleep(10);
+            return new double[]{-1, -1};
         }
-        d.endCurrentActivity();
         if (stopASAP || escPressed) {
             return new double[]{-1, -1};
         }
-        int[] data = b.getData();
-        Arrays.sort(data);
-        return new double[]{data[absolute ? 0 : (int) (data.length * 0.05)], data[absolute ? data.length - 1 : (int) (data.length * 0.95)]};
+        return new double[]{absolute ? r.getMin() : r.getPercentile(0.05), absolute ? r.getMax() : r.getPercentile(0.95)};
     }
 
     @Override
     public void run() {
+        OffHeapCircularBuffer capture = null;
         try {
             ts.setColor(1, 1, 1);
             ts.setTarget(0.5f, 0.5f, 0.2f, true);
@@ -182,14 +159,12 @@ public abstract class StutteringDetectionTest extends Thread implements ITest {
             }
             HashMap<String, Object> ret = new HashMap<>();
             ret.put("flickeringDetected", flickeringDetected);
-            IBuffer f;
+            //the whole test is kept outside of the heap, so that long tests don't cause GC pauses that would look like stutters
             int bSize = (int) ((d.getLightSensorMonitorModeSampleRate(unbuffered, fastADC) * (float) durationMs / 1000.0));
-            if (flickeringDetected) {
-                f = new RunningAverageSmoothingFilter(bSize, fastADC ? 0.996 : 0.99);
-            } else {
-                f = new CircularBuffer(bSize);
-            }
+            OffHeapCircularBuffer f = new OffHeapCircularBuffer(bSize);
+            capture = f;
             ts.setFlicker(true);
+            d.getMetrics().reset();
             double sampleRate = d.lightSensorMonitorMode(unbuffered, sensitivity, fastADC, new LightSensorMonitorCallback() {
                 @Override
                 public void onDataBufferReceived(int[] data) {
@@ -230,9 +205,15 @@ public abstract class StutteringDetectionTest extends Thread implements ITest {
             if (escPressed) {
                 throw new TestException(TestException.USER_ABORT);
             }
-            int[] samples = f.getData();
+            if (d.getMetrics().hasOverruns()) { //samples were dropped or lost, so the time base of the capture is wrong
+                throw new TestException(TestException.DATA_LOST);
+            }
+            //the capture is analysed a window at a time, so that long tests don't need a copy of it in the heap.
+            //if the screen flickers, the same smoothing as RunningAverageSmoothingFilter is applied while reading, each pass starts over so they all see the same data
+            CaptureReader samples = new CaptureReader(f, flickeringDetected ? (fastADC ? 0.996 : 0.99) : -1);
             double max = 0, min = 1023, whiteThreshold, blackThreshold, range;
-            for (int i : samples) {
+            while (samples.hasNext()) {
+                int i = samples.next();
                 if (i > max) {
                     max = i;
                 }
@@ -244,33 +225,33 @@ public abstract class StutteringDetectionTest extends Thread implements ITest {
             if (range < 32) {
                 throw new TestException(TestException.INSUFFICIENT_CONTRAST);
             }
-            for (int i = 0; i < samples.length; i++) {
-                samples[i] = (int) (1023 * ((double) (samples[i] - min) / range));
+            //samples are normalized to 0-1023, so the percentiles can be taken from a histogram instead of sorting a copy of the capture
+            int[] histogram = new int[1024];
+            samples.rewind();
+            while (samples.hasNext()) {
+                histogram[(int) (1023 * ((samples.next() - min) / range))]++;
             }
-            /*DataOutputStream fos = new DataOutputStream(new FileOutputStream("microstuttering.dat"));
-            for (int i : samples) {
-                fos.writeInt(i<<21);
-            }
-            fos.flush();
-            fos.close();*/
-            int[] sortedSamples=Arrays.copyOf(samples, samples.length);
-            Arrays.sort(sortedSamples);
-            whiteThreshold = sortedSamples[(int)(sortedSamples.length*0.4)]; //above this it's considered white
-            blackThreshold = sortedSamples[(int)(sortedSamples.length*0.6)]; //below this it's considered black
+            whiteThreshold = getPercentile(histogram, (int) (f.getSize() * 0.4)); //above this it's considered white
+            blackThreshold = getPercentile(histogram, (int) (f.getSize() * 0.6)); //below this it's considered black
             ArrayList<Integer> transitions = new ArrayList<>();
             byte state = 0;
-            for (int i = 1; i < samples.length; i++) {
+            samples.rewind();
+            int prev = (int) (1023 * ((samples.next() - min) / range));
+            for (int i = 1; samples.hasNext(); i++) {
+                int s = (int) (1023 * ((samples.next() - min) / range));
                 if (state == 0) { //0=black, waiting for white
-                    if (samples[i - 1] < whiteThreshold && samples[i] >= whiteThreshold) {
+                    if (prev < whiteThreshold && s >= whiteThreshold) {
                         transitions.add(i);
                         state = 1;
                     }
                 } else if (state == 1) { //1=white, waiting for black
-                    if (samples[i - 1] > blackThreshold && samples[i] <= blackThreshold) {
+                    if (prev > blackThreshold && s <= blackThreshold) {
                         state = 0;
                     }
                 }
+                prev = s;
             }
+            f.release();
             ArrayList<Double> frameTimes = new ArrayList<>();
             for (int i = 1; i < transitions.size(); i++) {
                 frameTimes.add(1000.0 * (double) (transitions.get(i) - transitions.get(i - 1)) / sampleRate);
@@ -299,6 +280,13 @@ public abstract class StutteringDetectionTest extends Thread implements ITest {
             ts.close();
             onDone(ret);
         } catch (Exception ex) {
+            if (capture != null && !capture.isReleased()) {
+                try {
+                    d.endCurrentActivity();
+                } catch (Throwable t) {
+                }
+                capture.release();
+            }
             ts.close();
             if (!(ex instanceof IgnorableException)) {
                 onError(ex);
@@ -306,6 +294,73 @@ public abstract class StutteringDetectionTest extends Thread implements ITest {
         }
     }
 
+    /**
+     * @param histogram number of samples with each value
+     * @return value of the sample that would be at the specified index if the samples were sorted
+     */
+    private static int getPercentile(int[] histogram, int index) {
+        int count = 0;
+        for (int v = 0; v < histogram.length; v++) {
+            count += histogram[v];
+            if (count > index) {
+                return v;
+            }
+        }
+        return histogram.length - 1;
+    }
+
+    /**
+     * Reads the samples of an off heap capture in order, copying a window at a time into the heap
+     */
+    private static class CaptureReader {
+
+        private static final int WINDOW_SIZE = 65536;
+
+        private final OffHeapCircularBuffer capture;
+        private final double smoothing;
+        private final int[] window;
+        private int windowStart, windowLength, windowPos;
+        private double currentValue;
+
+        /**
+         * @param smoothing smoothing factor of the running average applied to the samples, or -1 to read them as they are
+         */
+        public CaptureReader(OffHeapCircularBuffer capture, double smoothing) {
+            this.capture = capture;
+            this.smoothing = smoothing;
+            window = new int[Math.min(WINDOW_SIZE, capture.getSize())];
+            rewind();
+        }
+
+        public void rewind() {
+            windowStart = 0;
+            windowLength = 0;
+            windowPos = 0;
+        }
+
+        public boolean hasNext() {
+            return windowStart + windowPos < capture.getSize();
+        }
+
+        public int next() {
+            if (windowPos == windowLength) {
+                windowStart += windowLength;
+                windowLength = Math.min(window.length, capture.getSize() - windowStart);
+                windowPos = 0;
+                capture.copyRange(windowStart, window, 0, windowLength);
+            }
+            int val = window[windowPos++];
+            if (smoothing < 0) {
+                return val;
+            }
+            if (windowStart == 0 && windowPos == 1) {
+                currentValue = val;
+            }
+            currentValue = (double) val * (1 - smoothing) + currentValue * smoothing;
+            return (int) currentValue;
+        }
+    }
+
     @Override
     public void begin() {
         start();
@@ -19,6 +19,7 @@ package com.dosse.openldat.tests.overdrive;
 import com.dosse.openldat.Config;
 import com.dosse.openldat.Utils;
 import com.dosse.openldat.device.Device;
+import com.dosse.openldat.device.ShotResult;
 import com.dosse.openldat.device.callbacks.LightSensorMonitorCallback;
 import com.dosse.openldat.processing.buffers.CircularBuffer;
 import com.dosse.openldat.processing.buffers.IBuffer;
@@ -116,50 +117,33 @@ public abstract class PixelOverdriveTest extends Thread implements ITest {
         }
     }
 
-    private int[] lastShootRawData = null;
-
     private double[] shootMinMaxAvg(byte sensitivity, boolean absolute) {
-        CircularBuffer b;
-        try {
-            int bSize = (int) (d.getLightSensorMonitorModeSampleRate(true, false) * 0.5);
-            b = new CircularBuffer(bSize);
-            d.lightSensorMonitorMode(true, sensitivity, false, new LightSensorMonitorCallback() {
-                @Override
-                public void onDataSampleReceived(int data) {
-                    b.add(data);
-                }
-
-                @Override
-                public void onError(Exception e) {
-                    if (stopASAP) {
-                        return;
-                    }
-                    stopASAP = true;
-                    PixelOverdriveTest.this.interrupt();
-                    PixelOverdriveTest.this.onError(e);
-                }
-            });
-        } catch (Throwable t) {
+        ShotResult r = shoot(sensitivity, false);
+        if (r == null) {
             return new double[]{-1, -1, -1};
         }
-        while (!b.isFilled()) {
-            if (stopASAP || escPressed) {
-                return new double[]{-1, -1, -1};
+        return new double[]{absolute ? r.getMin() : r.getPercentile(0.05), absolute ? r.getMax() : r.getPercentile(0.95), r.getMean()};
+    }
+
+    /**
+     * @param keepRawData true to stream the samples instead of letting the device compute the statistics, so that they can be analyzed
+     * @return statistics of 0.5s of samples, or null if the test was interrupted
+     */
+    private ShotResult shoot(byte sensitivity, boolean keepRawData) {
+        ShotResult r;
+        try {
+            r = d.shoot((int) (d.getLightSensorMonitorModeSampleRate(true, false) * 0.5), sensitivity, false, keepRawData);
+        } catch (Exception e) {
+            if (!stopASAP) {
+                stopASAP = true;
+                onError(e);
             }
-            Utils.sleep(10);
+            return null;
         }
         if (stopASAP || escPressed) {
-            return new double[]{-1, -1, -1};
+            return null;
         }
-        int[] data = b.getData();
-        lastShootRawData = Arrays.copyOf(data, data.length);
-        Arrays.sort(data);
-        double avg = 0;
-        for (int i : data) {
-            avg += i;
-        }
-        avg /= (double) data.length;
-        return new double[]{data[absolute ? 0 : (int) (data.length * 0.05)], data[absolute ? data.length - 1 : (int) (data.length * 0.95)], avg};
+        return r;
     }
 
     @Override
@@ -202,8 +186,12 @@ public abstract class PixelOverdriveTest extends Thread implements ITest {
                         if (noise >= 16) {
                             flickeringDetected = true;
                             if (noise >= maxNoise) {
-                                noisiestSample = lastShootRawData;
-                                maxNoise = noise;
+                                //the screen is still showing this step, take it again with the raw samples to tune the peak hold filter later
+                                ShotResult raw = shoot(sensitivity, true);
+                                if (raw != null) {
+                                    noisiestSample = raw.getRawData();
+                                    maxNoise = noise;
+                                }
                             }
                         }
                         step[1] = sensitivity;
@@ -290,6 +278,7 @@ public abstract class PixelOverdriveTest extends Thread implements ITest {
                     } else {
                         transition = new CircularBuffer((int) (sampleRate * 0.6));
                     }
+                    d.getMetrics().reset();
                     d.lightSensorMonitorMode(unbuffered, sensitivity, fastADC, new LightSensorMonitorCallback() {
                         @Override
                         public void onDataBufferReceived(int[] data) {
@@ -327,6 +316,9 @@ public abstract class PixelOverdriveTest extends Thread implements ITest {
                         }
                         Utils.sleep(1);
                     }
+                    if (d.getMetrics().hasOverruns()) { //samples were dropped or lost, so the time base of the capture is wrong
+                        throw new TestException(TestException.DATA_LOST);
+                    }
                     int[] samples = transition.getData();
                     /*DataOutputStream fos = new DataOutputStream(new FileOutputStream("t" + from[0] + "-" + to[0]));
                     for (int i : samples) {
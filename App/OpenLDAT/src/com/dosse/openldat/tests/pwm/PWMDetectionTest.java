@@ -19,8 +19,8 @@ package com.dosse.openldat.tests.pwm;
 import com.dosse.openldat.Config;
 import com.dosse.openldat.Utils;
 import com.dosse.openldat.device.Device;
+import com.dosse.openldat.device.ShotResult;
 import com.dosse.openldat.device.callbacks.LightSensorMonitorCallback;
-import com.dosse.openldat.processing.buffers.CircularBuffer;
 import com.dosse.openldat.processing.filters.FFTFilter;
 import com.dosse.openldat.tests.ITest;
 import com.dosse.openldat.tests.IgnorableException;
@@ -28,7 +28,6 @@ import com.dosse.openldat.tests.TestException;
 import com.dosse.openldat.tests.testscreen.ITestScreen;
 import com.dosse.openldat.tests.testscreen.opengl.TestScreenGL;
 import com.dosse.openldat.tests.testscreen.swing.TestScreenSwing;
-import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -121,39 +120,20 @@ public abstract class PWMDetectionTest extends Thread implements ITest {
     }
 
     private double[] shootMinMax(byte sensitivity, boolean absolute) {
-        CircularBuffer b;
+        ShotResult r;
         try {
-            int bSize = (int) (d.getLightSensorMonitorModeSampleRate(true, false) * 0.5);
-            b = new CircularBuffer(bSize);
-            d.lightSensorMonitorMode(true, sensitivity, false, new LightSensorMonitorCallback() {
-                @Override
-                public void onDataSampleReceived(int data) {
-                    b.add(data);
-                }
-
-                @Override
-                public void onError(Exception e) {
-                    if (stopASAP) {
-                        return;
-                    }
-                    stopASAP = true;
-                    PWMDetectionTest.this.interrupt();
-                    PWMDetectionTest.this.onError(e);
-                }
-            });
-        } catch (Throwable t) {
+            r = d.shoot((int) (d.getLightSensorMonitorModeSampleRate(true, false) * 0.5), sensitivity, false);
+        } catch (Exception e) {
+            if (!stopASAP) {
+                stopASAP = true;
+                onError(e);
+            }
             return new double[]{-1, -1};
         }
-        while (!b.isFilled()) {
-            if (stopASAP || escPressed) {
-                return new double[]{-1, -1};
-            }
-            Utils.sleep(10);
+        if (stopASAP || escPressed) {
+            return new double[]{-1, -1};
         }
-        d.endCurrentActivity();
-        int[] data = b.getData();
-        Arrays.sort(data);
-        return new double[]{data[absolute ? 0 : (int) (data.length * 0.05)], data[absolute ? data.length - 1 : (int) (data.length * 0.95)]};
+        return new double[]{absolute ? r.getMin() : r.getPercentile(0.05), absolute ? r.getMax() : r.getPercentile(0.95)};
     }
 
     @Override
@@ -193,6 +173,7 @@ public abstract class PWMDetectionTest extends Thread implements ITest {
             int bSize = (int) (d.getLightSensorMonitorModeSampleRate(true, true) * 1);
             bSize = (int) Math.pow(2, Math.ceil(Math.log(bSize) / Math.log(2)));
             FFTFilter b = new FFTFilter(bSize);
+            d.getMetrics().reset();
             double sampleRate = d.lightSensorMonitorMode(true, sensitivity, true, new LightSensorMonitorCallback() {
                 @Override
                 public void onDataBufferReceived(int[] data) {
@@ -230,6 +211,9 @@ public abstract class PWMDetectionTest extends Thread implements ITest {
             if (escPressed) {
                 throw new TestException(TestException.USER_ABORT);
             }
+            if (d.getMetrics().hasOverruns()) { //samples were dropped or lost, so the time base of the capture is wrong
+                throw new TestException(TestException.DATA_LOST);
+            }
             double pwmFreq = detectPWMFrequency(b.getData(), sampleRate, 40, 2500);
             ts.close();
             ret.put("frequency", pwmFreq);
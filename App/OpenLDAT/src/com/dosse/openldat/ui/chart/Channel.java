@@ -27,6 +27,8 @@ public class Channel {
     protected final IBuffer data;
     protected int min,max;
     protected Color color;
+    //reused by Chart on every repaint
+    int[] snapshot, xcrd;
 
     public Channel(IBuffer data, int min, int max, Color color) {
         this.data = data;
@@ -18,6 +18,7 @@ package com.dosse.openldat.ui.chart;
 
 import com.dosse.openldat.Config;
 import com.dosse.openldat.Utils;
+import com.dosse.openldat.processing.buffers.BitCircularBuffer;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.FontMetrics;
@@ -192,11 +193,27 @@ public class Chart extends JPanel {
         synchronized (channels) {
             for (Channel c : channels) {
                 g.setColor(c.color);
-                double pxPerSample = (double) chartAreaWidth / (double) c.data.getSize();
-                int[] data = c.data.getData();
+                int size = c.data.getSize();
+                double pxPerSample = (double) chartAreaWidth / (double) size;
+                if (c.snapshot == null || c.snapshot.length != size) {
+                    c.snapshot = new int[size];
+                    c.xcrd = new int[size];
+                }
+                if (c.max - c.min == 1 && c.data instanceof BitCircularBuffer) {
+                    //only the samples that are set need to be drawn, and they can be found without looking at the others
+                    int[] set = c.snapshot;
+                    int n = ((BitCircularBuffer) c.data).copySetBits(set);
+                    for (int j = 0; j < n; j++) {
+                        int i = set[j];
+                        g.drawLine((int) (i * pxPerSample + chartAreaStartX), 0, (int) (i * pxPerSample + chartAreaStartX - 1), chartAreaHeight);
+                    }
+                    continue;
+                }
+                int[] data = c.snapshot;
+                c.data.copyInto(data);
                 if (c.max - c.min != 1) {
                     double pxPerUnit = (double) chartAreaHeight / (double) (c.max - c.min);
-                    int[] xcrd = new int[data.length];
+                    int[] xcrd = c.xcrd;
                     for (int i = 0; i < data.length; i++) {
                         xcrd[i] = (int) (i * pxPerSample + chartAreaStartX);
                         data[i] = (int) (chartAreaHeight - ((data[i] - c.min) * pxPerUnit) + chartAreaStartY - 1);
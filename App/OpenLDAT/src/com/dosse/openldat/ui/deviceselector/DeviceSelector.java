@@ -17,11 +17,13 @@
 package com.dosse.openldat.ui.deviceselector;
 
 import com.dosse.openldat.device.DeviceFinder;
+import com.dosse.openldat.device.ProbeResult;
 import com.fazecast.jSerialComm.SerialPort;
 import javax.swing.DefaultListModel;
 import com.dosse.openldat.Utils;
 import java.awt.Component;
 import java.awt.Container;
+import java.awt.EventQueue;
 import java.awt.FocusTraversalPolicy;
 
 /**
@@ -39,12 +41,7 @@ public abstract class DeviceSelector extends javax.swing.JFrame {
         initComponents();
         ports = DeviceFinder.findDevices();
         if (ports.length > 1) {
-            DefaultListModel dlm = new DefaultListModel();
-            for (SerialPort p : ports) {
-                dlm.addElement(p.getPortDescription() + " (" + p.getSystemPortName() + ")");
-            }
-            jList1.setModel(dlm);
-            jList1.setSelectedIndex(0);
+            listPorts();
             setFocusTraversalPolicy(new FocusTraversalPolicy() {
                 @Override
                 public Component getComponentAfter(Container cntnr, Component cmpnt) {
@@ -108,6 +105,39 @@ public abstract class DeviceSelector extends javax.swing.JFrame {
 
     public abstract void onDeviceSelected(SerialPort p);
 
+    /**
+     * Connects to all the ports in the background while the user chooses, and shows the result of each probe and how long it took as soon as it's available
+     */
+    private void listPorts() {
+        ProbeResult[] probes = DeviceFinder.probe(ports);
+        DefaultListModel<String> dlm = new DefaultListModel<>();
+        for (SerialPort p : ports) {
+            dlm.addElement(p.getPortDescription() + " (" + p.getSystemPortName() + ")");
+        }
+        jList1.setModel(dlm);
+        if (ports.length != 0) {
+            jList1.setSelectedIndex(0);
+        }
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < probes.length; i++) {
+                    int index = i;
+                    probes[i].waitFor(Long.MAX_VALUE);
+                    String text = probes[i].getPort().getPortDescription() + " (" + probes[i] + ")";
+                    EventQueue.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            dlm.set(index, text);
+                        }
+                    });
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -198,14 +228,7 @@ public abstract class DeviceSelector extends javax.swing.JFrame {
             public void run() {
                 Utils.sleep(100);
                 ports = DeviceFinder.findDevices();
-                DefaultListModel dlm = new DefaultListModel();
-                for (SerialPort p : ports) {
-                    dlm.addElement(p.getPortDescription() + " (" + p.getSystemPortName() + ")");
-                }
-                jList1.setModel(dlm);
-                if (ports.length != 0) {
-                    jList1.setSelectedIndex(0);
-                }
+                listPorts();
                 jButton1.setEnabled(true);
                 jButton2.setEnabled(true);
                 jList1.setEnabled(true);
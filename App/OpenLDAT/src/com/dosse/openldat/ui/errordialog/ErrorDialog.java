@@ -81,6 +81,9 @@ public abstract class ErrorDialog extends javax.swing.JFrame {
                     case TestException.INVALID_SETTINGS:
                         jLabel1.setText("<html>Invalid test settings</html>");
                         break;
+                    case TestException.DATA_LOST:
+                        jLabel1.setText("<html>Some data from the device was lost. Close other programs and try again</html>");
+                        break;
                     default:
                         jLabel1.setText("<html>Something happened</html>");
                         break;
@@ -18,12 +18,25 @@ package com.dosse.openldat.ui.tests.driver;
 
 import com.dosse.openldat.Utils;
 import com.dosse.openldat.device.Device;
+import com.dosse.openldat.device.DeviceMetrics;
 import java.awt.Component;
 import java.awt.Container;
+import java.awt.EventQueue;
 import java.awt.FocusTraversalPolicy;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
 import javax.swing.Timer;
+import javax.swing.filechooser.FileFilter;
+import javax.swing.table.DefaultTableModel;
 
 /**
  *
@@ -33,6 +46,8 @@ public abstract class DriverTestMenu extends javax.swing.JFrame {
 
     private final Device device;
     private Timer sampleRateUpdater;
+    private volatile boolean busy = false;
+    private final ArrayList<ThroughputBenchmark> benchmarkResults = new ArrayList<>();
 
     /**
      * Creates new form DriverTestMenu
@@ -61,10 +76,16 @@ public abstract class DriverTestMenu extends javax.swing.JFrame {
                     jLabel25.setText("N/A");
                     jLabel28.setText("N/A");
                 }
+                if (jTabbedPane1.getSelectedComponent() == jPanel5) {
+                    DeviceMetrics m = device.getMetrics();
+                    jLabel8.setText(m.hasOverruns() ? "Overruns detected" : "No overruns");
+                    jTextArea1.setText(m.toString());
+                }
             }
         });
         sampleRateUpdater.setRepeats(true);
         sampleRateUpdater.start();
+        updateCalibrationTable();
         setIconImage(Utils.loadAndScaleIcon("/com/dosse/openldat/ui/icon.png", (int) (128 * DPI_SCALE), (int) (128 * DPI_SCALE)).getImage());
         setFocusTraversalPolicy(new FocusTraversalPolicy() {
             @Override
@@ -79,6 +100,15 @@ public abstract class DriverTestMenu extends javax.swing.JFrame {
                     if (jTabbedPane1.getSelectedComponent() == jPanel2) {
                         return jCheckBox4;
                     }
+                    if (jTabbedPane1.getSelectedComponent() == jPanel3) {
+                        return jSpinner3;
+                    }
+                    if (jTabbedPane1.getSelectedComponent() == jPanel5) {
+                        return jButton6;
+                    }
+                    if (jTabbedPane1.getSelectedComponent() == jPanel6) {
+                        return jSpinner4;
+                    }
                 }
                 if (jTabbedPane1.getSelectedComponent() == jPanel4) {
                     return jTabbedPane1;
@@ -138,6 +168,33 @@ public abstract class DriverTestMenu extends javax.swing.JFrame {
                         return jTabbedPane1;
                     }
                 }
+                if (jTabbedPane1.getSelectedComponent() == jPanel3) {
+                    if (cmpnt == jSpinner3) {
+                        return jButton5;
+                    }
+                    if (cmpnt == jButton5) {
+                        return jButton4;
+                    }
+                    if (cmpnt == jButton4) {
+                        return jTabbedPane1;
+                    }
+                }
+                if (jTabbedPane1.getSelectedComponent() == jPanel5) {
+                    if (cmpnt == jButton6) {
+                        return jTabbedPane1;
+                    }
+                }
+                if (jTabbedPane1.getSelectedComponent() == jPanel6) {
+                    if (cmpnt == jSpinner4) {
+                        return jButton8;
+                    }
+                    if (cmpnt == jButton8) {
+                        return jButton7;
+                    }
+                    if (cmpnt == jButton7) {
+                        return jTabbedPane1;
+                    }
+                }
                 return null;
             }
 
@@ -204,6 +261,33 @@ public abstract class DriverTestMenu extends javax.swing.JFrame {
                         return jSpinner2;
                     }
                 }
+                if (jTabbedPane1.getSelectedComponent() == jPanel3) {
+                    if (cmpnt == jSpinner3) {
+                        return jTabbedPane1;
+                    }
+                    if (cmpnt == jButton5) {
+                        return jSpinner3;
+                    }
+                    if (cmpnt == jButton4) {
+                        return jButton5;
+                    }
+                }
+                if (jTabbedPane1.getSelectedComponent() == jPanel5) {
+                    if (cmpnt == jButton6) {
+                        return jTabbedPane1;
+                    }
+                }
+                if (jTabbedPane1.getSelectedComponent() == jPanel6) {
+                    if (cmpnt == jSpinner4) {
+                        return jTabbedPane1;
+                    }
+                    if (cmpnt == jButton8) {
+                        return jSpinner4;
+                    }
+                    if (cmpnt == jButton7) {
+                        return jButton8;
+                    }
+                }
                 return null;
             }
 
@@ -223,6 +307,15 @@ public abstract class DriverTestMenu extends javax.swing.JFrame {
                 if (jTabbedPane1.getSelectedComponent() == jPanel2) {
                     return jButton2;
                 }
+                if (jTabbedPane1.getSelectedComponent() == jPanel3) {
+                    return jButton4;
+                }
+                if (jTabbedPane1.getSelectedComponent() == jPanel5) {
+                    return jButton6;
+                }
+                if (jTabbedPane1.getSelectedComponent() == jPanel6) {
+                    return jButton7;
+                }
                 return null;
             }
 
@@ -290,6 +383,25 @@ public abstract class DriverTestMenu extends javax.swing.JFrame {
         jLabel27 = new javax.swing.JLabel();
         jLabel28 = new javax.swing.JLabel();
         jLabel29 = new javax.swing.JLabel();
+        jPanel3 = new javax.swing.JPanel();
+        jLabel7 = new javax.swing.JLabel();
+        jSpinner3 = new javax.swing.JSpinner();
+        jScrollPane1 = new javax.swing.JScrollPane();
+        jTable1 = new javax.swing.JTable();
+        jButton4 = new javax.swing.JButton();
+        jButton5 = new javax.swing.JButton();
+        jPanel5 = new javax.swing.JPanel();
+        jLabel8 = new javax.swing.JLabel();
+        jScrollPane2 = new javax.swing.JScrollPane();
+        jTextArea1 = new javax.swing.JTextArea();
+        jButton6 = new javax.swing.JButton();
+        jPanel6 = new javax.swing.JPanel();
+        jLabel22 = new javax.swing.JLabel();
+        jSpinner4 = new javax.swing.JSpinner();
+        jScrollPane3 = new javax.swing.JScrollPane();
+        jTable2 = new javax.swing.JTable();
+        jButton7 = new javax.swing.JButton();
+        jButton8 = new javax.swing.JButton();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DO_NOTHING_ON_CLOSE);
         setTitle("OpenLDAT Driver Test");
@@ -628,12 +740,177 @@ public abstract class DriverTestMenu extends javax.swing.JFrame {
 
         jTabbedPane1.addTab("Light sensor + Button/AF", jPanel2);
 
+        jLabel7.setText("Measurement duration per mode (s)");
+
+        jSpinner3.setModel(new javax.swing.SpinnerNumberModel(10, 2, 600, 1));
+
+        jTable1.setModel(new ReadOnlyTableModel(new String[]{"Mode", "Nominal (Hz)", "Calibrated (Hz)"}, new Class<?>[]{String.class, Double.class, String.class}));
+        jScrollPane1.setViewportView(jTable1);
+
+        jButton4.setText("Calibrate all modes");
+        jButton4.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jButton4ActionPerformed(evt);
+            }
+        });
+
+        jButton5.setText("Reset");
+        jButton5.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jButton5ActionPerformed(evt);
+            }
+        });
+
+        javax.swing.GroupLayout jPanel3Layout = new javax.swing.GroupLayout(jPanel3);
+        jPanel3.setLayout(jPanel3Layout);
+        jPanel3Layout.setHorizontalGroup(
+            jPanel3Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(jPanel3Layout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(jPanel3Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(jScrollPane1, javax.swing.GroupLayout.DEFAULT_SIZE, 531, Short.MAX_VALUE)
+                    .addGroup(jPanel3Layout.createSequentialGroup()
+                        .addComponent(jLabel7)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jSpinner3, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addGap(0, 0, Short.MAX_VALUE))
+                    .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, jPanel3Layout.createSequentialGroup()
+                        .addGap(0, 0, Short.MAX_VALUE)
+                        .addComponent(jButton5)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jButton4)))
+                .addContainerGap())
+        );
+        jPanel3Layout.setVerticalGroup(
+            jPanel3Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(jPanel3Layout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(jPanel3Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabel7)
+                    .addComponent(jSpinner3, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(jScrollPane1, javax.swing.GroupLayout.DEFAULT_SIZE, 160, Short.MAX_VALUE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanel3Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jButton4)
+                    .addComponent(jButton5))
+                .addContainerGap())
+        );
+
+        jTabbedPane1.addTab("Sample rate calibration", jPanel3);
+
+        jLabel8.setText("No overruns");
+
+        jTextArea1.setEditable(false);
+        jTextArea1.setColumns(20);
+        jTextArea1.setFont(new java.awt.Font("Monospaced", 0, 12)); // NOI18N
+        jTextArea1.setRows(5);
+        jScrollPane2.setViewportView(jTextArea1);
+
+        jButton6.setText("Reset");
+        jButton6.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jButton6ActionPerformed(evt);
+            }
+        });
+
+        javax.swing.GroupLayout jPanel5Layout = new javax.swing.GroupLayout(jPanel5);
+        jPanel5.setLayout(jPanel5Layout);
+        jPanel5Layout.setHorizontalGroup(
+            jPanel5Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(jPanel5Layout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(jPanel5Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(jScrollPane2, javax.swing.GroupLayout.DEFAULT_SIZE, 531, Short.MAX_VALUE)
+                    .addGroup(jPanel5Layout.createSequentialGroup()
+                        .addComponent(jLabel8)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                        .addComponent(jButton6)))
+                .addContainerGap())
+        );
+        jPanel5Layout.setVerticalGroup(
+            jPanel5Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(jPanel5Layout.createSequentialGroup()
+                .addContainerGap()
+                .addComponent(jScrollPane2, javax.swing.GroupLayout.DEFAULT_SIZE, 190, Short.MAX_VALUE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanel5Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabel8)
+                    .addComponent(jButton6))
+                .addContainerGap())
+        );
+
+        jTabbedPane1.addTab("I/O metrics", jPanel5);
+
+        jLabel22.setText("Measurement duration per mode (s)");
+
+        jSpinner4.setModel(new javax.swing.SpinnerNumberModel(10, 2, 600, 1));
+
+        jTable2.setModel(new ReadOnlyTableModel(new String[]{"Mode", "Nominal (Hz)", "Achieved (Hz)", "Loss (%)", "Latency p50 (ms)", "Latency p99 (ms)", "CPU (%)"}, new Class<?>[]{String.class, Double.class, String.class, String.class, String.class, String.class, String.class}));
+        jScrollPane3.setViewportView(jTable2);
+
+        jButton7.setText("Run all modes");
+        jButton7.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jButton7ActionPerformed(evt);
+            }
+        });
+
+        jButton8.setText("Export CSV");
+        jButton8.setEnabled(false);
+        jButton8.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jButton8ActionPerformed(evt);
+            }
+        });
+
+        javax.swing.GroupLayout jPanel6Layout = new javax.swing.GroupLayout(jPanel6);
+        jPanel6.setLayout(jPanel6Layout);
+        jPanel6Layout.setHorizontalGroup(
+            jPanel6Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(jPanel6Layout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(jPanel6Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(jScrollPane3, javax.swing.GroupLayout.DEFAULT_SIZE, 531, Short.MAX_VALUE)
+                    .addGroup(jPanel6Layout.createSequentialGroup()
+                        .addComponent(jLabel22)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jSpinner4, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addGap(0, 0, Short.MAX_VALUE))
+                    .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, jPanel6Layout.createSequentialGroup()
+                        .addGap(0, 0, Short.MAX_VALUE)
+                        .addComponent(jButton8)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jButton7)))
+                .addContainerGap())
+        );
+        jPanel6Layout.setVerticalGroup(
+            jPanel6Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+            .addGroup(jPanel6Layout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(jPanel6Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabel22)
+                    .addComponent(jSpinner4, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(jScrollPane3, javax.swing.GroupLayout.DEFAULT_SIZE, 160, Short.MAX_VALUE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(jPanel6Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jButton7)
+                    .addComponent(jButton8))
+                .addContainerGap())
+        );
+
+        jTabbedPane1.addTab("Throughput test", jPanel6);
+
         getContentPane().add(jTabbedPane1);
 
         pack();
     }// </editor-fold>//GEN-END:initComponents
 
     private void formWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowClosing
+        if (busy) {
+            return;
+        }
         sampleRateUpdater.stop();
         dispose();
         onClose();
@@ -681,6 +958,166 @@ public abstract class DriverTestMenu extends javax.swing.JFrame {
         }.start();
     }//GEN-LAST:event_jButton3ActionPerformed
 
+    private void jButton4ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton4ActionPerformed
+        busy = true;
+        jButton4.setEnabled(false);
+        jButton5.setEnabled(false);
+        jTabbedPane1.setEnabled(false);
+        long durationMs = (int) jSpinner3.getValue() * 1000L;
+        new Thread() {
+            @Override
+            public void run() {
+                String errors = "";
+                for (int i = 0; i < 8; i++) {
+                    boolean buttonMode = (i & 4) != 0, noBuffer = (i & 2) != 0, fastADC = (i & 1) != 0;
+                    try {
+                        if (buttonMode) {
+                            device.calibrateLightSensorButtonModeSampleRate(noBuffer, fastADC, durationMs);
+                        } else {
+                            device.calibrateLightSensorMonitorModeSampleRate(noBuffer, fastADC, durationMs);
+                        }
+                    } catch (Throwable t) {
+                        errors += getModeDescription(buttonMode, noBuffer, fastADC) + ": " + t.getMessage() + "\n";
+                    }
+                    EventQueue.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            updateCalibrationTable();
+                        }
+                    });
+                }
+                String message = errors;
+                EventQueue.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        busy = false;
+                        jButton4.setEnabled(true);
+                        jButton5.setEnabled(true);
+                        jTabbedPane1.setEnabled(true);
+                        if (!message.isEmpty()) {
+                            JOptionPane.showMessageDialog(rootPane, "Some modes could not be calibrated:\n" + message, getTitle(), JOptionPane.ERROR_MESSAGE);
+                        }
+                    }
+                });
+            }
+        }.start();
+    }//GEN-LAST:event_jButton4ActionPerformed
+
+    private void jButton5ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton5ActionPerformed
+        device.resetSampleRateCalibration();
+        updateCalibrationTable();
+    }//GEN-LAST:event_jButton5ActionPerformed
+
+    private void jButton6ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton6ActionPerformed
+        device.getMetrics().reset();
+    }//GEN-LAST:event_jButton6ActionPerformed
+
+    private void jButton7ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton7ActionPerformed
+        busy = true;
+        jButton7.setEnabled(false);
+        jButton8.setEnabled(false);
+        jTabbedPane1.setEnabled(false);
+        ((DefaultTableModel) jTable2.getModel()).setRowCount(0);
+        benchmarkResults.clear();
+        long durationMs = (int) jSpinner4.getValue() * 1000L;
+        new Thread() {
+            @Override
+            public void run() {
+                String errors = "";
+                for (int i = 0; i < 8; i++) {
+                    boolean buttonMode = (i & 4) != 0, noBuffer = (i & 2) != 0, fastADC = (i & 1) != 0;
+                    try {
+                        ThroughputBenchmark b = new ThroughputBenchmark(device, buttonMode, noBuffer, fastADC, durationMs);
+                        EventQueue.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                benchmarkResults.add(b);
+                                ((DefaultTableModel) jTable2.getModel()).addRow(new Object[]{getModeDescription(buttonMode, noBuffer, fastADC), b.getNominalSampleRate(), String.format("%.1f", b.getSampleRate()), String.format("%.3f", b.getLossRate() * 100), String.format("%.2f", b.getLatencyP50()), String.format("%.2f", b.getLatencyP99()), b.getCpuUsage() < 0 ? "N/A" : String.format("%.1f", b.getCpuUsage() * 100)});
+                            }
+                        });
+                    } catch (Throwable t) {
+                        errors += getModeDescription(buttonMode, noBuffer, fastADC) + ": " + t.getMessage() + "\n";
+                    }
+                }
+                String message = errors;
+                EventQueue.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        busy = false;
+                        jButton7.setEnabled(true);
+                        jButton8.setEnabled(!benchmarkResults.isEmpty());
+                        jTabbedPane1.setEnabled(true);
+                        if (!message.isEmpty()) {
+                            JOptionPane.showMessageDialog(rootPane, "Some modes could not be tested:\n" + message, getTitle(), JOptionPane.ERROR_MESSAGE);
+                        }
+                    }
+                });
+            }
+        }.start();
+    }//GEN-LAST:event_jButton7ActionPerformed
+
+    private void jButton8ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton8ActionPerformed
+        JFileChooser c = new JFileChooser();
+        c.setFileFilter(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory() || file.getName().toLowerCase().endsWith(".csv");
+            }
+
+            @Override
+            public String getDescription() {
+                return "CSV files (*.csv)";
+            }
+        });
+        c.setSelectedFile(new File("Throughput - " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HHmmss")) + ".csv"));
+        if (c.showSaveDialog(rootPane) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File f = c.getSelectedFile();
+        if (f == null) {
+            return;
+        }
+        if (!f.getName().toLowerCase().endsWith(".csv")) {
+            f = new File(f.getAbsolutePath() + ".csv");
+        }
+        try {
+            BufferedWriter w = new BufferedWriter(new FileWriter(f));
+            w.write("# " + device.getModel() + " (" + device.getModelCode() + "), firmware " + device.getFirmwareVersion() + ", port " + device.getPortName());
+            w.newLine();
+            w.write(ThroughputBenchmark.getCSVHeader());
+            w.newLine();
+            for (ThroughputBenchmark b : benchmarkResults) {
+                w.write(b.toCSV());
+                w.newLine();
+            }
+            w.flush();
+            w.close();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(rootPane, "File not saved: " + ex.getMessage(), getTitle(), JOptionPane.ERROR_MESSAGE);
+        }
+    }//GEN-LAST:event_jButton8ActionPerformed
+
+    private static String getModeDescription(boolean buttonMode, boolean noBuffer, boolean fastADC) {
+        return (buttonMode ? "Light sensor + Button" : "Light sensor") + (noBuffer ? ", unbuffered" : "") + (fastADC ? ", fast ADC" : "");
+    }
+
+    private void updateCalibrationTable() {
+        DefaultTableModel dtm = (DefaultTableModel) jTable1.getModel();
+        dtm.setRowCount(0);
+        for (int i = 0; i < 8; i++) {
+            boolean buttonMode = (i & 4) != 0, noBuffer = (i & 2) != 0, fastADC = (i & 1) != 0;
+            double nominal = buttonMode ? Device.getNominalLightSensorButtonModeSampleRate(noBuffer, fastADC) : Device.getNominalLightSensorMonitorModeSampleRate(noBuffer, fastADC);
+            String calibrated = "Not calibrated";
+            if (device.isSampleRateCalibrated(buttonMode, noBuffer, fastADC)) {
+                try {
+                    calibrated = String.format("%.1f", buttonMode ? device.getLightSensorButtonModeSampleRate(noBuffer, fastADC) : device.getLightSensorMonitorModeSampleRate(noBuffer, fastADC));
+                } catch (Throwable t) {
+                }
+            }
+            dtm.addRow(new Object[]{getModeDescription(buttonMode, noBuffer, fastADC), nominal, calibrated});
+        }
+    }
+
     public abstract void onClose();
 
     public static void run(Device d, Runnable doneCallback) {
@@ -696,10 +1133,40 @@ public abstract class DriverTestMenu extends javax.swing.JFrame {
         ui.setVisible(true);
     }
 
+    /**
+     * Table model with read only columns of fixed types, used by the calibration and throughput tables
+     */
+    private static class ReadOnlyTableModel extends DefaultTableModel {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Class<?>[] types;
+
+        public ReadOnlyTableModel(String[] columns, Class<?>[] types) {
+            super(new Object[0][], columns);
+            this.types = types;
+        }
+
+        @Override
+        public Class<?> getColumnClass(int columnIndex) {
+            return types[columnIndex];
+        }
+
+        @Override
+        public boolean isCellEditable(int rowIndex, int columnIndex) {
+            return false;
+        }
+    }
+
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JButton jButton1;
     private javax.swing.JButton jButton2;
     private javax.swing.JButton jButton3;
+    private javax.swing.JButton jButton4;
+    private javax.swing.JButton jButton5;
+    private javax.swing.JButton jButton6;
+    private javax.swing.JButton jButton7;
+    private javax.swing.JButton jButton8;
     private javax.swing.JCheckBox jCheckBox1;
     private javax.swing.JCheckBox jCheckBox13;
     private javax.swing.JCheckBox jCheckBox2;
@@ -726,6 +1193,7 @@ public abstract class DriverTestMenu extends javax.swing.JFrame {
     private javax.swing.JLabel jLabel2;
     private javax.swing.JLabel jLabel20;
     private javax.swing.JLabel jLabel21;
+    private javax.swing.JLabel jLabel22;
     private javax.swing.JLabel jLabel23;
     private javax.swing.JLabel jLabel24;
     private javax.swing.JLabel jLabel25;
@@ -737,13 +1205,26 @@ public abstract class DriverTestMenu extends javax.swing.JFrame {
     private javax.swing.JLabel jLabel4;
     private javax.swing.JLabel jLabel5;
     private javax.swing.JLabel jLabel6;
+    private javax.swing.JLabel jLabel7;
+    private javax.swing.JLabel jLabel8;
     private javax.swing.JLabel jLabel9;
     private javax.swing.JPanel jPanel1;
     private javax.swing.JPanel jPanel2;
+    private javax.swing.JPanel jPanel3;
     private javax.swing.JPanel jPanel4;
+    private javax.swing.JPanel jPanel5;
+    private javax.swing.JPanel jPanel6;
+    private javax.swing.JScrollPane jScrollPane1;
+    private javax.swing.JScrollPane jScrollPane2;
+    private javax.swing.JScrollPane jScrollPane3;
     private javax.swing.JSpinner jSpinner1;
     private javax.swing.JSpinner jSpinner2;
+    private javax.swing.JSpinner jSpinner3;
+    private javax.swing.JSpinner jSpinner4;
     private javax.swing.JTabbedPane jTabbedPane1;
+    private javax.swing.JTable jTable1;
+    private javax.swing.JTable jTable2;
+    private javax.swing.JTextArea jTextArea1;
     // End of variables declaration//GEN-END:variables
 
 }
@@ -17,9 +17,10 @@
 package com.dosse.openldat.ui.tests.driver;
 
 import com.dosse.openldat.Utils;
-import com.dosse.openldat.processing.buffers.ArrayBuffer;
-import com.dosse.openldat.processing.filters.PeakHoldFilter;
-import com.dosse.openldat.processing.filters.RunningAverageSmoothingFilter;
+import com.dosse.openldat.processing.buffers.CompactArrayBuffer;
+import com.dosse.openldat.processing.buffers.CompactCircularBuffer;
+import com.dosse.openldat.processing.filters.CompactPeakHoldFilter;
+import com.dosse.openldat.processing.filters.CompactRunningAverageSmoothingFilter;
 import com.dosse.openldat.ui.chart.Channel;
 import com.dosse.openldat.ui.chart.Chart;
 import java.awt.Color;
@@ -150,7 +151,7 @@ public class DumpViewer extends javax.swing.JFrame {
     }// </editor-fold>//GEN-END:initComponents
 
     private double sampleRate;
-    private int[] samples;
+    private char[] samples; //dumps can be very long, so they're kept as 16 bit values
 
     private void jButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton1ActionPerformed
         JFileChooser c = new JFileChooser();
@@ -184,9 +185,9 @@ public class DumpViewer extends javax.swing.JFrame {
                 try {
                     DataInputStream dis = new DataInputStream(new FileInputStream(f));
                     sampleRate = dis.readDouble();
-                    samples = new int[(int) ((f.length() - 8) / 4)];
+                    samples = new char[(int) ((f.length() - 8) / 4)];
                     for (int i = 0; i < samples.length; i++) {
-                        samples[i] = dis.readInt();
+                        samples[i] = CompactCircularBuffer.compact(dis.readInt());
                     }
                     dis.close();
                     jButton2.setEnabled(true);
@@ -234,24 +235,21 @@ public class DumpViewer extends javax.swing.JFrame {
                     jButton2.setEnabled(false);
                     jComboBox1.setEnabled(false);
                     jLabel3.setText("Filtering...");
-                    int[] filtered = new int[samples.length];
-                    if (jComboBox1.getSelectedIndex() == 0) {
-                        filtered = samples;
-                    }
+                    char[] filtered = samples;
                     if (jComboBox1.getSelectedIndex() == 1) {
-                        RunningAverageSmoothingFilter f = new RunningAverageSmoothingFilter(samples.length, sampleRate > 14000 ? 0.996 : 0.99);
+                        CompactRunningAverageSmoothingFilter f = new CompactRunningAverageSmoothingFilter(samples.length, sampleRate > 14000 ? 0.996 : 0.99);
                         f.add(samples);
-                        filtered = f.getData();
+                        filtered = f.getInternalBuffer(); //the filter is exactly as long as the dump, so its buffer is already in order
                     }
                     if (jComboBox1.getSelectedIndex() == 2) {
-                        PeakHoldFilter f = new PeakHoldFilter(samples.length, (int) (sampleRate * 0.0085));
+                        CompactPeakHoldFilter f = new CompactPeakHoldFilter(samples.length, (int) (sampleRate * 0.0085));
                         f.add(samples);
-                        filtered = f.getData();
+                        filtered = f.getInternalBuffer();
                     }
                     jLabel3.setText("Rendering...");
                     Chart chart1 = new Chart();
                     chart1.setSize(new Dimension(samples.length, 1024));
-                    Channel ch = new Channel(new ArrayBuffer(filtered), 0, 1023, new Color(255, 255, 255));
+                    Channel ch = new Channel(new CompactArrayBuffer(filtered), 0, 1023, new Color(255, 255, 255));
                     chart1.addChannel(ch);
                     BufferedImage bi = new BufferedImage(chart1.getWidth(), chart1.getHeight(), BufferedImage.TYPE_INT_RGB);
                     Graphics2D tempg = bi.createGraphics();
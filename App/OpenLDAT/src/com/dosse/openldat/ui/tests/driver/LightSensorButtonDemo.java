@@ -18,7 +18,8 @@ package com.dosse.openldat.ui.tests.driver;
 
 import com.dosse.openldat.device.Device;
 import com.dosse.openldat.device.callbacks.LightSensorButtonCallback;
-import com.dosse.openldat.processing.buffers.CircularBuffer;
+import com.dosse.openldat.processing.buffers.BitCircularBuffer;
+import com.dosse.openldat.processing.buffers.SingleWriterCircularBuffer;
 import com.dosse.openldat.ui.chart.Channel;
 import com.dosse.openldat.ui.chart.Chart;
 import java.awt.Color;
@@ -45,7 +46,9 @@ public class LightSensorButtonDemo extends javax.swing.JFrame {
         try {
             initComponents();
             this.device = device;
-            CircularBuffer light = new CircularBuffer(windowSize), click = new CircularBuffer(windowSize);
+            SingleWriterCircularBuffer light = new SingleWriterCircularBuffer(windowSize);
+            BitCircularBuffer click = new BitCircularBuffer(windowSize);
+            device.setDispatchBufferSize(Device.INTERACTIVE_DISPATCH_BUFFER_SIZE);
             double sampleRate = device.lightSensorButtonMode(noBuffer, sensitivity, fastADC, noClick, autoFire, new LightSensorButtonCallback() {
                 @Override
                 public void onDataBufferReceived(int[] l, int[] c) {
@@ -128,6 +131,7 @@ public class LightSensorButtonDemo extends javax.swing.JFrame {
     private void formWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowClosing
         repaintTimer.stop();
         device.endCurrentActivity();
+        device.setDispatchBufferSize(Device.DEFAULT_DISPATCH_BUFFER_SIZE);
     }//GEN-LAST:event_formWindowClosing
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
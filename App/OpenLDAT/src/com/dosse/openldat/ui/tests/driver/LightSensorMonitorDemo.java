@@ -17,8 +17,10 @@
 package com.dosse.openldat.ui.tests.driver;
 
 import com.dosse.openldat.device.Device;
-import com.dosse.openldat.device.callbacks.LightSensorMonitorCallback;
-import com.dosse.openldat.processing.buffers.CircularBuffer;
+import com.dosse.openldat.device.bus.SampleBus;
+import com.dosse.openldat.device.bus.SampleSubscriber;
+import com.dosse.openldat.device.capture.MappedCaptureFile;
+import com.dosse.openldat.processing.buffers.SingleWriterCircularBuffer;
 import com.dosse.openldat.processing.filters.FFTFilter;
 import com.dosse.openldat.processing.filters.PeakHoldFilter;
 import com.dosse.openldat.processing.filters.RunningAverageSmoothingFilter;
@@ -27,8 +29,7 @@ import com.dosse.openldat.ui.chart.Chart;
 import java.awt.Color;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.DataOutputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import javax.swing.JOptionPane;
 import javax.swing.Timer;
 
@@ -40,7 +41,8 @@ public class LightSensorMonitorDemo extends javax.swing.JFrame {
 
     private Device device;
     private Timer repaintTimer = null;
-    private DataOutputStream dumpFile = null;
+    private MappedCaptureFile dumpFile = null;
+    private final SampleBus bus = new SampleBus();
 
     /**
      * Creates new form LightSensorMonitorDemo
@@ -49,68 +51,56 @@ public class LightSensorMonitorDemo extends javax.swing.JFrame {
         try {
             initComponents();
             this.device = device;
-            CircularBuffer light = new CircularBuffer(windowSize);
+            SingleWriterCircularBuffer light = new SingleWriterCircularBuffer(windowSize);
             FFTFilter fft = new FFTFilter(windowSize);
             RunningAverageSmoothingFilter smooth = new RunningAverageSmoothingFilter(windowSize, fastADC ? 0.996 : 0.99);
             double sampleRate = device.getLightSensorMonitorModeSampleRate(noBuffer, fastADC);
             PeakHoldFilter peak = new PeakHoldFilter(windowSize, (int) (sampleRate * 0.0085));
             if (dumpToFile) {
                 try {
-                    dumpFile = new DataOutputStream(new FileOutputStream("lightdump" + "_" + System.nanoTime() + "_" + sensitivity + "_" + ((int) sampleRate) + ".raw"));
-                    dumpFile.writeDouble(sampleRate);
+                    //written directly by the acquisition thread, so the dump doesn't lose samples even if the charts can't keep up
+                    dumpFile = new MappedCaptureFile(new File("lightdump" + "_" + System.nanoTime() + "_" + sensitivity + "_" + ((int) sampleRate) + ".raw"), sampleRate);
                 } catch (Throwable t) {
                     dumpFile = null;
                 }
             }
-            device.lightSensorMonitorMode(noBuffer, sensitivity, fastADC, new LightSensorMonitorCallback() {
+            //the raw signal and the smoothing filter are cheap, the FFT and the peak hold filter run on their own threads so they don't slow down the others
+            bus.subscribe(new SampleSubscriber() {
                 @Override
-                public void onDataBufferReceived(int[] data) {
+                public void onSamples(int[] data, int[] click) {
                     light.add(data);
-                    if (doFFT) {
-                        fft.add(data);
-                    }
                     if (doSmooth) {
                         smooth.add(data);
                     }
-                    if (doPeak) {
-                        peak.add(data);
-                    }
-                    if (dumpFile != null) {
-                        try {
-                            for (int i : data) {
-                                dumpFile.writeInt(i);
-                            }
-                        } catch (Throwable t) {
-                        }
-                    }
-                }
-
-                @Override
-                public void onDataSampleReceived(int data) {
-                    light.add(data);
-                    if (doFFT) {
-                        fft.add(data);
-                    }
-                    if (doSmooth) {
-                        smooth.add(data);
-                    }
-                    if (doPeak) {
-                        peak.add(data);
-                    }
-                    if (dumpFile != null) {
-                        try {
-                            dumpFile.writeInt(data);
-                        } catch (Throwable t) {
-                        }
-                    }
                 }
 
                 @Override
                 public void onError(Exception e) {
-                    super.onError(e);
+                    System.err.println("Light Sensor Monitor interrupted because " + e + ". Exception details: ");
+                    e.printStackTrace();
                     System.exit(2);
                 }
             });
+            if (doFFT) {
+                bus.subscribe(new SampleSubscriber() {
+                    @Override
+                    public void onSamples(int[] data, int[] click) {
+                        fft.add(data);
+                    }
+                }, SampleBus.COALESCE, windowSize);
+            }
+            if (doPeak) {
+                bus.subscribe(new SampleSubscriber() {
+                    @Override
+                    public void onSamples(int[] data, int[] click) {
+                        peak.add(data);
+                    }
+                }, SampleBus.COALESCE, windowSize);
+            }
+            //the bus runs on the dispatch thread, so a slow chart makes it drop samples instead of making the reader fall behind. The dump file is still written by the reader
+            device.setDispatchBufferSize(Device.INTERACTIVE_DISPATCH_BUFFER_SIZE);
+            device.setCaptureSink(dumpFile);
+            device.lightSensorMonitorMode(noBuffer, sensitivity, fastADC, bus.getMonitorCallback());
             Channel chLight = new Channel(light, 0, 1023, new Color(192, 192, 192)),
                     chFFT = new Channel(fft, 0, 2000, new Color(192, 128, 32)),
                     chSmooth = new Channel(smooth, 0, 1023, new Color(0, 64, 255)),
@@ -176,9 +166,11 @@ public class LightSensorMonitorDemo extends javax.swing.JFrame {
     private void formWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowClosing
         repaintTimer.stop();
         device.endCurrentActivity();
+        device.setCaptureSink(null);
+        device.setDispatchBufferSize(Device.DEFAULT_DISPATCH_BUFFER_SIZE);
+        bus.close();
         if (dumpFile != null) {
             try {
-                dumpFile.flush();
                 dumpFile.close();
             } catch (Throwable t) {
             }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.ui.tests.driver;
+
+import com.dosse.openldat.Utils;
+import com.dosse.openldat.device.Device;
+import com.dosse.openldat.device.DeviceMetrics;
+import com.dosse.openldat.device.Histogram;
+import com.dosse.openldat.device.callbacks.LightSensorButtonCallback;
+import com.dosse.openldat.device.callbacks.LightSensorMonitorCallback;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Runs one light sensor mode for a fixed time and measures how well the host keeps up with it: achieved sample rate, samples lost on the way,
+ * time from reading the data to delivering it to the callback, and CPU time used by the acquisition threads
+ *
+ * @author dosse
+ */
+public class ThroughputBenchmark {
+
+    private static final long WARMUP_MS = 500;
+
+    private final boolean buttonMode, noBuffer, fastADC;
+    private final double nominalSampleRate, sampleRate, lossRate, cpuUsage;
+    private final long samples, droppedSamples, lostSamples, corruptFrames;
+    private final double latencyP50, latencyP99, latencyMax;
+
+    /**
+     * Runs the benchmark. Blocks for durationMs plus a short warmup
+     *
+     * @throws Exception if the acquisition can't be started or fails
+     */
+    public ThroughputBenchmark(Device device, boolean buttonMode, boolean noBuffer, boolean fastADC, long durationMs) throws Exception {
+        this.buttonMode = buttonMode;
+        this.noBuffer = noBuffer;
+        this.fastADC = fastADC;
+        nominalSampleRate = buttonMode ? Device.getNominalLightSensorButtonModeSampleRate(noBuffer, fastADC) : Device.getNominalLightSensorMonitorModeSampleRate(noBuffer, fastADC);
+        Histogram latency = new Histogram();
+        Exception[] error = new Exception[1];
+        if (buttonMode) {
+            device.lightSensorButtonMode(noBuffer, (byte) 0, fastADC, true, false, new LightSensorButtonCallback() {
+                @Override
+                public void onDataBufferReceived(int[] light, int[] click, long timestamp, long sequence) {
+                    latency.record(System.nanoTime() - timestamp);
+                }
+
+                @Override
+                public void onDataSampleReceived(int light, int click, long timestamp, long sequence) {
+                    latency.record(System.nanoTime() - timestamp);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    error[0] = e;
+                }
+            });
+        } else {
+            device.lightSensorMonitorMode(noBuffer, (byte) 0, fastADC, new LightSensorMonitorCallback() {
+                @Override
+                public void onDataBufferReceived(int[] data, long timestamp, long sequence) {
+                    latency.record(System.nanoTime() - timestamp);
+                }
+
+                @Override
+                public void onDataSampleReceived(int data, long timestamp, long sequence) {
+                    latency.record(System.nanoTime() - timestamp);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    error[0] = e;
+                }
+            });
+        }
+        DeviceMetrics metrics = device.getMetrics();
+        long cpu;
+        double t;
+        try {
+            //the first samples after starting an acquisition aren't representative
+            Utils.sleep(WARMUP_MS);
+            metrics.reset();
+            latency.reset();
+            cpu = getAcquisitionCpuTime();
+            Utils.sleep(durationMs);
+            //the threads are gone once the acquisition ends, so the cpu time must be read before that
+            cpu = getAcquisitionCpuTime() - cpu;
+            t = metrics.getElapsedTime();
+        } finally {
+            device.endCurrentActivity();
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+        samples = metrics.getSamples();
+        droppedSamples = metrics.getDroppedSamples();
+        lostSamples = metrics.getLostSamples();
+        corruptFrames = metrics.getCorruptFrames();
+        sampleRate = t <= 0 ? 0 : samples / t;
+        long total = samples + droppedSamples + lostSamples;
+        lossRate = total == 0 ? 0 : (double) (droppedSamples + lostSamples) / total;
+        cpuUsage = cpu < 0 || t <= 0 ? -1 : cpu / 1000000000.0 / t;
+        latencyP50 = latency.getPercentile(0.5) / 1000000.0;
+        latencyP99 = latency.getPercentile(0.99) / 1000000.0;
+        latencyMax = latency.getMax() / 1000000.0;
+    }
+
+    /**
+     * @return total cpu time used so far by the threads of the current acquisition in nanoseconds, or -1 if the JVM can't measure it
+     */
+    private static long getAcquisitionCpuTime() {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!mx.isThreadCpuTimeSupported()) {
+            return -1;
+        }
+        if (!mx.isThreadCpuTimeEnabled()) {
+            mx.setThreadCpuTimeEnabled(true);
+        }
+        long total = 0;
+        for (ThreadInfo i : mx.getThreadInfo(mx.getAllThreadIds())) {
+            if (i != null && (i.getThreadName().equals("OpenLDAT reader") || i.getThreadName().equals("OpenLDAT dispatcher"))) {
+                long c = mx.getThreadCpuTime(i.getThreadId());
+                if (c > 0) {
+                    total += c;
+                }
+            }
+        }
+        return total;
+    }
+
+    public boolean isButtonMode() {
+        return buttonMode;
+    }
+
+    public boolean isNoBuffer() {
+        return noBuffer;
+    }
+
+    public boolean isFastADC() {
+        return fastADC;
+    }
+
+    public double getNominalSampleRate() {
+        return nominalSampleRate;
+    }
+
+    /**
+     * @return samples per second actually delivered to the callback
+     */
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return fraction of the samples sent by the device that didn't reach the callback (0-1)
+     */
+    public double getLossRate() {
+        return lossRate;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    public long getLostSamples() {
+        return lostSamples;
+    }
+
+    public long getCorruptFrames() {
+        return corruptFrames;
+    }
+
+    /**
+     * @return median time between reading a block and delivering it to the callback, in milliseconds
+     */
+    public double getLatencyP50() {
+        return latencyP50;
+    }
+
+    /**
+     * @return 99th percentile of the delivery latency, in milliseconds
+     */
+    public double getLatencyP99() {
+        return latencyP99;
+    }
+
+    /**
+     * @return worst delivery latency, in milliseconds
+     */
+    public double getLatencyMax() {
+        return latencyMax;
+    }
+
+    /**
+     * @return cpu time used by the acquisition threads as a fraction of one core, or -1 if not available
+     */
+    public double getCpuUsage() {
+        return cpuUsage;
+    }
+
+    public static String getCSVHeader() {
+        return "Mode,Unbuffered,Fast ADC,Nominal (Hz),Achieved (Hz),Samples,Dropped,Lost,Corrupt frames,Loss (%),Latency p50 (ms),Latency p99 (ms),Latency max (ms),CPU (%)";
+    }
+
+    public String toCSV() {
+        return String.format(Locale.ROOT, "%s,%b,%b,%.1f,%.1f,%d,%d,%d,%d,%.4f,%.3f,%.3f,%.3f,%s", buttonMode ? "Light sensor + Button" : "Light sensor", noBuffer, fastADC, nominalSampleRate, sampleRate, samples, droppedSamples, lostSamples, corruptFrames, lossRate * 100, latencyP50, latencyP99, latencyMax, cpuUsage < 0 ? "" : String.format(Locale.ROOT, "%.2f", cpuUsage * 100));
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2021 Federico Dossena
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.dosse.openldat.ui.tests.driver;
+
+import com.dosse.openldat.Utils;
+import com.dosse.openldat.device.Device;
+import com.dosse.openldat.device.callbacks.EdgeCallback;
+import com.dosse.openldat.device.transport.LoopbackTransport;
+import com.dosse.openldat.device.virtual.ClickToPhotonDisplay;
+import com.dosse.openldat.device.virtual.SimulatedDevice;
+import com.dosse.openldat.device.virtual.VirtualFirmware;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Checks the driver against the virtual devices without any hardware or UI, so it can be repeated anywhere (for instance in CI). Started with the --selftest argument.
+ * Every light sensor mode is benchmarked on the virtual firmware, checking that the samples arrive at the nominal rate and that none are lost or damaged,
+ * then the input lag of a simulated display is measured in edge mode, checking the number of clicks and their click-to-photon delay
+ *
+ * @author dosse
+ */
+public class VirtualDeviceCheck {
+
+    private static final long BENCHMARK_DURATION_MS = 1000, EDGE_DURATION_MS = 3000;
+    private static final double RATE_TOLERANCE = 0.05; //max deviation of the achieved sample rate from the nominal one
+    private static final double CLICK_INTERVAL_MS = 250, REFRESH_RATE = 60, DELAY_MS = 30, FLASH_MS = 100;
+    private static final int RISE_THRESHOLD = 150, FALL_THRESHOLD = 350;
+
+    private final PrintStream out;
+    private int failures = 0;
+
+    private VirtualDeviceCheck(PrintStream out) {
+        this.out = out;
+    }
+
+    private void check(boolean ok, String what) {
+        out.println((ok ? "PASS " : "FAIL ") + what);
+        if (!ok) {
+            failures++;
+        }
+    }
+
+    private void checkModes() throws Exception {
+        Device d = new Device(new LoopbackTransport(new VirtualFirmware()));
+        try {
+            out.println(ThroughputBenchmark.getCSVHeader());
+            for (int i = 0; i < 8; i++) {
+                ThroughputBenchmark b = new ThroughputBenchmark(d, (i & 4) != 0, (i & 2) != 0, (i & 1) != 0, BENCHMARK_DURATION_MS);
+                out.println(b.toCSV());
+                String mode = (b.isButtonMode() ? "button" : "monitor") + (b.isNoBuffer() ? " unbuffered" : " buffered") + (b.isFastADC() ? " fast ADC" : "");
+                long expected = (long) (b.getNominalSampleRate() * BENCHMARK_DURATION_MS / 1000.0);
+                check(b.getSamples() > expected * (1 - RATE_TOLERANCE), mode + ": " + b.getSamples() + " samples decoded, expected about " + expected);
+                check(Math.abs(b.getSampleRate() / b.getNominalSampleRate() - 1) <= RATE_TOLERANCE, mode + ": " + String.format(Locale.ROOT, "%.1f", b.getSampleRate()) + " Hz, nominal " + String.format(Locale.ROOT, "%.1f", b.getNominalSampleRate()) + " Hz");
+                check(b.getDroppedSamples() == 0 && b.getLostSamples() == 0 && b.getCorruptFrames() == 0, mode + ": no samples dropped, lost or corrupt");
+            }
+        } finally {
+            d.close();
+        }
+    }
+
+    private void checkInputLag() throws Exception {
+        SimulatedDevice fw = new SimulatedDevice(new ClickToPhotonDisplay(REFRESH_RATE, DELAY_MS, FLASH_MS));
+        fw.setClickInterval(CLICK_INTERVAL_MS);
+        Device d = new Device(new LoopbackTransport(fw));
+        ArrayList<Double> delays = new ArrayList<>();
+        int[] clicks = {0};
+        long[] lastClick = {-1};
+        Exception[] error = new Exception[1];
+        try {
+            d.lightSensorEdgeMode(false, (byte) 0, true, false, false, RISE_THRESHOLD, FALL_THRESHOLD, new EdgeCallback() {
+                @Override
+                public void onClick(long time, int light) {
+                    clicks[0]++;
+                    lastClick[0] = time;
+                }
+
+                @Override
+                public void onRise(long time, int light) {
+                    if (lastClick[0] != -1) {
+                        synchronized (delays) {
+                            delays.add((time - lastClick[0]) / 1000.0);
+                        }
+                        lastClick[0] = -1;
+                    }
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    error[0] = e;
+                }
+            });
+            Utils.sleep(EDGE_DURATION_MS);
+        } finally {
+            d.endCurrentActivity();
+            d.close();
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+        int expected = (int) (EDGE_DURATION_MS / CLICK_INTERVAL_MS);
+        check(Math.abs(clicks[0] - expected) <= 1, "edge mode: " + clicks[0] + " clicks, expected " + expected);
+        check(delays.size() >= clicks[0] - 1 && !delays.isEmpty(), "edge mode: " + delays.size() + " flashes matched to clicks");
+        //the flash starts at the first refresh after the delay, the sample period adds a little more
+        double min = Double.MAX_VALUE, max = 0, maxExpected = DELAY_MS + 1000.0 / REFRESH_RATE + 1;
+        synchronized (delays) {
+            for (double l : delays) {
+                min = Math.min(min, l);
+                max = Math.max(max, l);
+            }
+        }
+        check(min >= DELAY_MS && max <= maxExpected, "edge mode: click to photon delays between " + String.format(Locale.ROOT, "%.2f", min) + " and " + String.format(Locale.ROOT, "%.2f", max) + " ms, expected " + String.format(Locale.ROOT, "%.0f-%.2f", DELAY_MS, maxExpected));
+    }
+
+    /**
+     * Runs all the checks, printing the results
+     *
+     * @return true if all the checks passed
+     */
+    public static boolean run(PrintStream out) {
+        VirtualDeviceCheck c = new VirtualDeviceCheck(out);
+        try {
+            c.checkModes();
+            c.checkInputLag();
+        } catch (Exception ex) {
+            out.println("FAIL " + ex);
+            ex.printStackTrace(out);
+            return false;
+        }
+        out.println(c.failures == 0 ? "All checks passed" : c.failures + " checks failed");
+        return c.failures == 0;
+    }
+
+}
@@ -208,7 +208,7 @@ public abstract class InputLagTestStarter extends javax.swing.JFrame {
 
         jLabel5.setText("Test duration");
 
-        jComboBox4.setModel(new javax.swing.DefaultComboBoxModel<>(new String[] { "20 seconds", "1 minute", "2 minutes", "5 minutes" }));
+        jComboBox4.setModel(new javax.swing.DefaultComboBoxModel<>(new String[] { "20 seconds", "1 minute", "2 minutes", "5 minutes", "100 clicks", "500 clicks", "1000 clicks" }));
         jComboBox4.setSelectedIndex(1);
 
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(getContentPane());
@@ -277,6 +277,7 @@ public abstract class InputLagTestStarter extends javax.swing.JFrame {
         notesUpdater.stop();
         int vsyncMode = jComboBox1.getSelectedIndex();
         long fakeCPULoadMs = 0, fakeGPULoadMs = 0, duration = 20000;
+        int clicks = 0;
         if (jComboBox2.getSelectedIndex() > 0) {
             fakeCPULoadMs = Long.parseLong(((String) jComboBox2.getSelectedItem()).split(" ")[0].trim());
         }
@@ -296,9 +297,13 @@ public abstract class InputLagTestStarter extends javax.swing.JFrame {
             case 3:
                 duration = 300000;
                 break;
+            default: //run until the selected number of clicks was measured
+                duration = 0;
+                clicks = Integer.parseInt(((String) jComboBox4.getSelectedItem()).split(" ")[0].trim());
+                break;
         }
         String vSyncModeString = (String) jComboBox1.getSelectedItem(), fakeCPULoadString = (String) jComboBox2.getSelectedItem(), fakeGPULoadString = (String) jComboBox3.getSelectedItem();
-        InputLagTest test = new InputLagTest(d, duration, vsyncMode, fakeCPULoadMs, fakeGPULoadMs) {
+        InputLagTest test = new InputLagTest(d, duration, clicks, vsyncMode, fakeCPULoadMs, fakeGPULoadMs) {
             @Override
             public void onDone(Map results) {
                 EventQueue.invokeLater(new Runnable() {
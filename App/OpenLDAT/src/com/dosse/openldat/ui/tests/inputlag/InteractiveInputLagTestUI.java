@@ -17,8 +17,9 @@
 package com.dosse.openldat.ui.tests.inputlag;
 
 import com.dosse.openldat.device.Device;
-import com.dosse.openldat.processing.buffers.CircularBuffer;
 import com.dosse.openldat.processing.buffers.ArrayBuffer;
+import com.dosse.openldat.processing.buffers.BitCircularBuffer;
+import com.dosse.openldat.processing.buffers.SingleWriterCircularBuffer;
 import com.dosse.openldat.tests.inputlag.InteractiveInputLagTest;
 import com.dosse.openldat.ui.chart.Channel;
 import com.dosse.openldat.Utils;
@@ -59,7 +60,8 @@ public abstract class InteractiveInputLagTestUI extends javax.swing.JFrame {
     public InteractiveInputLagTestUI(Device d) {
         this.d = d;
         initComponents();
-        CircularBuffer lightWindow = new CircularBuffer(65536), clickWindow = new CircularBuffer(65536);
+        SingleWriterCircularBuffer lightWindow = new SingleWriterCircularBuffer(65536);
+        BitCircularBuffer clickWindow = new BitCircularBuffer(65536);
         chart1.addChannel(new Channel(lightWindow, 0, 800, new Color(255, 255, 255)));
         chart1.addChannel(new Channel(clickWindow, 0, 1, new Color(96, 128, 255)));
         chart1.addChannel(new Channel(new ArrayBuffer(threshold), 0, 800, new Color(96, 255, 128)));
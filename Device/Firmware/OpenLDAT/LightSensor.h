@@ -6,6 +6,10 @@
 #define LARGE_BUFFER_SIZE 32
 
 #define COMMAND_LIGHTSENSOR   0x4C  //monitor/autofire/button mode (L)
+#define COMMAND_SHOT          0x53  //take N samples (uint16, sent after the flags) and only send min/max/sum and a histogram (S). Uses the same flags as COMMAND_LIGHTSENSOR for sensitivity and ADC speed
+#define COMMAND_DEADBAND      0x5A  //run length encoding for the framed monitor mode (Z). The flags are 0 to disable it, otherwise the deadband+1. Stays set until changed
+#define COMMAND_RECONFIGURE   0x52  //change sensitivity, autofire and noclick of the running framed acquisition (R). The flags are the new flags, the change happens between two frames
+#define COMMAND_EDGE          0x45  //edge mode, only send clicks, threshold crossings and the peak level as events (E). Rise and fall thresholds (uint16) are sent after the flags. Uses the same flags as COMMAND_LIGHTSENSOR, except for MONITOR, NOBUFFER and FRAMED
 
 #define FEATURE_AUTOFIRE  0b00000001 //automatically generate clicks at ~1hz
 #define FEATURE_NOBUFFER  0b00000010 //use unbuffered mode, slower sampling but captures 100% of the signal
@@ -14,7 +18,23 @@
 #define FEATURE_NOCLICK   0b00010000 //don't send clicks to PC (will still be visible in the app and the LED)
 #define FEATURE_FASTADC   0b00100000 //fast ADC=26us conversion, accurate ADC=104us conversion
 #define FEATURE_HIGHSENS2 0b01000000 //increases sensor gain (msb)
-//#define FEATURE_7       0b10000000
+#define FEATURE_FRAMED    0b10000000 //protocol v2: send packed 10 bit samples in frames with sequence number and checksum (buffered modes only)
+
+#define FRAME_SYNC             0xA5
+#define FRAME_TYPE_LIGHT       0x01
+#define FRAME_TYPE_LIGHT_CLICK 0x02
+#define FRAME_TYPE_SHOT        0x03
+#define FRAME_TYPE_EVENTS      0x04
+#define FRAME_TYPE_RUNS        0x05
+#define FRAME_FLAG_RECONFIGURED 0x40 //set in the type of the first frame after a reconfiguration, followed by the new flags after the count
+#define EVENT_CLICK 1
+#define EVENT_RISE  2
+#define EVENT_FALL  3
+#define EVENT_PEAK  4
+#define EVENT_SIZE  7 //kind, time in us (uint32), light (uint16)
+#define EDGE_PEAK_INTERVAL_US 50000
+#define SHOT_HISTOGRAM_BINS    128
+#define FRAME_SIZE(n, click) (4 + (((n) + 3) / 4) * 5 + ((click) ? ((n) + 7) / 8 : 0) + 2)
 
 #define PIN_BUTTON_INPUT 7
 
@@ -58,7 +78,7 @@ void autofireISR_noclick() {
 }
 
 
-void lightSensor_resetPins() {
+void lightSensor_resetButton() {
   //disable button power and set pin to high impedance
   digitalWrite(4, LOW);
   pinMode(4, INPUT);
@@ -69,6 +89,10 @@ void lightSensor_resetPins() {
   detachInterrupt(digitalPinToInterrupt(7));
   //set pin 7 as input for button/autofire
   pinMode(PIN_BUTTON_INPUT, INPUT);
+}
+
+void lightSensor_resetPins() {
+  lightSensor_resetButton();
   //set pins 14,15 to high impedance (max sensitivity)
   pinMode(14, INPUT);
   pinMode(15, INPUT);
@@ -121,16 +145,109 @@ void lightSensor_unbuffered_monitor() {
   OSCILLOSCOPE_DEBUG_END();
 }
 
-void lightSensor_buffered_monitor() {
+uint8_t frameSequence = 0;
+int16_t frameMarker = -1; //new flags to send with the next frame after a reconfiguration
+
+//sends a frame of the framed stream: sync, type, sequence, count, samples packed 4 in 5 bytes (low bytes then high bits), click bits (if any), fletcher-16 checksum
+void lightSensor_sendFrame(byte* frame, int* samples, byte* clicks, uint8_t n) {
+  byte* p = frame;
+  *p++ = FRAME_SYNC;
+  *p++ = (clicks ? FRAME_TYPE_LIGHT_CLICK : FRAME_TYPE_LIGHT) | (frameMarker != -1 ? FRAME_FLAG_RECONFIGURED : 0);
+  *p++ = frameSequence++;
+  *p++ = n;
+  if (frameMarker != -1) *p++ = frameMarker;
+  frameMarker = -1;
+  for (uint8_t i = 0; i < n; i += 4) {
+    byte hi = 0;
+    for (uint8_t j = 0; j < 4; j++) {
+      int v = i + j < n ? samples[i + j] : 0;
+      *p++ = v & 0xFF;
+      hi |= (v >> 8) << (2 * j);
+    }
+    *p++ = hi;
+  }
+  if (clicks) {
+    for (uint8_t i = 0; i < n; i += 8) {
+      byte b = 0;
+      for (uint8_t j = 0; j < 8 && i + j < n; j++) {
+        if (clicks[i + j]) b |= 1 << j;
+      }
+      *p++ = b;
+    }
+  }
+  byte s1 = 0, s2 = 0;
+  for (byte* c = frame + 1; c < p; c++) {
+    s1 += *c;
+    s2 += s1;
+  }
+  *p++ = s1;
+  *p++ = s2;
+  Serial.write(frame, p - frame);
+}
+
+byte deadband = 0;
+
+//sends a run length frame: sync, type, sequence, number of runs, runs (value uint16, length uint8), fletcher-16 checksum. Returns false without sending anything if it wouldn't be smaller than a regular frame
+bool lightSensor_sendRunsFrame(byte* frame, int* samples, uint8_t n) {
+  uint8_t maxRuns = (FRAME_SIZE(n, false) - 6) / 3, runs = 0;
+  byte* p = frame + (frameMarker != -1 ? 5 : 4);
+  for (uint8_t i = 0; i < n;) {
+    int v = samples[i];
+    uint8_t l = 1;
+    while (i + l < n && abs(samples[i + l] - v) <= deadband - 1) l++;
+    if (++runs > maxRuns) return false;
+    *p++ = v & 0xFF;
+    *p++ = v >> 8;
+    *p++ = l;
+    i += l;
+  }
+  frame[0] = FRAME_SYNC;
+  frame[1] = FRAME_TYPE_RUNS | (frameMarker != -1 ? FRAME_FLAG_RECONFIGURED : 0);
+  frame[2] = frameSequence++;
+  frame[3] = runs;
+  if (frameMarker != -1) frame[4] = frameMarker;
+  frameMarker = -1;
+  byte s1 = 0, s2 = 0;
+  for (byte* c = frame + 1; c < p; c++) {
+    s1 += *c;
+    s2 += s1;
+  }
+  *p++ = s1;
+  *p++ = s2;
+  Serial.write(frame, p - frame);
+  return true;
+}
+
+void lightSensor_setGain(byte flags);
+void lightSensor_setupButton(byte flags);
+
+//called before each sample by the buffered loops. Anything sent by the app ends the acquisition, except for a reconfiguration of a framed acquisition, that is applied before the next frame so that there's no gap
+bool lightSensor_keepRunning(bool framed, uint8_t counter, bool click) {
+  if (!Serial.available()) return true;
+  if (!framed || Serial.peek() != COMMAND_RECONFIGURE) return false;
+  if (counter != 0 || Serial.available() < 2) return true;
+  Serial.read();
+  byte flags = Serial.read();
+  if (click) {
+    lightSensor_resetButton();
+    lightSensor_setupButton(flags);
+  }
+  lightSensor_setGain(flags);
+  frameMarker = flags;
+  return true;
+}
+
+void lightSensor_buffered_monitor(bool framed) {
   //code for just monitoring, faster
   OSCILLOSCOPE_DEBUG_INIT();
   uint8_t counter = 0;
   int* buffer = (int*)malloc(LARGE_BUFFER_SIZE * sizeof(int));
+  byte* frame = framed ? (byte*)malloc(FRAME_SIZE(LARGE_BUFFER_SIZE, false) + 1) : NULL; //+1 for the marker
   #ifdef SERIAL_DEBUG
   Serial.println(F("A0"));
   #endif
   OSCILLOSCOPE_DEBUG_PULSE();
-  while (!Serial.available()) {
+  while (lightSensor_keepRunning(framed, counter, false)) {
     buffer[counter] = analogRead(A0);
     if (++counter == LARGE_BUFFER_SIZE) {
       OSCILLOSCOPE_DEBUG_PULSE();
@@ -139,29 +256,33 @@ void lightSensor_buffered_monitor() {
         Serial.println(buffer[counter]);
       }
       #else
-      Serial.write((byte*)buffer, LARGE_BUFFER_SIZE * sizeof(int));
+      if (framed) {
+        if (!(deadband && lightSensor_sendRunsFrame(frame, buffer, LARGE_BUFFER_SIZE))) lightSensor_sendFrame(frame, buffer, NULL, LARGE_BUFFER_SIZE);
+      } else Serial.write((byte*)buffer, LARGE_BUFFER_SIZE * sizeof(int));
       #endif
       counter = 0;
       OSCILLOSCOPE_DEBUG_PULSE();
     }
   }
-  //release buffer
+  //release buffers
   free(buffer);
+  if (frame) free(frame);
   OSCILLOSCOPE_DEBUG_END();
 }
 
-void lightSensor_buffered_click() {
+void lightSensor_buffered_click(bool framed) {
   //code for both monitoring and clicking, slower
   OSCILLOSCOPE_DEBUG_INIT();
   uint8_t counter = 0;
   byte* buffer = (byte*)malloc(SMALL_BUFFER_SIZE * (sizeof(int) + sizeof(byte)));
   int* sbuffer = (int*)buffer;
   byte* bbuffer = buffer + SMALL_BUFFER_SIZE * sizeof(int);
+  byte* frame = framed ? (byte*)malloc(FRAME_SIZE(SMALL_BUFFER_SIZE, true) + 1) : NULL; //+1 for the marker
   #ifdef SERIAL_DEBUG
   Serial.println(F("Light,Click"));
   #endif
   OSCILLOSCOPE_DEBUG_PULSE();
-  while (!Serial.available()) {
+  while (lightSensor_keepRunning(framed, counter, true)) {
     sbuffer[counter] = analogRead(A0);
     bbuffer[counter] = buttonPressed;
     buttonPressed = 0;
@@ -174,47 +295,30 @@ void lightSensor_buffered_click() {
         Serial.println(bbuffer[counter]);
       }
       #else
-      Serial.write(buffer, SMALL_BUFFER_SIZE * (sizeof(int) + sizeof(byte)));
+      if (framed) lightSensor_sendFrame(frame, sbuffer, bbuffer, SMALL_BUFFER_SIZE); else Serial.write(buffer, SMALL_BUFFER_SIZE * (sizeof(int) + sizeof(byte)));
       #endif
       counter = 0;
       OSCILLOSCOPE_DEBUG_PULSE();
     }
   }
-  //release buffer
+  //release buffers
   free(buffer);
+  if (frame) free(frame);
   OSCILLOSCOPE_DEBUG_END();
 }
 
-void lightSensor(byte flags) {
-  //set up automatic or manual clicking if requested
-  if (!(flags & FEATURE_MONITOR)) {
-    if (flags & FEATURE_AUTOFIRE) {
-      //configure pin 6 to generate ~1hz pulses for autofire
-      pinMode(6, OUTPUT);
-      noInterrupts();
-      TCCR4C |= _BV(COM4D1);
-      TCCR4C &= ~(_BV(COM4D0));
-      OCR4D = 64;
-      TCCR4B &= ~(_BV(CS43) | _BV(CS42) | _BV(CS41) | _BV(CS40));
-      TCCR4B |= _BV(CS43) | _BV(CS42) | _BV(CS41) | _BV(CS40);
-      TCCR4D &= ~(_BV(WGM41) | _BV(WGM40));
-      TC4H = 3;
-      OCR4C = 255;
-      TCNT4H = 0;
-      TCNT4 = 0;
-      interrupts();
-      attachInterrupt(digitalPinToInterrupt(PIN_BUTTON_INPUT), (flags&FEATURE_NOCLICK)?autofireISR_noclick:autofireISR, CHANGE);
-    } else {
-      //enable button power
-      pinMode(4, OUTPUT);
-      digitalWrite(4, HIGH);
-      attachInterrupt(digitalPinToInterrupt(PIN_BUTTON_INPUT), (flags&FEATURE_NOCLICK)?buttonISR_noclick:buttonISR, CHANGE);
-    }
-  }
+//configures ADC speed and sensor gain
+void lightSensor_setup(byte flags) {
   //configure ADC
   if (flags & FEATURE_FASTADC) ADCSRA = (ADCSRA & 0xF80) | 0x05; else ADCSRA = (ADCSRA & 0xF80) | 0x07;
   ADCSRB |= (1<<ADHSM);
-  //select sensor gain
+  lightSensor_setGain(flags);
+  //discharge static (probably not necessary)
+  for(int i=0;i<100;i++) analogRead(A0);
+}
+
+//selects sensor gain
+void lightSensor_setGain(byte flags) {
   /* HIGHSENS2 | HIGHSENS1 | GAIN   | RESISTANCE between sensor- and gnd
    *    0           0        Low       14.3k (330k, 47k, 22k)
    *    0           1        Mid       20.6k (330k, 22k)
@@ -235,8 +339,166 @@ void lightSensor(byte flags) {
     pinMode(14,OUTPUT);
     digitalWrite(14,LOW);  
   }
-  //discharge static (probably not necessary)
-  for(int i=0;i<100;i++) analogRead(A0);
+}
+
+byte shotS1, shotS2;
+//sends data as part of the shot reply, updating the checksum
+void lightSensor_shotWrite(byte* data, uint8_t n) {
+  for (uint8_t i = 0; i < n; i++) {
+    shotS1 += data[i];
+    shotS2 += shotS1;
+  }
+  Serial.write(data, n);
+}
+
+void lightSensor_shot(byte flags) {
+  while (Serial.available() < 2);
+  uint16_t n = Serial.read();
+  n |= ((uint16_t)Serial.read()) << 8;
+  lightSensor_setup(flags);
+  uint16_t* histogram = (uint16_t*)calloc(SHOT_HISTOGRAM_BINS, sizeof(uint16_t));
+  uint16_t vmin = 1023, vmax = 0;
+  uint32_t sum = 0;
+  for (uint16_t i = 0; i < n; i++) {
+    uint16_t v = analogRead(A0);
+    if (v < vmin) vmin = v;
+    if (v > vmax) vmax = v;
+    sum += v;
+    histogram[v >> 3]++;
+  }
+  //reply: sync, type, n, min, max, sum, histogram (all little endian), fletcher-16 of everything after the sync byte
+  Serial.write(FRAME_SYNC);
+  shotS1 = 0;
+  shotS2 = 0;
+  byte type = FRAME_TYPE_SHOT;
+  lightSensor_shotWrite(&type, 1);
+  lightSensor_shotWrite((byte*)&n, 2);
+  lightSensor_shotWrite((byte*)&vmin, 2);
+  lightSensor_shotWrite((byte*)&vmax, 2);
+  lightSensor_shotWrite((byte*)&sum, 4);
+  for (uint8_t i = 0; i < SHOT_HISTOGRAM_BINS; i++) {
+    lightSensor_shotWrite((byte*)&histogram[i], 2);
+  }
+  Serial.write(shotS1);
+  Serial.write(shotS2);
+  free(histogram);
+  lightSensor_resetPins();
+}
+
+//sets up automatic or manual clicking
+void lightSensor_setupButton(byte flags) {
+  if (flags & FEATURE_AUTOFIRE) {
+    //configure pin 6 to generate ~1hz pulses for autofire
+    pinMode(6, OUTPUT);
+    noInterrupts();
+    TCCR4C |= _BV(COM4D1);
+    TCCR4C &= ~(_BV(COM4D0));
+    OCR4D = 64;
+    TCCR4B &= ~(_BV(CS43) | _BV(CS42) | _BV(CS41) | _BV(CS40));
+    TCCR4B |= _BV(CS43) | _BV(CS42) | _BV(CS41) | _BV(CS40);
+    TCCR4D &= ~(_BV(WGM41) | _BV(WGM40));
+    TC4H = 3;
+    OCR4C = 255;
+    TCNT4H = 0;
+    TCNT4 = 0;
+    interrupts();
+    attachInterrupt(digitalPinToInterrupt(PIN_BUTTON_INPUT), (flags&FEATURE_NOCLICK)?autofireISR_noclick:autofireISR, CHANGE);
+  } else {
+    //enable button power
+    pinMode(4, OUTPUT);
+    digitalWrite(4, HIGH);
+    attachInterrupt(digitalPinToInterrupt(PIN_BUTTON_INPUT), (flags&FEATURE_NOCLICK)?buttonISR_noclick:buttonISR, CHANGE);
+  }
+}
+
+byte* edgeEvent;
+//adds an event to the frame being built
+void lightSensor_edgeEvent(byte kind, uint32_t t, uint16_t v) {
+  *edgeEvent++ = kind;
+  memcpy(edgeEvent, &t, 4);
+  edgeEvent += 4;
+  memcpy(edgeEvent, &v, 2);
+  edgeEvent += 2;
+}
+
+void lightSensor_edge(byte flags) {
+  while (Serial.available() < 4);
+  uint16_t rise = Serial.read();
+  rise |= ((uint16_t)Serial.read()) << 8;
+  uint16_t fall = Serial.read();
+  fall |= ((uint16_t)Serial.read()) << 8;
+  lightSensor_setupButton(flags);
+  lightSensor_setup(flags);
+  OSCILLOSCOPE_DEBUG_INIT();
+  //at most 3 events per sample (click, rise or fall, peak)
+  byte* frame = (byte*)malloc(4 + 3 * EVENT_SIZE + 2);
+  int8_t state = -1; //-1=waiting for first click, 0=dark, 1=light
+  uint16_t previous = 0, peak = 0;
+  uint32_t start = micros(), lastPeak = 0;
+  frameSequence = 0;
+  while (!Serial.available()) {
+    OSCILLOSCOPE_DEBUG_PULSE();
+    uint16_t v = analogRead(A0);
+    uint32_t t = micros() - start;
+    byte click = buttonPressed;
+    buttonPressed = 0;
+    edgeEvent = frame + 4;
+    switch (state) {
+      case -1: {
+        if (click && v <= fall) {
+          lightSensor_edgeEvent(EVENT_CLICK, t, v);
+          state = 0;
+        }
+      } break;
+      case 0: {
+        if (click) lightSensor_edgeEvent(EVENT_CLICK, t, v);
+        if (previous < rise && v >= rise) {
+          lightSensor_edgeEvent(EVENT_RISE, t, v);
+          state = 1;
+        }
+      } break;
+      case 1: {
+        if (click) lightSensor_edgeEvent(EVENT_CLICK, t, v);
+        if (previous > fall && v <= fall) {
+          lightSensor_edgeEvent(EVENT_FALL, t, v);
+          state = 0;
+        }
+      } break;
+    }
+    previous = v;
+    if (v > peak) peak = v;
+    if (t - lastPeak >= EDGE_PEAK_INTERVAL_US) {
+      lightSensor_edgeEvent(EVENT_PEAK, t, peak);
+      peak = 0;
+      lastPeak = t;
+    }
+    //events are sent as soon as they happen
+    if (edgeEvent != frame + 4) {
+      byte* p = frame;
+      *p++ = FRAME_SYNC;
+      *p++ = FRAME_TYPE_EVENTS;
+      *p++ = frameSequence++;
+      *p++ = (edgeEvent - frame - 4) / EVENT_SIZE;
+      p = edgeEvent;
+      byte s1 = 0, s2 = 0;
+      for (byte* c = frame + 1; c < p; c++) {
+        s1 += *c;
+        s2 += s1;
+      }
+      *p++ = s1;
+      *p++ = s2;
+      Serial.write(frame, p - frame);
+    }
+    OSCILLOSCOPE_DEBUG_PULSE();
+  }
+  free(frame);
+  OSCILLOSCOPE_DEBUG_END();
+  lightSensor_resetPins();
+}
+
+void lightSensor(byte flags) {
+  if (!(flags & FEATURE_MONITOR)) lightSensor_setupButton(flags);
+  lightSensor_setup(flags);
   //begin monitoring
   if (flags & FEATURE_NOBUFFER) {
     if (flags & FEATURE_MONITOR) {
@@ -245,10 +507,11 @@ void lightSensor(byte flags) {
       lightSensor_unbuffered_click();
     }
   } else {
+    frameSequence = 0;
     if (flags & FEATURE_MONITOR) {
-      lightSensor_buffered_monitor();
+      lightSensor_buffered_monitor(flags & FEATURE_FRAMED);
     } else {
-      lightSensor_buffered_click();
+      lightSensor_buffered_click(flags & FEATURE_FRAMED);
     }
   }
   lightSensor_resetPins();
@@ -259,6 +522,15 @@ void LIGHTSENSOR_COMMANDS(byte cmd, byte flags){
     case COMMAND_LIGHTSENSOR:{
       lightSensor(flags);
     } break;
+    case COMMAND_SHOT:{
+      lightSensor_shot(flags);
+    } break;
+    case COMMAND_DEADBAND:{
+      deadband = flags;
+    } break;
+    case COMMAND_EDGE:{
+      lightSensor_edge(flags);
+    } break;
     default: break;
   }
 }
@@ -6,6 +6,8 @@
 #define COMMAND_IDLE          0x49  //stop current activity and wait for next command (I)
 #define COMMAND_ID            0x44  //identify device version and capabilities (D)
 
+#define IDLE_ACK F("IDLE\n")        //sent after every IDLE command so the app knows exactly when the previous activity's data ends
+
 void setup() {
   Serial.begin(2000000); //pro micro uses USB CDC so speed is not relevant
   LIGHTSENSOR_INITIALIZE();
@@ -61,6 +63,20 @@ void identify(byte flags) {
   #else
   Serial.println(F("0"));
   #endif
+  Serial.print(F("IdleAck: "));
+  Serial.println(F("1"));
+  #ifdef LIGHTSENSOR_SUPPORT
+  Serial.print(F("Protocol: "));
+  Serial.println(F("2"));
+  Serial.print(F("Shot: "));
+  Serial.println(F("1"));
+  Serial.print(F("Edge: "));
+  Serial.println(F("1"));
+  Serial.print(F("RunLength: "));
+  Serial.println(F("1"));
+  Serial.print(F("Reconfigure: "));
+  Serial.println(F("1"));
+  #endif
   Serial.print(F("MinAppVer: "));
   Serial.println(MIN_APP_VERSION);
   Serial.print(F("SerialNo: "));
@@ -104,7 +120,9 @@ void loop() {
   #endif
   //run command
   switch (cmd) {
-    case COMMAND_IDLE: break;
+    case COMMAND_IDLE: {
+        Serial.print(IDLE_ACK);
+      } break;
     case COMMAND_ID: {
         identify(flags);
       } break;